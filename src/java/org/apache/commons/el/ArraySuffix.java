@@ -18,6 +18,7 @@ package org.apache.commons.el;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
 
@@ -67,6 +68,17 @@ import org.apache.commons.logging.LogFactory;
  *   otherwise
  *     error
  * </pre></ul>
+ *
+ * <p>When the index is a constant String (as in a.b or a["b"]), the
+ * suffix keeps an inline cache of the last few classes of "a" it has
+ * seen, each with the way to get the property from that class (a Map
+ * lookup or a read method).  An evaluation on a cached class skips
+ * the type tests and the BeanInfoManager lookup.  Once more than
+ * MAX_CACHED_CLASSES classes have been seen the suffix is considered
+ * megamorphic, and always takes the generic path.  Every suffix with
+ * a non-empty inline cache is registered (weakly), so that {@link
+ * #purgeInlineCaches} can remove the classes of a ClassLoader that is
+ * being discarded, wherever the parsed expression is kept.
  * 
  * @author Nathan Abramson - Art Technology Group
  * @author Shawn Bayern
@@ -84,6 +96,31 @@ public class ArraySuffix
     // Zero-argument array
     static Object[] sNoArgs = new Object[0];
 
+    // The maximum number of receiver classes kept in the inline cache
+    static final int MAX_CACHED_CLASSES = 4;
+
+    // The empty inline cache
+    static final CachedAccessor[] sNoAccessors = new CachedAccessor[0];
+
+    // The suffixes whose inline caches may be non-empty, as keys
+    static final WeakIdentityMap sInlineCaches = new WeakIdentityMap();
+
+    //-------------------------------------
+    // Member variables
+    //-------------------------------------
+
+    // The inline cache, replaced (never modified) as classes are added
+    volatile CachedAccessor[] mCachedAccessors = sNoAccessors;
+
+    // Flag if too many classes have been seen to cache them
+    volatile boolean mMegamorphic;
+
+    // The number of evaluations that used the inline cache, and that
+    // had to resolve the receiver class.  These are updated without
+    // synchronization, so they are approximate.
+    long mInlineCacheHits;
+    long mInlineCacheMisses;
+
     //-------------------------------------
     // Properties
     //-------------------------------------
@@ -97,6 +134,7 @@ public class ArraySuffix
 
     public void setIndex(Expression pIndex) {
         mIndex = pIndex;
+        clearInlineCache();
     }
 
     //-------------------------------------
@@ -120,6 +158,21 @@ public class ArraySuffix
         return mIndex.evaluate(pResolver, functions);
     }
 
+    //-------------------------------------
+    /**
+     *
+     * Returns the index if it is a constant String, otherwise null
+     **/
+    String getConstantIndex() {
+        if (mIndex instanceof StringLiteral) {
+            Object value = ((StringLiteral) mIndex).getValue();
+            if (value instanceof String) {
+                return (String) value;
+            }
+        }
+        return null;
+    }
+
     //-------------------------------------
     /**
      *
@@ -129,6 +182,45 @@ public class ArraySuffix
         return "[]";
     }
 
+    //-------------------------------------
+    // Inline cache diagnostics
+    //-------------------------------------
+    /**
+     *
+     * Returns the (approximate) number of evaluations that found the
+     * receiver's class in the inline cache
+     **/
+    public long getInlineCacheHitCount() {
+        return mInlineCacheHits;
+    }
+
+    /**
+     *
+     * Returns the (approximate) number of evaluations that had to
+     * resolve the receiver's class
+     **/
+    public long getInlineCacheMissCount() {
+        return mInlineCacheMisses;
+    }
+
+    /**
+     *
+     * Returns true if the suffix has seen too many receiver classes to
+     * cache them
+     **/
+    public boolean isMegamorphic() {
+        return mMegamorphic;
+    }
+
+    /**
+     *
+     * Forgets the receiver classes seen so far
+     **/
+    synchronized void clearInlineCache() {
+        mCachedAccessors = sNoAccessors;
+        mMegamorphic = false;
+    }
+
     //-------------------------------------
     // ValueSuffix methods
     //-------------------------------------
@@ -147,6 +239,145 @@ public class ArraySuffix
      * given value.
      **/
     public Object evaluate(Object pValue, VariableResolver pResolver, FunctionMapper functions)
+    throws ELException {
+        String name;
+        if (pValue == null ||
+            mMegamorphic ||
+            (name = getConstantIndex()) == null) {
+            return evaluateGeneric(pValue, pResolver, functions);
+        }
+
+        // See if the receiver's class is in the inline cache
+        Class cl = pValue.getClass();
+        CachedAccessor[] accessors = mCachedAccessors;
+        for (int i = 0; i < accessors.length; i++) {
+            if (accessors[i].mClass == cl) {
+                mInlineCacheHits++;
+                return getValue(accessors[i], pValue, name);
+            }
+        }
+
+        mInlineCacheMisses++;
+        CachedAccessor accessor = resolveAccessor(pValue, name);
+        if (accessor == null) {
+            return evaluateGeneric(pValue, pResolver, functions);
+        }
+        addToInlineCache(accessor);
+        return getValue(accessor, pValue, name);
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Returns the CachedAccessor for getting the named property from
+     * the given value's class, or null if the value is a List or array
+     * or has no such readable property (these are left to the generic
+     * path, which reports the error).
+     **/
+    CachedAccessor resolveAccessor(Object pValue, String pName)
+        throws ELException {
+        if (pValue instanceof Map) {
+            return new CachedAccessor(pValue.getClass(), null);
+        }
+        if (pValue instanceof List || pValue.getClass().isArray()) {
+            return null;
+        }
+        BeanInfoProperty property =
+            BeanInfoManager.getBeanInfoProperty(pValue.getClass(), pName);
+        if (property == null || property.getReadMethod() == null) {
+            return null;
+        }
+        return new CachedAccessor(pValue.getClass(), property.getReadMethod());
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Adds the given CachedAccessor to the inline cache, or marks the
+     * suffix megamorphic if the cache is full
+     **/
+    synchronized void addToInlineCache(CachedAccessor pAccessor) {
+        CachedAccessor[] accessors = mCachedAccessors;
+        for (int i = 0; i < accessors.length; i++) {
+            if (accessors[i].mClass == pAccessor.mClass) {
+                return;
+            }
+        }
+        if (accessors.length >= MAX_CACHED_CLASSES) {
+            mMegamorphic = true;
+            mCachedAccessors = sNoAccessors;
+            return;
+        }
+        if (accessors.length == 0) {
+            sInlineCaches.put(this, Boolean.TRUE);
+        }
+        CachedAccessor[] newAccessors = new CachedAccessor[accessors.length + 1];
+        System.arraycopy(accessors, 0, newAccessors, 0, accessors.length);
+        newAccessors[accessors.length] = pAccessor;
+        mCachedAccessors = newAccessors;
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Removes the classes loaded by the given ClassLoader or its
+     * descendants from the inline cache
+     **/
+    synchronized void purgeInlineCache(ClassLoader pLoader) {
+        CachedAccessor[] accessors = mCachedAccessors;
+        CachedAccessor[] kept = new CachedAccessor[accessors.length];
+        int count = 0;
+        for (int i = 0; i < accessors.length; i++) {
+            if (!CachePartition.isLoadedBy(accessors[i].mClass, pLoader)) {
+                kept[count++] = accessors[i];
+            }
+        }
+        if (count == accessors.length) {
+            return;
+        }
+        if (count == 0) {
+            mCachedAccessors = sNoAccessors;
+            sInlineCaches.remove(this);
+            return;
+        }
+        CachedAccessor[] newAccessors = new CachedAccessor[count];
+        System.arraycopy(kept, 0, newAccessors, 0, count);
+        mCachedAccessors = newAccessors;
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Removes the classes loaded by the given ClassLoader or its
+     * descendants from the inline caches of all suffixes
+     **/
+    static void purgeInlineCaches(ClassLoader pLoader) {
+        Object[] suffixes = sInlineCaches.keys();
+        for (int i = 0; i < suffixes.length; i++) {
+            ((ArraySuffix) suffixes[i]).purgeInlineCache(pLoader);
+        }
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Gets the named property from the given value using the given
+     * CachedAccessor
+     **/
+    Object getValue(CachedAccessor pAccessor, Object pValue, String pName)
+        throws ELException {
+        if (pAccessor.mReadMethod == null) {
+            return ((Map) pValue).get(pName);
+        }
+        return invokeReadMethod(pAccessor.mReadMethod, pValue, pName);
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Evaluates the suffix without the inline cache
+     **/
+    Object evaluateGeneric(Object pValue, VariableResolver pResolver, FunctionMapper functions)
     throws ELException {
         Object indexVal;
         String indexStr;
@@ -261,26 +492,7 @@ public class ArraySuffix
         else if ((property = BeanInfoManager.getBeanInfoProperty
             (pValue.getClass(), indexStr)) != null &&
             property.getReadMethod() != null) {
-            try {
-                return property.getReadMethod().invoke(pValue, sNoArgs);
-            } catch (InvocationTargetException exc) {
-                if (log.isErrorEnabled()) {
-                    String message = MessageUtil.getMessageWithArgs(
-                        Constants.ERROR_GETTING_PROPERTY, indexStr, pValue.getClass().getName());
-                    Throwable t = exc.getTargetException();
-                    log.warn(message, t);
-                    throw new ELException(message, t);
-                }
-                return null;
-            } catch (Throwable t) {
-                if (log.isErrorEnabled()) {
-                    String message = MessageUtil.getMessageWithArgs(
-                        Constants.ERROR_GETTING_PROPERTY, indexStr, pValue.getClass().getName());                    
-                    log.warn(message, t);
-                    throw new ELException(message, t);
-                }
-                return null;
-            }
+            return invokeReadMethod(property.getReadMethod(), pValue, indexStr);
         } else {
             if (log.isErrorEnabled()) {
                 String message = MessageUtil.getMessageWithArgs(
@@ -296,8 +508,70 @@ public class ArraySuffix
         return null;
     }
 
+    //-------------------------------------
+    /**
+     *
+     * Invokes the given read method on the given value
+     **/
+    Object invokeReadMethod(Method pReadMethod, Object pValue, String pName)
+        throws ELException {
+        try {
+            return pReadMethod.invoke(pValue, sNoArgs);
+        } catch (InvocationTargetException exc) {
+            ELException error =
+                getPropertyError(exc.getTargetException(), pValue, pName);
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        } catch (Throwable t) {
+            ELException error = getPropertyError(t, pValue, pName);
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+    }
+
+    //-------------------------------------
+    /**
+     *
+     * Logs the given failure of a read method, and returns the
+     * ELException to throw, or null if the property's value should be
+     * taken as null
+     **/
+    static ELException getPropertyError(Throwable pCause, Object pValue, String pName) {
+        if (log.isErrorEnabled()) {
+            String message = MessageUtil.getMessageWithArgs(
+                Constants.ERROR_GETTING_PROPERTY, pName, pValue.getClass().getName());
+            log.warn(message, pCause);
+            return new ELException(message, pCause);
+        }
+        return null;
+    }
+
     public ValueSuffix bindFunctions(final FunctionMapper functions) throws ELException {
-        return new ArraySuffix(mIndex.bindFunctions(functions));
+        final Expression index = mIndex.bindFunctions(functions);
+        // share this suffix, and its inline cache, if it has no functions
+        return (index == mIndex) ? this : new ArraySuffix(index);
     }
     //-------------------------------------
+    // CachedAccessor
+    //-------------------------------------
+    /**
+     *
+     * An inline cache entry: a receiver class and the read method of
+     * the property for that class, or null if the class is a Map.
+     **/
+    static final class CachedAccessor {
+        final Class mClass;
+        final Method mReadMethod;
+
+        CachedAccessor(Class pClass, Method pReadMethod) {
+            mClass = pClass;
+            mReadMethod = pReadMethod;
+        }
+    }
+
+    //-------------------------------------
 }
@@ -22,6 +22,7 @@ import java.beans.IndexedPropertyDescriptor;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
@@ -40,6 +41,13 @@ import org.apache.commons.logging.LogFactory;
  * those mappings are cached permanently so that once the
  * BeanInfoManager is calculated, it doesn't have to be calculated
  * again.
+ *
+ * <p>Simple properties are normally resolved one at a time, by
+ * looking up just the getX/isX (and setX) methods of the requested
+ * property, rather than by introspecting the whole class.  The full
+ * Introspector is used for classes that have an explicit BeanInfo
+ * (which may rename or hide properties), and for indexed properties
+ * and event sets.
  * 
  * @author Nathan Abramson - Art Technology Group
  * @version $Change: 181181 $$DateTime: 2001/06/26 09:55:09 $$Author$
@@ -65,23 +73,33 @@ public class BeanInfoManager
   // Member variables
   //-------------------------------------
 
-  // The BeanInfo
-  BeanInfo mBeanInfo;
+  // The property tables, published once initialized
+  volatile Tables mTables;
+
+  // Whether the class or a superclass has an explicit BeanInfo - one
+  // of UNKNOWN, EXPLICIT_BEANINFO, or NO_EXPLICIT_BEANINFO
+  volatile int mExplicitBeanInfo = UNKNOWN;
 
-  // Mapping from property name to BeanInfoProperty
-  Map mPropertyByName;
+  // Mapping from property name to the BeanInfoProperty resolved on
+  // demand (or NO_PROPERTY), replaced (never modified) as properties
+  // are resolved
+  volatile Map mResolvedProperties = new HashMap ();
 
-  // Mapping from property name to BeanInfoIndexedProperty
-  Map mIndexedPropertyByName;
+  // The number of names remembered as not being properties
+  int mUnresolvedCount;
 
-  // Mapping from event set name to event set descriptor
-  Map mEventSetByName;
+  static final int UNKNOWN = 0;
+  static final int EXPLICIT_BEANINFO = 1;
+  static final int NO_EXPLICIT_BEANINFO = 2;
 
-  // Flag if this is initialized
-  boolean mInitialized;
+  // The maximum number of names remembered as not being properties,
+  // so that lookups of arbitrary names can't grow the map unboundedly
+  static final int MAX_UNRESOLVED_NAMES = 64;
 
-  // The global mapping from class to BeanInfoManager
-  static Map mBeanInfoManagerByClass = new HashMap ();
+  // Stands in for a name that is known not to be a property
+  static final Object NO_PROPERTY = new Object ();
+
+  static final Class [] sNoParameters = new Class [0];
 
   //-------------------------------------
   /**
@@ -96,39 +114,33 @@ public class BeanInfoManager
   //-------------------------------------
   /**
    *
-   * Returns the BeanInfoManager for the specified class
+   * Returns the BeanInfoManager for the specified class, kept for the
+   * current Thread's context ClassLoader
    **/
   public static BeanInfoManager getBeanInfoManager (Class pClass)
   {
-    BeanInfoManager ret = (BeanInfoManager) 
-      mBeanInfoManagerByClass.get (pClass);
-    if (ret == null) {
-      ret = createBeanInfoManager (pClass);
-    }
-    return ret;
-  }
-
-  //-------------------------------------
-  /**
-   *
-   * Creates and registers the BeanInfoManager for the given class if
-   * it isn't already registered.
-   **/
-  static synchronized BeanInfoManager createBeanInfoManager (Class pClass)
-  {
-    // Because this method is synchronized statically, the
-    // BeanInfoManager is not initialized at this time (otherwise it
-    // could end up being a bottleneck for the entire system).  It is
-    // put into the map in an uninitialized state.  The first time
-    // someone tries to use it, it will be initialized (with proper
+    // The registry is read without locking.  The BeanInfoManager is
+    // put into it in an uninitialized state; the first time someone
+    // tries to use it, it will be initialized (with proper
     // synchronizations in place to make sure it is only initialized
-    // once).
-
-    BeanInfoManager ret = (BeanInfoManager) 
-      mBeanInfoManagerByClass.get (pClass);
+    // once).  Registering is synchronized on the registry, so that
+    // Threads racing to register a class (or to replace a
+    // BeanInfoManager that has been collected) all end up with the
+    // same one.
+
+    WeakIdentityMap beanInfoManagers =
+      CachePartition.getCurrent ().mBeanInfoManagers;
+    BeanInfoManager ret = (BeanInfoManager)
+      CachePartition.dereference (beanInfoManagers.get (pClass));
     if (ret == null) {
-      ret = new BeanInfoManager (pClass);
-      mBeanInfoManagerByClass.put (pClass, ret);
+      synchronized (beanInfoManagers) {
+	ret = (BeanInfoManager)
+	  CachePartition.dereference (beanInfoManagers.get (pClass));
+	if (ret == null) {
+	  ret = new BeanInfoManager (pClass);
+	  beanInfoManagers.put (pClass, new SoftReference (ret));
+	}
+      }
     }
     return ret;
   }
@@ -166,35 +178,41 @@ public class BeanInfoManager
   /**
    *
    * Makes sure that this class has been initialized, and synchronizes
-   * the initialization if it's required.
+   * the initialization if it's required.  Returns the property
+   * tables, which are never modified once published.
    **/
-  void checkInitialized ()
+  Tables checkInitialized ()
     throws ELException
   {
-    if (!mInitialized) {
+    Tables ret = mTables;
+    if (ret == null) {
       synchronized (this) {
-	if (!mInitialized) {
-	  initialize();
-	  mInitialized = true;
+	ret = mTables;
+	if (ret == null) {
+	  ret = initialize ();
+	  mTables = ret;
 	}
       }
     }
+    return ret;
   }
 
   //-------------------------------------
   /**
    *
-   * Initializes by mapping property names to BeanInfoProperties
+   * Creates the tables mapping property names to BeanInfoProperties
    **/
-  void initialize ()
+  Tables initialize ()
     throws ELException
   {
+    BeanInfo beanInfo = null;
+    Map propertyByName = new HashMap ();
+    Map indexedPropertyByName = new HashMap ();
+    Map eventSetByName = new HashMap ();
     try {
-      mBeanInfo = Introspector.getBeanInfo (mBeanClass);
+      beanInfo = Introspector.getBeanInfo (mBeanClass);
 
-      mPropertyByName = new HashMap ();
-      mIndexedPropertyByName = new HashMap ();
-      PropertyDescriptor [] pds = mBeanInfo.getPropertyDescriptors ();
+      PropertyDescriptor [] pds = beanInfo.getPropertyDescriptors ();
       for (int i = 0; pds != null && i < pds.length; i++) {
 	// Treat as both an indexed property and a normal property
 	PropertyDescriptor pd = pds [i];
@@ -207,7 +225,7 @@ public class BeanInfoManager
 	     writeMethod,
 	     ipd);
 
-	  mIndexedPropertyByName.put (ipd.getName (), property);
+	  indexedPropertyByName.put (ipd.getName (), property);
 	}
 
 	Method readMethod = getPublicMethod (pd.getReadMethod ());
@@ -217,14 +235,13 @@ public class BeanInfoManager
 	   writeMethod,
 	   pd);
 
-	mPropertyByName.put (pd.getName (), property);
+	propertyByName.put (pd.getName (), property);
       }
 
-      mEventSetByName = new HashMap ();
-      EventSetDescriptor [] esds = mBeanInfo.getEventSetDescriptors ();
+      EventSetDescriptor [] esds = beanInfo.getEventSetDescriptors ();
       for (int i = 0; esds != null && i < esds.length; i++) {
 	EventSetDescriptor esd = esds [i];
-	mEventSetByName.put (esd.getName (), esd);
+	eventSetByName.put (esd.getName (), esd);
       }
     }
     catch (IntrospectionException exc) {
@@ -234,6 +251,10 @@ public class BeanInfoManager
                     Constants.EXCEPTION_GETTING_BEANINFO, mBeanClass.getName()), exc);
         }     
     }
+    return new Tables (beanInfo,
+		       propertyByName,
+		       indexedPropertyByName,
+		       eventSetByName);
   }
 
   //-------------------------------------
@@ -244,8 +265,7 @@ public class BeanInfoManager
   BeanInfo getBeanInfo ()
     throws ELException
   {
-    checkInitialized();
-    return mBeanInfo;
+    return checkInitialized ().mBeanInfo;
   }
 
   //-------------------------------------
@@ -257,8 +277,19 @@ public class BeanInfoManager
   public BeanInfoProperty getProperty (String pPropertyName)
     throws ELException
   {
-    checkInitialized();
-    return (BeanInfoProperty) mPropertyByName.get (pPropertyName);
+    Tables tables = mTables;
+    if (tables == null && hasExplicitBeanInfo ()) {
+      tables = checkInitialized ();
+    }
+    if (tables != null) {
+      return (BeanInfoProperty) tables.mPropertyByName.get (pPropertyName);
+    }
+
+    Object ret = mResolvedProperties.get (pPropertyName);
+    if (ret == null) {
+      ret = resolveProperty (pPropertyName);
+    }
+    return (ret == NO_PROPERTY) ? null : (BeanInfoProperty) ret;
   }
 
   //-------------------------------------
@@ -271,9 +302,8 @@ public class BeanInfoManager
     (String pIndexedPropertyName)
     throws ELException
   {
-    checkInitialized();
     return (BeanInfoIndexedProperty) 
-      mIndexedPropertyByName.get (pIndexedPropertyName);
+      checkInitialized ().mIndexedPropertyByName.get (pIndexedPropertyName);
   }
 
   //-------------------------------------
@@ -285,8 +315,177 @@ public class BeanInfoManager
   public EventSetDescriptor getEventSet (String pEventSetName)
     throws ELException
   {
-    checkInitialized();
-    return (EventSetDescriptor) mEventSetByName.get (pEventSetName);
+    return (EventSetDescriptor)
+      checkInitialized ().mEventSetByName.get (pEventSetName);
+  }
+
+  //-------------------------------------
+  // Resolving properties on demand
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the class or one of its superclasses has an
+   * explicit BeanInfo, found the way the Introspector finds it
+   **/
+  boolean hasExplicitBeanInfo ()
+  {
+    int ret = mExplicitBeanInfo;
+    if (ret == UNKNOWN) {
+      ret = findExplicitBeanInfo (mBeanClass) ?
+	EXPLICIT_BEANINFO :
+	NO_EXPLICIT_BEANINFO;
+      mExplicitBeanInfo = ret;
+    }
+    return ret == EXPLICIT_BEANINFO;
+  }
+
+  //-------------------------------------
+  static boolean findExplicitBeanInfo (Class pClass)
+  {
+    String [] searchPath = Introspector.getBeanInfoSearchPath ();
+    for (Class cl = pClass;
+	 cl != null && cl != Object.class;
+	 cl = cl.getSuperclass ()) {
+      String name = cl.getName () + "BeanInfo";
+      if (classExists (name, cl)) {
+	return true;
+      }
+      String shortName = name.substring (name.lastIndexOf ('.') + 1);
+      for (int i = 0; searchPath != null && i < searchPath.length; i++) {
+	if (classExists (searchPath [i] + "." + shortName, cl)) {
+	  return true;
+	}
+      }
+    }
+    return false;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the named class can be loaded by the loader of
+   * the given class or by the context ClassLoader
+   **/
+  static boolean classExists (String pName, Class pRelativeTo)
+  {
+    ClassLoader loader = pRelativeTo.getClassLoader ();
+    ClassLoader contextLoader =
+      Thread.currentThread ().getContextClassLoader ();
+    return
+      classExists (pName, loader) ||
+      (contextLoader != loader && classExists (pName, contextLoader));
+  }
+
+  //-------------------------------------
+  static boolean classExists (String pName, ClassLoader pLoader)
+  {
+    try {
+      Class.forName (pName, false, pLoader);
+      return true;
+    }
+    catch (ClassNotFoundException exc) {
+      return false;
+    }
+    catch (LinkageError exc) {
+      // The class is there, even if it can't be used
+      return true;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Resolves the named property and remembers the result
+   **/
+  synchronized Object resolveProperty (String pPropertyName)
+  {
+    Object ret = mResolvedProperties.get (pPropertyName);
+    if (ret != null) {
+      return ret;
+    }
+
+    ret = findProperty (pPropertyName);
+    if (ret == null) {
+      if (mUnresolvedCount >= MAX_UNRESOLVED_NAMES) {
+	return NO_PROPERTY;
+      }
+      mUnresolvedCount++;
+      ret = NO_PROPERTY;
+    }
+
+    Map resolvedProperties = new HashMap (mResolvedProperties);
+    resolvedProperties.put (pPropertyName, ret);
+    mResolvedProperties = resolvedProperties;
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Finds the readable property with the given name, or returns null.
+   * The accessor names tried are the ones the Introspector would map
+   * to the property name.
+   **/
+  BeanInfoProperty findProperty (String pPropertyName)
+  {
+    if (pPropertyName.length () == 0) {
+      return null;
+    }
+    String capitalized =
+      Character.toUpperCase (pPropertyName.charAt (0)) +
+      pPropertyName.substring (1);
+    BeanInfoProperty ret = findProperty (pPropertyName, capitalized);
+    if (ret == null && !capitalized.equals (pPropertyName)) {
+      ret = findProperty (pPropertyName, pPropertyName);
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  BeanInfoProperty findProperty (String pPropertyName, String pSuffix)
+  {
+    if (!pPropertyName.equals (Introspector.decapitalize (pSuffix))) {
+      return null;
+    }
+
+    // A boolean "is" method takes precedence over a "get" method
+    Method readMethod = findAccessor ("is" + pSuffix, sNoParameters);
+    if (readMethod == null || readMethod.getReturnType () != Boolean.TYPE) {
+      readMethod = findAccessor ("get" + pSuffix, sNoParameters);
+      if (readMethod == null || readMethod.getReturnType () == Void.TYPE) {
+	return null;
+      }
+    }
+
+    Method writeMethod = findAccessor
+      ("set" + pSuffix, new Class [] { readMethod.getReturnType () });
+    if (writeMethod != null && writeMethod.getReturnType () != Void.TYPE) {
+      writeMethod = null;
+    }
+
+    return new BeanInfoProperty (pPropertyName,
+				 getPublicMethod (readMethod),
+				 getPublicMethod (writeMethod));
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the public, non-static method of the class with the given
+   * name and parameters, or null
+   **/
+  Method findAccessor (String pName, Class [] pParameterTypes)
+  {
+    try {
+      Method ret = mBeanClass.getMethod (pName, pParameterTypes);
+      return Modifier.isStatic (ret.getModifiers ()) ? null : ret;
+    }
+    catch (NoSuchMethodException exc) {
+      return null;
+    }
+    catch (SecurityException exc) {
+      return null;
+    }
   }
 
   //-------------------------------------
@@ -382,5 +581,33 @@ public class BeanInfoManager
     return null;
   }
 
+  //-------------------------------------
+  // Tables
+  //-------------------------------------
+  /**
+   *
+   * The results of introspecting a class.  The maps are filled in
+   * before the Tables is published and never modified afterwards, so
+   * they may be read by any number of Threads without locking.
+   **/
+  static final class Tables
+  {
+    final BeanInfo mBeanInfo;
+    final Map mPropertyByName;
+    final Map mIndexedPropertyByName;
+    final Map mEventSetByName;
+
+    Tables (BeanInfo pBeanInfo,
+	    Map pPropertyByName,
+	    Map pIndexedPropertyByName,
+	    Map pEventSetByName)
+    {
+      mBeanInfo = pBeanInfo;
+      mPropertyByName = pPropertyByName;
+      mIndexedPropertyByName = pIndexedPropertyByName;
+      mEventSetByName = pEventSetByName;
+    }
+  }
+
   //-------------------------------------
 }
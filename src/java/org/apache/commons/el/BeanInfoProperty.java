@@ -16,6 +16,7 @@
  */
 package org.apache.commons.el;
 
+import java.beans.IntrospectionException;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 
@@ -57,7 +58,26 @@ public class BeanInfoProperty
 
   PropertyDescriptor mPropertyDescriptor;
   public PropertyDescriptor getPropertyDescriptor ()
-  { return mPropertyDescriptor; }
+  {
+    // Properties resolved without the Introspector create their
+    // PropertyDescriptor only if it is asked for
+    if (mPropertyDescriptor == null && mPropertyName != null) {
+      try {
+	mPropertyDescriptor = new PropertyDescriptor
+	  (mPropertyName, mReadMethod, mWriteMethod);
+      }
+      catch (IntrospectionException exc) {
+      }
+    }
+    return mPropertyDescriptor;
+  }
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  // The property name, if there is no PropertyDescriptor yet
+  String mPropertyName;
 
   //-------------------------------------
   /**
@@ -73,5 +93,19 @@ public class BeanInfoProperty
     mPropertyDescriptor = pPropertyDescriptor;
   }
 
+  //-------------------------------------
+  /**
+   *
+   * Constructor for a property found without the Introspector
+   **/
+  BeanInfoProperty (String pPropertyName,
+		    Method pReadMethod,
+		    Method pWriteMethod)
+  {
+    mPropertyName = pPropertyName;
+    mReadMethod = pReadMethod;
+    mWriteMethod = pWriteMethod;
+  }
+
   //-------------------------------------
 }
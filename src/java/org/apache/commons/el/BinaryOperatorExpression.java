@@ -17,7 +17,6 @@
 package org.apache.commons.el;
 
 import java.util.List;
-import java.util.Iterator;
 import java.util.ArrayList;
 
 import javax.servlet.jsp.el.ELException;
@@ -113,9 +112,62 @@ public class BinaryOperatorExpression
 			  FunctionMapper functions)
     throws ELException
   {
-    Object value = mExpression.evaluate (pResolver, functions);
+    PrimitiveValue value = new PrimitiveValue ();
+    evaluatePrimitive (pResolver, functions, value);
+    return value.getObject ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression into the given PrimitiveValue.  The
+   * arithmetic, relational and equality operators are applied directly
+   * to long and double operands, so that the intermediate results of
+   * nested arithmetic are only boxed once the whole expression has
+   * been evaluated.
+   **/
+  int evaluatePrimitive (VariableResolver pResolver,
+			 FunctionMapper functions,
+			 PrimitiveValue pValue)
+    throws ELException
+  {
+    int kind = mExpression.evaluatePrimitive (pResolver, functions, pValue);
     for (int i = 0, size = mOperators.size(); i < size; i++) {
       BinaryOperator operator = (BinaryOperator) mOperators.get (i);
+      Expression expression = (Expression) mExpressions.get (i);
+
+      if (kind != PrimitiveValue.OBJECT && isPrimitiveOperator (operator)) {
+	// Keep the left operand, as evaluating the right one reuses
+	// the PrimitiveValue
+	int leftKind = kind;
+	long leftLong = pValue.mLong;
+	double leftDouble = pValue.getDouble ();
+	Object leftObject = pValue.mObject;
+
+	int rightKind = expression.evaluatePrimitive (pResolver,
+						      functions,
+						      pValue);
+	if (rightKind != PrimitiveValue.OBJECT) {
+	  kind = applyPrimitive (operator,
+				 leftKind,
+				 leftLong,
+				 leftDouble,
+				 pValue);
+	  if (kind != -1) {
+	    continue;
+	  }
+	}
+
+	if (leftObject == null) {
+	  leftObject = (leftKind == PrimitiveValue.LONG) ?
+	    (Object) PrimitiveObjects.getLong (leftLong) :
+	    (Object) PrimitiveObjects.getDouble (leftDouble);
+	}
+	kind = pValue.set (operator.apply (leftObject, pValue.getObject ()));
+	continue;
+      }
+
+      Object value = pValue.getObject ();
 
       // For the And/Or operators, we need to coerce to a boolean
       // before testing if we shouldEvaluate
@@ -124,28 +176,126 @@ public class BinaryOperatorExpression
       }
 
       if (operator.shouldEvaluate (value)) {
-	Expression expression = (Expression) mExpressions.get (i);
 	Object nextValue = expression.evaluate (pResolver,
 						functions);
 
 	value = operator.apply (value, nextValue);
       }
+      kind = pValue.set (value);
+    }
+    return kind;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the operator can be applied to unboxed long and
+   * double operands.  These operators always evaluate their right
+   * operand.
+   **/
+  static boolean isPrimitiveOperator (BinaryOperator pOperator)
+  {
+    Class operatorClass = pOperator.getClass ();
+    return
+      operatorClass == PlusOperator.class ||
+      operatorClass == MinusOperator.class ||
+      operatorClass == MultiplyOperator.class ||
+      pOperator instanceof RelationalOperator ||
+      pOperator instanceof EqualityOperator;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Applies the operator to the given left operand and the right
+   * operand in the PrimitiveValue, both longs or doubles, as the
+   * Coercions would, leaving the result in the PrimitiveValue.  Long
+   * arithmetic wraps around on overflow, as it does when boxed.
+   * Returns the kind of the result, or -1 if the operator has to be
+   * applied to the boxed operands instead.
+   **/
+  static int applyPrimitive (BinaryOperator pOperator,
+			     int pLeftKind,
+			     long pLeftLong,
+			     double pLeftDouble,
+			     PrimitiveValue pValue)
+  {
+    boolean longs =
+      pLeftKind == PrimitiveValue.LONG &&
+      pValue.mKind == PrimitiveValue.LONG;
+
+    if (pOperator instanceof ArithmeticOperator) {
+      ArithmeticOperator operator = (ArithmeticOperator) pOperator;
+      if (longs) {
+	return pValue.setLong (operator.apply (pLeftLong, pValue.mLong));
+      }
+      else {
+	return pValue.setDouble (operator.apply (pLeftDouble,
+						 pValue.getDouble ()));
+      }
     }
-    return value;
+
+    // The relational and equality operators compare identical objects
+    // without looking at their values, which only makes a difference
+    // for NaNs
+    double right = pValue.getDouble ();
+    if (!longs && (Double.isNaN (pLeftDouble) || Double.isNaN (right))) {
+      return -1;
+    }
+
+    boolean result;
+    if (pOperator instanceof RelationalOperator) {
+      RelationalOperator operator = (RelationalOperator) pOperator;
+      result = longs ?
+	operator.apply (pLeftLong, pValue.mLong) :
+	operator.apply (pLeftDouble, right);
+    }
+    else {
+      EqualityOperator operator = (EqualityOperator) pOperator;
+      result = longs ?
+	operator.apply (pLeftLong == pValue.mLong) :
+	operator.apply (pLeftDouble == right);
+    }
+    return pValue.set (PrimitiveObjects.getBoolean (result));
   }
 
+  //-------------------------------------
+
     public Expression bindFunctions(final FunctionMapper functions) throws ELException {
-        final List args = new ArrayList(mExpressions.size());
-        for (Iterator argIter = mExpressions.iterator(); argIter.hasNext();) {
-            args.add(((Expression)argIter.next()).bindFunctions(functions));
+        final Expression expression = mExpression.bindFunctions(functions);
+        final List args = bindAll(mExpressions, functions);
+        if (expression == mExpression && args == mExpressions) {
+            // no functions below here, so share this subtree
+            return this;
         }
         // it would be nice if we knew for sure that the operators list
         // was immutable, but we'll just assume so for now.
         return new BinaryOperatorExpression(
-                mExpression.bindFunctions(functions),
+                expression,
                 mOperators,
                 args);
     }
 
+    /**
+     * Binds the functions of each of the given Expressions, returning
+     * the given List itself if none of them has any functions.
+     */
+    static List bindAll(final List expressions, final FunctionMapper functions)
+            throws ELException {
+        List bound = null;
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            Expression expression = (Expression) expressions.get(i);
+            Expression boundExpression = expression.bindFunctions(functions);
+            if (bound == null && boundExpression != expression) {
+                bound = new ArrayList(size);
+                bound.addAll(expressions.subList(0, i));
+            }
+            if (bound != null) {
+                bound.add(boundExpression);
+            }
+        }
+        return (bound == null) ? expressions : bound;
+    }
+
   //-------------------------------------
 }
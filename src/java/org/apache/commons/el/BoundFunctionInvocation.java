@@ -22,16 +22,27 @@ import java.util.List;
 
 import javax.servlet.jsp.el.ELException;
 import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
 
 /**
  * A subclass of <code>FunctionInvocation</code> which is bound
  * to a particular <code>Method</code>.  A bound function does
  * not require a <code>FunctionMapper</code> to be evaluated.
+ * The way each argument is converted to its parameter type is
+ * worked out once, when the function is bound.
  * 
  * @author Jamie Taylor
  */
 public class BoundFunctionInvocation extends FunctionInvocation {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
     private final Method method;
+    // the coercion plan of each parameter, its declared type (named in
+    // errors) and the object type the plan checks values against, or
+    // null if there is no method
+    private final int[] coercions;
+    private final Class[] parameterTypes;
+    private final Class[] coercionTypes;
     
     /**
      * @param functionName
@@ -44,6 +55,30 @@ public class BoundFunctionInvocation extends FunctionInvocation {
     {
         super(functionName, argumentList);
         this.method = method;
+        if (method == null) {
+            this.coercions = null;
+            this.parameterTypes = null;
+            this.coercionTypes = null;
+        } else {
+            final Class[] params = method.getParameterTypes();
+            this.coercions = new int[params.length];
+            this.parameterTypes = params;
+            this.coercionTypes = new Class[params.length];
+            for (int i = 0; i < params.length; i++) {
+                coercions[i] = ExpressionEvaluatorImpl.getCoercion(params[i]);
+                coercionTypes[i] =
+                    (coercions[i] == ExpressionEvaluatorImpl.COERCE_NUMBER) ?
+                    PrimitiveObjects.getPrimitiveObjectClass(params[i]) :
+                    params[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the <code>Method</code> supplied to the constructor.
+     */
+    public Method getMethod() {
+        return method;
     }
 
     /**
@@ -54,4 +89,38 @@ public class BoundFunctionInvocation extends FunctionInvocation {
             throws ELException {
         return method;
     }
+
+    /**
+     * Evaluates the arguments, converts them with the precomputed
+     * coercions, and invokes the method.
+     */
+    public Object evaluate(final VariableResolver pResolver,
+                           final FunctionMapper functions)
+            throws ELException {
+        final List argumentList = getArgumentList();
+        if (method == null || coercions.length != argumentList.size()) {
+            // let the superclass report the problem
+            return super.evaluate(pResolver, functions);
+        }
+        final Object[] arguments =
+            (coercions.length == 0) ? NO_ARGUMENTS : new Object[coercions.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = coerceArgument(
+                i,
+                ((Expression) argumentList.get(i)).evaluate(pResolver, functions));
+        }
+        return invoke(method, arguments);
+    }
+
+    /**
+     * Converts the given value of the argument at the given index to
+     * the type of its parameter, as <code>Coercions.coerce</code> would.
+     */
+    Object coerceArgument(final int index, final Object value)
+            throws ELException {
+        return ExpressionEvaluatorImpl.coerce(value,
+                                              coercions[index],
+                                              parameterTypes[index],
+                                              coercionTypes[index]);
+    }
 }
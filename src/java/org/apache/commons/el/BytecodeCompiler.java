@@ -0,0 +1,1055 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+import org.apache.commons.el.ClassFileWriter.Code;
+import org.apache.commons.el.ClassFileWriter.Label;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ *
+ * <p>Compiles a parsed Expression into a generated subclass of
+ * GeneratedExpression, whose evaluate method does directly what the
+ * parsed Expression does by interpretation:
+ *
+ * <ul>
+ *   <li>+, -, * and the relational operators are done with long and
+ *       double arithmetic when both operands are Long/Integer/Short/Byte
+ *       or Double/Float, as the ExpressionCompiler does
+ *   <li>a property suffix whose receiver classes have already been
+ *       seen by its inline cache calls the getters of those classes
+ *       (or Map.get) directly, guarded by a check of the receiver's
+ *       class; other receivers go through the suffix as before
+ *   <li>a bound function whose method is public calls the method
+ *       directly, with its arguments converted by the coercions the
+ *       BoundFunctionInvocation chose for its parameters
+ *   <li>literal values, operators, suffixes and any subexpressions
+ *       that aren't compiled (such as unbound function invocations)
+ *       are passed to the generated class in its constants array
+ * </ul>
+ *
+ * <p>Each generated class is defined by its own ClassLoader, so that
+ * the class can be collected along with the last reference to the
+ * compiled expression.  If an expression can't be compiled for any
+ * reason, the parsed Expression itself is returned, and goes on being
+ * interpreted.
+ *
+ * @version $Id$
+ **/
+
+class BytecodeCompiler
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+
+  static final String GENERATED_CLASS_PREFIX =
+    "org/apache/commons/el/generated/Expression";
+
+  static final String OBJECT = "java/lang/Object";
+  static final String OBJECT_DESC = "Ljava/lang/Object;";
+  static final String NUMBER = "java/lang/Number";
+  static final String BOOLEAN = "java/lang/Boolean";
+  static final String STRING_BUFFER = "java/lang/StringBuffer";
+  static final String COERCIONS = ClassFileWriter.internalName (Coercions.class);
+  static final String EXPRESSION = ClassFileWriter.internalName (Expression.class);
+  static final String GENERATED_EXPRESSION =
+    ClassFileWriter.internalName (GeneratedExpression.class);
+  static final String BINARY_OPERATOR =
+    ClassFileWriter.internalName (BinaryOperator.class);
+  static final String UNARY_OPERATOR =
+    ClassFileWriter.internalName (UnaryOperator.class);
+  static final String ARITHMETIC_OPERATOR =
+    ClassFileWriter.internalName (ArithmeticOperator.class);
+  static final String RELATIONAL_OPERATOR =
+    ClassFileWriter.internalName (RelationalOperator.class);
+  static final String EQUALITY_OPERATOR =
+    ClassFileWriter.internalName (EqualityOperator.class);
+  static final String VALUE_SUFFIX =
+    ClassFileWriter.internalName (ValueSuffix.class);
+  static final String BOUND_FUNCTION_INVOCATION =
+    ClassFileWriter.internalName (BoundFunctionInvocation.class);
+
+  static final String EVALUATE_DESC =
+    ClassFileWriter.descriptor (new Class [] {
+      VariableResolver.class, FunctionMapper.class }, Object.class);
+  static final String SUFFIX_EVALUATE_DESC =
+    ClassFileWriter.descriptor (new Class [] {
+      Object.class, VariableResolver.class, FunctionMapper.class },
+      Object.class);
+  static final String CONSTRUCTOR_DESC =
+    ClassFileWriter.descriptor (new Class [] {
+      Expression.class, Object [].class }, Void.TYPE);
+
+  // The fixed local variables of the evaluate method
+  static final int RESOLVER_LOCAL = 1;
+  static final int FUNCTIONS_LOCAL = 2;
+  static final int CONSTANTS_LOCAL = 3;
+
+  /** The number of classes generated so far, used to name them **/
+  static int sClassCount;
+
+  private static Log log = LogFactory.getLog (BytecodeCompiler.class);
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The expression being compiled **/
+  Expression mSource;
+
+  /** The objects passed to the generated class in its constants
+      array **/
+  List mConstants = new ArrayList ();
+
+  /** The classes named by the generated code that its ClassLoader
+      can't be expected to find by name, by class name **/
+  Map mKnownClasses = new HashMap ();
+
+  /** The code of the evaluate method **/
+  Code mCode;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  BytecodeCompiler (Expression pSource)
+  {
+    mSource = pSource;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Compiles the given parsed Expression, returning a
+   * GeneratedExpression with the same expression String, or the
+   * Expression itself if it can't be compiled.
+   **/
+  public static Expression compile (Expression pExpression)
+  {
+    if (pExpression instanceof GeneratedExpression) {
+      return pExpression;
+    }
+    try {
+      return new BytecodeCompiler (pExpression).generate ();
+    }
+    catch (Throwable exc) {
+      // Anything from a method too large to a VerifyError just
+      // leaves the expression interpreted
+      if (log.isDebugEnabled ()) {
+	log.debug ("Unable to compile " + pExpression.getExpressionString (),
+		   exc);
+      }
+      return pExpression;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Generates, loads and instantiates the class
+   **/
+  Expression generate ()
+    throws Exception
+  {
+    String className = nextClassName ();
+    ClassFileWriter writer =
+      new ClassFileWriter (className, GENERATED_EXPRESSION);
+
+    // The constructor just passes its arguments to the superclass
+    Code init = writer.addMethod (ClassFileWriter.ACC_PUBLIC,
+				  "<init>",
+				  CONSTRUCTOR_DESC);
+    init.aload (0);
+    init.aload (1);
+    init.aload (2);
+    init.invoke (ClassFileWriter.INVOKESPECIAL,
+		 GENERATED_EXPRESSION,
+		 "<init>",
+		 CONSTRUCTOR_DESC);
+    init.op (ClassFileWriter.RETURN, 0);
+
+    mCode = writer.addMethod (ClassFileWriter.ACC_PUBLIC,
+			      "evaluate",
+			      EVALUATE_DESC);
+    mCode.aload (0);
+    mCode.getField (GENERATED_EXPRESSION, "mConstants", "[" + OBJECT_DESC);
+    mCode.astore (mCode.newLocal ());
+    compileExpression (mSource);
+    mCode.op (ClassFileWriter.ARETURN, -1);
+
+    Class cl = new GeneratedClassLoader (mKnownClasses).define
+      (className.replace ('/', '.'), writer.toByteArray ());
+    return (Expression) cl.getConstructor
+      (new Class [] { Expression.class, Object [].class }).newInstance
+      (new Object [] { mSource, mConstants.toArray () });
+  }
+
+  //-------------------------------------
+  static synchronized String nextClassName ()
+  {
+    return GENERATED_CLASS_PREFIX + (sClassCount++);
+  }
+
+  //-------------------------------------
+  // Expressions
+  //-------------------------------------
+  /**
+   *
+   * Generates the code that leaves the value of the given expression
+   * on the stack.  The stack must be empty at this point, since the
+   * code may include exception handlers.
+   **/
+  void compileExpression (Expression pExpression)
+  {
+    if (mCode.mStack != 0) {
+      throw new IllegalStateException ("Stack not empty");
+    }
+    if (pExpression instanceof Literal) {
+      Object value = ((Literal) pExpression).getValue ();
+      if (value == null) {
+	mCode.op (ClassFileWriter.ACONST_NULL, 1);
+      }
+      else {
+	pushConstant (value, OBJECT);
+      }
+    }
+    else if (pExpression instanceof NamedValue) {
+      mCode.aload (RESOLVER_LOCAL);
+      mCode.pushString (((NamedValue) pExpression).getName ());
+      invokeHelper ("resolveVariable",
+		    "(Ljavax/servlet/jsp/el/VariableResolver;" +
+		    "Ljava/lang/String;)Ljava/lang/Object;");
+    }
+    else if (pExpression instanceof ComplexValue) {
+      ComplexValue expression = (ComplexValue) pExpression;
+      compileExpression (expression.getPrefix ());
+      List suffixes = expression.getSuffixes ();
+      for (int i = 0; suffixes != null && i < suffixes.size (); i++) {
+	compileSuffix ((ValueSuffix) suffixes.get (i));
+      }
+    }
+    else if (pExpression instanceof BinaryOperatorExpression) {
+      BinaryOperatorExpression expression =
+	(BinaryOperatorExpression) pExpression;
+      compileExpression (expression.getExpression ());
+      List operators = expression.getOperators ();
+      List expressions = expression.getExpressions ();
+      for (int i = 0; i < operators.size (); i++) {
+	compileBinaryOperator ((BinaryOperator) operators.get (i),
+			       (Expression) expressions.get (i));
+      }
+    }
+    else if (pExpression instanceof UnaryOperatorExpression) {
+      UnaryOperatorExpression expression =
+	(UnaryOperatorExpression) pExpression;
+      compileExpression (expression.getExpression ());
+      if (expression.getOperator () != null) {
+	compileUnaryOperator (expression.getOperator ());
+      }
+      else {
+	List operators = expression.getOperators ();
+	for (int i = operators.size () - 1; i >= 0; i--) {
+	  compileUnaryOperator ((UnaryOperator) operators.get (i));
+	}
+      }
+    }
+    else if (pExpression instanceof ExpressionOptimizer.PrunedConditional) {
+      compileExpression
+	(((ExpressionOptimizer.PrunedConditional) pExpression).getBranch ());
+    }
+    else if (pExpression instanceof ConditionalExpression) {
+      ConditionalExpression expression = (ConditionalExpression) pExpression;
+      Label falseBranch = new Label ();
+      Label end = new Label ();
+      compileExpression (expression.getCondition ());
+      coerceToBoolean ();
+      mCode.jump (ClassFileWriter.IFEQ, falseBranch);
+      compileExpression (expression.getTrueBranch ());
+      mCode.jump (ClassFileWriter.GOTO, end);
+      mCode.mark (falseBranch);
+      compileExpression (expression.getFalseBranch ());
+      mCode.mark (end);
+    }
+    else if (pExpression instanceof ExpressionString) {
+      compileExpressionString ((ExpressionString) pExpression);
+    }
+    else if (pExpression instanceof BoundFunctionInvocation &&
+	     isCallable ((BoundFunctionInvocation) pExpression)) {
+      compileFunctionInvocation ((BoundFunctionInvocation) pExpression);
+    }
+    else {
+      // Let the parsed Expression evaluate itself
+      pushConstant (pExpression, EXPRESSION);
+      mCode.aload (RESOLVER_LOCAL);
+      mCode.aload (FUNCTIONS_LOCAL);
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		    EXPRESSION,
+		    "evaluate",
+		    EVALUATE_DESC);
+    }
+  }
+
+  //-------------------------------------
+  void compileExpressionString (ExpressionString pExpression)
+  {
+    int buffer = mCode.newLocal ();
+    mCode.typeOp (ClassFileWriter.NEW, STRING_BUFFER);
+    mCode.op (ClassFileWriter.DUP, 1);
+    mCode.invoke (ClassFileWriter.INVOKESPECIAL, STRING_BUFFER, "<init>", "()V");
+    mCode.astore (buffer);
+
+    Object [] elements = pExpression.getElements ();
+    for (int i = 0; i < elements.length; i++) {
+      if (elements [i] instanceof String) {
+	mCode.aload (buffer);
+	mCode.pushString ((String) elements [i]);
+	mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		      STRING_BUFFER,
+		      "append",
+		      "(Ljava/lang/String;)Ljava/lang/StringBuffer;");
+      }
+      else {
+	compileExpression ((Expression) elements [i]);
+	int value = mCode.newLocal ();
+	mCode.astore (value);
+	mCode.aload (buffer);
+	mCode.aload (value);
+	invokeHelper ("append",
+		      "(Ljava/lang/StringBuffer;Ljava/lang/Object;)" +
+		      "Ljava/lang/StringBuffer;");
+      }
+      mCode.op (ClassFileWriter.POP, -1);
+    }
+
+    mCode.aload (buffer);
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		  STRING_BUFFER,
+		  "toString",
+		  "()Ljava/lang/String;");
+  }
+
+  //-------------------------------------
+  // Functions
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the generated class can call the method of the
+   * given bound function directly
+   **/
+  static boolean isCallable (BoundFunctionInvocation pFunction)
+  {
+    Method method = pFunction.getMethod ();
+    if (pFunction instanceof PureFunctionInvocation) {
+      // The call goes through the function's result cache
+      return false;
+    }
+    if (method == null ||
+	method.getParameterTypes ().length !=
+	pFunction.getArgumentList ().size ()) {
+      // Leave the error to the function
+      return false;
+    }
+    String name = method.getDeclaringClass ().getName ();
+    return
+      Modifier.isPublic (method.getModifiers ()) &&
+      Modifier.isStatic (method.getModifiers ()) &&
+      Modifier.isPublic (method.getDeclaringClass ().getModifiers ()) &&
+      !name.startsWith ("sun.") &&
+      !name.startsWith ("com.sun.") &&
+      !name.startsWith ("jdk.");
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Generates a direct call to the method of the given bound function,
+   * handling anything it throws the way FunctionInvocation does
+   **/
+  void compileFunctionInvocation (BoundFunctionInvocation pFunction)
+  {
+    Method method = pFunction.getMethod ();
+    Class [] parameterTypes = method.getParameterTypes ();
+    Class returnType = method.getReturnType ();
+    List arguments = pFunction.getArgumentList ();
+    addKnownClass (method.getDeclaringClass ());
+    addKnownClass (returnType);
+
+    // Evaluate and coerce the arguments into locals
+    int [] locals = new int [parameterTypes.length];
+    for (int i = 0; i < parameterTypes.length; i++) {
+      addKnownClass (parameterTypes [i]);
+      compileExpression ((Expression) arguments.get (i));
+      locals [i] = mCode.newLocal ();
+      mCode.astore (locals [i]);
+      pushConstant (pFunction, BOUND_FUNCTION_INVOCATION);
+      mCode.pushInt (i);
+      mCode.aload (locals [i]);
+      invokeHelper ("coerceArgument",
+		    "(L" + BOUND_FUNCTION_INVOCATION + ";I" + OBJECT_DESC + ")" +
+		    OBJECT_DESC);
+      mCode.astore (locals [i]);
+    }
+
+    Label start = new Label ();
+    Label end = new Label ();
+    Label handler = new Label ();
+    Label noError = new Label ();
+    Label done = new Label ();
+
+    mCode.mark (start);
+    for (int i = 0; i < parameterTypes.length; i++) {
+      pushArgument (locals [i], parameterTypes [i]);
+    }
+    mCode.invoke (ClassFileWriter.INVOKESTATIC,
+		  ClassFileWriter.internalName (method.getDeclaringClass ()),
+		  method.getName (),
+		  ClassFileWriter.descriptor (parameterTypes, returnType));
+    mCode.mark (end);
+    if (returnType == Void.TYPE) {
+      mCode.op (ClassFileWriter.ACONST_NULL, 1);
+    }
+    else if (returnType.isPrimitive ()) {
+      invokeHelper ("box",
+		    "(" + ClassFileWriter.descriptor (returnType) + ")" +
+		    OBJECT_DESC);
+    }
+    else {
+      mCode.typeOp (ClassFileWriter.CHECKCAST, OBJECT);
+    }
+    mCode.jump (ClassFileWriter.GOTO, done);
+
+    // Anything thrown by the method (or by an argument of the wrong
+    // type) is reported as FunctionInvocation does
+    mCode.markHandler (handler);
+    mCode.pushString (pFunction.getFunctionName ());
+    invokeHelper ("getFunctionError",
+		  "(Ljava/lang/Throwable;Ljava/lang/String;)" +
+		  "Ljavax/servlet/jsp/el/ELException;");
+    mCode.op (ClassFileWriter.DUP, 1);
+    mCode.jump (ClassFileWriter.IFNULL, noError);
+    mCode.op (ClassFileWriter.ATHROW, -1);
+    mCode.mark (noError);
+    mCode.op (ClassFileWriter.POP, -1);
+    mCode.op (ClassFileWriter.ACONST_NULL, 1);
+    mCode.addHandler (start, end, handler, "java/lang/Throwable");
+    mCode.mark (done);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Pushes the coerced argument in the given local as a value of the
+   * given parameter type
+   **/
+  void pushArgument (int pLocal, Class pType)
+  {
+    if (pType == Boolean.TYPE) {
+      mCode.aload (pLocal);
+      mCode.typeOp (ClassFileWriter.CHECKCAST, BOOLEAN);
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL, BOOLEAN, "booleanValue", "()Z");
+    }
+    else if (pType == Character.TYPE) {
+      mCode.aload (pLocal);
+      mCode.typeOp (ClassFileWriter.CHECKCAST, "java/lang/Character");
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		    "java/lang/Character",
+		    "charValue",
+		    "()C");
+    }
+    else if (pType.isPrimitive ()) {
+      String descriptor = ClassFileWriter.descriptor (pType);
+      pushNumber (pLocal, pType.getName () + "Value", "()" + descriptor);
+    }
+    else {
+      mCode.aload (pLocal);
+      if (pType != Object.class) {
+	mCode.typeOp (ClassFileWriter.CHECKCAST,
+		      ClassFileWriter.internalName (pType));
+      }
+    }
+  }
+
+  //-------------------------------------
+  // Suffixes
+  //-------------------------------------
+  /**
+   *
+   * Generates the code that applies the given suffix to the value on
+   * the stack
+   **/
+  void compileSuffix (ValueSuffix pSuffix)
+  {
+    int value = mCode.newLocal ();
+    mCode.astore (value);
+
+    Label generic = new Label ();
+    Label end = new Label ();
+    String name = null;
+    ArraySuffix.CachedAccessor [] accessors = null;
+    if (pSuffix instanceof ArraySuffix) {
+      ArraySuffix suffix = (ArraySuffix) pSuffix;
+      name = suffix.getConstantIndex ();
+      accessors = suffix.mCachedAccessors;
+    }
+
+    if (name != null && accessors.length > 0) {
+      int valueClass = mCode.newLocal ();
+      mCode.aload (value);
+      mCode.jump (ClassFileWriter.IFNULL, generic);
+      mCode.aload (value);
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		    OBJECT,
+		    "getClass",
+		    "()Ljava/lang/Class;");
+      mCode.astore (valueClass);
+      for (int i = 0; i < accessors.length; i++) {
+	Method readMethod = accessors [i].mReadMethod;
+	if (readMethod != null && !isCallable (readMethod)) {
+	  continue;
+	}
+	Label next = new Label ();
+	mCode.aload (valueClass);
+	pushConstant (accessors [i].mClass, "java/lang/Class");
+	mCode.jump (ClassFileWriter.IF_ACMPNE, next);
+	if (readMethod == null) {
+	  mCode.aload (value);
+	  mCode.typeOp (ClassFileWriter.CHECKCAST, "java/util/Map");
+	  mCode.pushString (name);
+	  mCode.invoke (ClassFileWriter.INVOKEINTERFACE,
+			"java/util/Map",
+			"get",
+			"(Ljava/lang/Object;)Ljava/lang/Object;");
+	}
+	else {
+	  compileReadMethodCall (readMethod, value, name, end);
+	}
+	mCode.jump (ClassFileWriter.GOTO, end);
+	mCode.mark (next);
+      }
+    }
+
+    // Any other receiver goes through the suffix
+    mCode.mark (generic);
+    pushConstant (pSuffix, VALUE_SUFFIX);
+    mCode.aload (value);
+    mCode.aload (RESOLVER_LOCAL);
+    mCode.aload (FUNCTIONS_LOCAL);
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		  VALUE_SUFFIX,
+		  "evaluate",
+		  SUFFIX_EVALUATE_DESC);
+    mCode.mark (end);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Generates a direct call to the given read method on the value in
+   * the given local, handling anything it throws the way ArraySuffix
+   * does
+   **/
+  void compileReadMethodCall (Method pReadMethod,
+			      int pValue,
+			      String pName,
+			      Label pEnd)
+  {
+    Class declaringClass = pReadMethod.getDeclaringClass ();
+    Class returnType = pReadMethod.getReturnType ();
+    addKnownClass (declaringClass);
+    addKnownClass (returnType);
+
+    Label start = new Label ();
+    Label end = new Label ();
+    Label handler = new Label ();
+    Label noError = new Label ();
+    String owner = ClassFileWriter.internalName (declaringClass);
+
+    mCode.mark (start);
+    mCode.aload (pValue);
+    mCode.typeOp (ClassFileWriter.CHECKCAST, owner);
+    mCode.invoke (declaringClass.isInterface () ?
+		  ClassFileWriter.INVOKEINTERFACE :
+		  ClassFileWriter.INVOKEVIRTUAL,
+		  owner,
+		  pReadMethod.getName (),
+		  ClassFileWriter.descriptor (new Class [0], returnType));
+    mCode.mark (end);
+    if (returnType.isPrimitive ()) {
+      invokeHelper ("box",
+		    "(" + ClassFileWriter.descriptor (returnType) + ")" +
+		    OBJECT_DESC);
+    }
+    else {
+      // Keeps the verifier from having to load the return type to
+      // merge it with the other branches
+      mCode.typeOp (ClassFileWriter.CHECKCAST, OBJECT);
+    }
+    mCode.jump (ClassFileWriter.GOTO, pEnd);
+
+    // Anything thrown by the getter is reported as ArraySuffix does
+    mCode.markHandler (handler);
+    mCode.aload (pValue);
+    mCode.pushString (pName);
+    invokeHelper ("getPropertyError",
+		  "(Ljava/lang/Throwable;Ljava/lang/Object;Ljava/lang/String;)" +
+		  "Ljavax/servlet/jsp/el/ELException;");
+    mCode.op (ClassFileWriter.DUP, 1);
+    mCode.jump (ClassFileWriter.IFNULL, noError);
+    mCode.op (ClassFileWriter.ATHROW, -1);
+    mCode.mark (noError);
+    mCode.op (ClassFileWriter.POP, -1);
+    mCode.op (ClassFileWriter.ACONST_NULL, 1);
+    mCode.addHandler (start, end, handler, "java/lang/Throwable");
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the generated class can call the given read method
+   * directly
+   **/
+  static boolean isCallable (Method pReadMethod)
+  {
+    Class declaringClass = pReadMethod.getDeclaringClass ();
+    String name = declaringClass.getName ();
+    return
+      Modifier.isPublic (pReadMethod.getModifiers ()) &&
+      !Modifier.isStatic (pReadMethod.getModifiers ()) &&
+      Modifier.isPublic (declaringClass.getModifiers ()) &&
+      pReadMethod.getReturnType () != Void.TYPE &&
+      !name.startsWith ("sun.") &&
+      !name.startsWith ("com.sun.") &&
+      !name.startsWith ("jdk.");
+  }
+
+  //-------------------------------------
+  // Operators
+  //-------------------------------------
+  /**
+   *
+   * Generates the code that applies the given operator to the value on
+   * the stack and the value of the given expression
+   **/
+  void compileBinaryOperator (BinaryOperator pOperator, Expression pRight)
+  {
+    Class operatorClass = pOperator.getClass ();
+    if (operatorClass == AndOperator.class ||
+	operatorClass == OrOperator.class) {
+      // Leave the left operand as the value if it decides the result
+      Label end = new Label ();
+      mCode.invoke (ClassFileWriter.INVOKESTATIC,
+		    COERCIONS,
+		    "coerceToBoolean",
+		    "(Ljava/lang/Object;)Ljava/lang/Boolean;");
+      mCode.op (ClassFileWriter.DUP, 1);
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		    BOOLEAN,
+		    "booleanValue",
+		    "()Z");
+      mCode.jump ((operatorClass == AndOperator.class) ?
+		  ClassFileWriter.IFEQ :
+		  ClassFileWriter.IFNE,
+		  end);
+      mCode.op (ClassFileWriter.POP, -1);
+      compileExpression (pRight);
+      coerceToBoolean ();
+      invokeHelper ("box", "(Z)" + OBJECT_DESC);
+      mCode.mark (end);
+      return;
+    }
+
+    int left = mCode.newLocal ();
+    int right = mCode.newLocal ();
+    if (operatorClass == PlusOperator.class ||
+	operatorClass == MinusOperator.class ||
+	operatorClass == MultiplyOperator.class) {
+      mCode.astore (left);
+      compileExpression (pRight);
+      mCode.astore (right);
+      compileArithmeticOperator ((ArithmeticOperator) pOperator, left, right);
+    }
+    else if (pOperator instanceof RelationalOperator) {
+      mCode.astore (left);
+      compileExpression (pRight);
+      mCode.astore (right);
+      compileRelationalOperator ((RelationalOperator) pOperator, left, right);
+    }
+    else if (pOperator instanceof EqualityOperator) {
+      mCode.astore (left);
+      compileExpression (pRight);
+      mCode.astore (right);
+      compileEqualityOperator ((EqualityOperator) pOperator, left, right);
+    }
+    else {
+      // Evaluate the right operand only if the operator calls for it,
+      // as BinaryOperatorExpression does
+      Label evaluate = new Label ();
+      Label end = new Label ();
+      if (pOperator.shouldCoerceToBoolean ()) {
+	mCode.invoke (ClassFileWriter.INVOKESTATIC,
+		      COERCIONS,
+		      "coerceToBoolean",
+		      "(Ljava/lang/Object;)Ljava/lang/Boolean;");
+      }
+      mCode.astore (left);
+      pushConstant (pOperator, BINARY_OPERATOR);
+      mCode.aload (left);
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		    BINARY_OPERATOR,
+		    "shouldEvaluate",
+		    "(Ljava/lang/Object;)Z");
+      mCode.jump (ClassFileWriter.IFNE, evaluate);
+      mCode.aload (left);
+      mCode.jump (ClassFileWriter.GOTO, end);
+      mCode.mark (evaluate);
+      compileExpression (pRight);
+      mCode.astore (right);
+      applyOperator (pOperator, left, right);
+      mCode.mark (end);
+    }
+  }
+
+  //-------------------------------------
+  void compileArithmeticOperator (ArithmeticOperator pOperator,
+				  int pLeft,
+				  int pRight)
+  {
+    Class operatorClass = pOperator.getClass ();
+    int longOpcode;
+    int doubleOpcode;
+    if (operatorClass == PlusOperator.class) {
+      longOpcode = ClassFileWriter.LADD;
+      doubleOpcode = ClassFileWriter.DADD;
+    }
+    else if (operatorClass == MinusOperator.class) {
+      longOpcode = ClassFileWriter.LSUB;
+      doubleOpcode = ClassFileWriter.DSUB;
+    }
+    else {
+      longOpcode = ClassFileWriter.LMUL;
+      doubleOpcode = ClassFileWriter.DMUL;
+    }
+
+    Label notIntegral = new Label ();
+    Label notPrimitive = new Label ();
+    Label end = new Label ();
+
+    testOperands ("isIntegral", pLeft, pRight, notIntegral);
+    pushNumber (pLeft, "longValue", "()J");
+    pushNumber (pRight, "longValue", "()J");
+    mCode.op (longOpcode, -2);
+    invokeHelper ("box", "(J)" + OBJECT_DESC);
+    mCode.jump (ClassFileWriter.GOTO, end);
+
+    mCode.mark (notIntegral);
+    testOperands ("isPrimitiveNumber", pLeft, pRight, notPrimitive);
+    pushNumber (pLeft, "doubleValue", "()D");
+    pushNumber (pRight, "doubleValue", "()D");
+    mCode.op (doubleOpcode, -2);
+    invokeHelper ("box", "(D)" + OBJECT_DESC);
+    mCode.jump (ClassFileWriter.GOTO, end);
+
+    mCode.mark (notPrimitive);
+    mCode.aload (pLeft);
+    mCode.aload (pRight);
+    pushConstant (pOperator, ARITHMETIC_OPERATOR);
+    mCode.invoke (ClassFileWriter.INVOKESTATIC,
+		  COERCIONS,
+		  "applyArithmeticOperator",
+		  "(Ljava/lang/Object;Ljava/lang/Object;L" +
+		  ARITHMETIC_OPERATOR + ";)Ljava/lang/Object;");
+    mCode.mark (end);
+  }
+
+  //-------------------------------------
+  void compileRelationalOperator (RelationalOperator pOperator,
+				  int pLeft,
+				  int pRight)
+  {
+    Label notIntegral = new Label ();
+    Label notPrimitive = new Label ();
+    Label end = new Label ();
+
+    testOperands ("isIntegral", pLeft, pRight, notIntegral);
+    pushConstant (pOperator, RELATIONAL_OPERATOR);
+    pushNumber (pLeft, "longValue", "()J");
+    pushNumber (pRight, "longValue", "()J");
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		  RELATIONAL_OPERATOR,
+		  "apply",
+		  "(JJ)Z");
+    invokeHelper ("box", "(Z)" + OBJECT_DESC);
+    mCode.jump (ClassFileWriter.GOTO, end);
+
+    mCode.mark (notIntegral);
+    testOperands ("isPrimitiveNumber", pLeft, pRight, notPrimitive);
+    pushConstant (pOperator, RELATIONAL_OPERATOR);
+    pushNumber (pLeft, "doubleValue", "()D");
+    pushNumber (pRight, "doubleValue", "()D");
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		  RELATIONAL_OPERATOR,
+		  "apply",
+		  "(DD)Z");
+    invokeHelper ("box", "(Z)" + OBJECT_DESC);
+    mCode.jump (ClassFileWriter.GOTO, end);
+
+    mCode.mark (notPrimitive);
+    applyOperator (pOperator, pLeft, pRight);
+    mCode.mark (end);
+  }
+
+  //-------------------------------------
+  void compileEqualityOperator (EqualityOperator pOperator,
+				int pLeft,
+				int pRight)
+  {
+    Label notIntegral = new Label ();
+    Label notEqual = new Label ();
+    Label compared = new Label ();
+    Label end = new Label ();
+
+    testOperands ("isIntegral", pLeft, pRight, notIntegral);
+    pushConstant (pOperator, EQUALITY_OPERATOR);
+    pushNumber (pLeft, "longValue", "()J");
+    pushNumber (pRight, "longValue", "()J");
+    mCode.op (ClassFileWriter.LCMP, -3);
+    mCode.jump (ClassFileWriter.IFNE, notEqual);
+    mCode.pushInt (1);
+    mCode.jump (ClassFileWriter.GOTO, compared);
+    mCode.mark (notEqual);
+    mCode.pushInt (0);
+    mCode.mark (compared);
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		  EQUALITY_OPERATOR,
+		  "apply",
+		  "(Z)Z");
+    invokeHelper ("box", "(Z)" + OBJECT_DESC);
+    mCode.jump (ClassFileWriter.GOTO, end);
+
+    mCode.mark (notIntegral);
+    applyOperator (pOperator, pLeft, pRight);
+    mCode.mark (end);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Generates the code that applies the given unary operator to the
+   * value on the stack
+   **/
+  void compileUnaryOperator (UnaryOperator pOperator)
+  {
+    if (pOperator.getClass () == NotOperator.class) {
+      coerceToBoolean ();
+      mCode.pushInt (1);
+      mCode.op (ClassFileWriter.IXOR, -1);
+      invokeHelper ("box", "(Z)" + OBJECT_DESC);
+    }
+    else {
+      pushConstant (pOperator, UNARY_OPERATOR);
+      mCode.op (ClassFileWriter.SWAP, 0);
+      mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		    UNARY_OPERATOR,
+		    "apply",
+		    "(Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+  }
+
+  //-------------------------------------
+  // Code generation helpers
+  //-------------------------------------
+  /**
+   *
+   * Pushes the given object from the constants array, cast to the
+   * given type
+   **/
+  void pushConstant (Object pValue, String pType)
+  {
+    int index = mConstants.indexOf (pValue);
+    if (index < 0 || mConstants.get (index) != pValue) {
+      index = mConstants.size ();
+      mConstants.add (pValue);
+    }
+    mCode.aload (CONSTANTS_LOCAL);
+    mCode.pushInt (index);
+    mCode.op (ClassFileWriter.AALOAD, -1);
+    if (!OBJECT.equals (pType)) {
+      mCode.typeOp (ClassFileWriter.CHECKCAST, pType);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Pushes the primitive value of the Number in the given local
+   **/
+  void pushNumber (int pLocal, String pMethod, String pDescriptor)
+  {
+    mCode.aload (pLocal);
+    mCode.typeOp (ClassFileWriter.CHECKCAST, NUMBER);
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL, NUMBER, pMethod, pDescriptor);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Jumps to the given label unless the given GeneratedExpression test
+   * is true of both the given locals
+   **/
+  void testOperands (String pTest, int pLeft, int pRight, Label pFailed)
+  {
+    mCode.aload (pLeft);
+    invokeHelper (pTest, "(Ljava/lang/Object;)Z");
+    mCode.jump (ClassFileWriter.IFEQ, pFailed);
+    mCode.aload (pRight);
+    invokeHelper (pTest, "(Ljava/lang/Object;)Z");
+    mCode.jump (ClassFileWriter.IFEQ, pFailed);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Pushes the result of BinaryOperator.apply on the given locals
+   **/
+  void applyOperator (BinaryOperator pOperator, int pLeft, int pRight)
+  {
+    pushConstant (pOperator, BINARY_OPERATOR);
+    mCode.aload (pLeft);
+    mCode.aload (pRight);
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL,
+		  BINARY_OPERATOR,
+		  "apply",
+		  "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Replaces the value on the stack with its coerced boolean value
+   **/
+  void coerceToBoolean ()
+  {
+    mCode.invoke (ClassFileWriter.INVOKESTATIC,
+		  COERCIONS,
+		  "coerceToBoolean",
+		  "(Ljava/lang/Object;)Ljava/lang/Boolean;");
+    mCode.invoke (ClassFileWriter.INVOKEVIRTUAL, BOOLEAN, "booleanValue", "()Z");
+  }
+
+  //-------------------------------------
+  void invokeHelper (String pName, String pDescriptor)
+  {
+    mCode.invoke (ClassFileWriter.INVOKESTATIC,
+		  GENERATED_EXPRESSION,
+		  pName,
+		  pDescriptor);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Records a class named by the generated code, so that its
+   * ClassLoader will find the same class even if it isn't visible
+   * from this package's ClassLoader
+   **/
+  void addKnownClass (Class pClass)
+  {
+    while (pClass.isArray ()) {
+      pClass = pClass.getComponentType ();
+    }
+    if (!pClass.isPrimitive ()) {
+      mKnownClasses.put (pClass.getName (), pClass);
+    }
+  }
+
+  //-------------------------------------
+  // GeneratedClassLoader
+  //-------------------------------------
+  /**
+   *
+   * The ClassLoader of one generated class.  It finds the classes of
+   * this package through its parent, the classes whose getters the
+   * generated code calls from its table of known classes, and anything
+   * else through the context ClassLoader of the compiling thread.
+   **/
+  static final class GeneratedClassLoader
+    extends ClassLoader
+  {
+    final Map mKnownClasses;
+    final ClassLoader mContextClassLoader;
+
+    GeneratedClassLoader (Map pKnownClasses)
+    {
+      super (GeneratedExpression.class.getClassLoader ());
+      mKnownClasses = pKnownClasses;
+      mContextClassLoader = Thread.currentThread ().getContextClassLoader ();
+    }
+
+    Class define (String pName, byte [] pClassFile)
+    {
+      return defineClass (pName, pClassFile, 0, pClassFile.length);
+    }
+
+    protected synchronized Class loadClass (String pName, boolean pResolve)
+      throws ClassNotFoundException
+    {
+      Class ret = (Class) mKnownClasses.get (pName);
+      if (ret != null) {
+	return ret;
+      }
+      return super.loadClass (pName, pResolve);
+    }
+
+    protected Class findClass (String pName)
+      throws ClassNotFoundException
+    {
+      if (mContextClassLoader == null) {
+	throw new ClassNotFoundException (pName);
+      }
+      return mContextClassLoader.loadClass (pName);
+    }
+
+    boolean refersTo (ClassLoader pLoader)
+    {
+      if (CachePartition.isDescendant (mContextClassLoader, pLoader)) {
+	return true;
+      }
+      for (Iterator i = mKnownClasses.values ().iterator (); i.hasNext (); ) {
+	if (CachePartition.isLoadedBy ((Class) i.next (), pLoader)) {
+	  return true;
+	}
+      }
+      return false;
+    }
+  }
+
+  //-------------------------------------
+}
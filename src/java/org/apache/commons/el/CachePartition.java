@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.beans.Introspector;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * <p>The set of caches kept for one context ClassLoader.  When
+ * commons-el is shared by several web applications in one container,
+ * each application (identified by the context ClassLoader of the
+ * Thread doing the work) gets its own parse caches, conversion caches
+ * and BeanInfoManagers, so that the applications don't contend with
+ * each other and an application's classes aren't referenced from
+ * caches that outlive it.
+ *
+ * <p>The partitions are keyed weakly by ClassLoader, and are held
+ * softly, since the cached values (BeanInfoManagers, converted values,
+ * and parsed expressions holding bound Methods) generally refer to
+ * classes of the ClassLoader: a strongly held partition would keep its
+ * own key reachable.  Once an application is stopped, its partition
+ * and then its ClassLoader are collected when memory runs low.  A
+ * container that redeploys applications can reclaim them at once by
+ * calling {@link ExpressionEvaluatorImpl#purge} with the application's
+ * ClassLoader.
+ *
+ * @version $Id$
+ **/
+
+class CachePartition
+{
+  //-------------------------------------
+  // Statics
+  //-------------------------------------
+
+  /** The mapping from context ClassLoader to a SoftReference to its
+      CachePartition **/
+  static WeakIdentityMap sPartitionByClassLoader = new WeakIdentityMap ();
+
+  /** The partition for Threads without a context ClassLoader **/
+  static CachePartition sDefaultPartition = new CachePartition ();
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The mapping from expression String to its parsed form **/
+  final ExpressionCache mExpressionStrings = new SegmentedLruCache ();
+
+  /** The mapping from expression String that failed to parse to its
+      error message **/
+  final ExpressionCache mFailedExpressionStrings =
+    new SegmentedLruCache (ExpressionEvaluatorImpl.DEFAULT_FAILURE_CACHE_SIZE);
+
+  /** The mapping from expression String to the PendingParse of a
+      Thread that is currently parsing it, synchronized on itself **/
+  final Map mPendingParses = new HashMap ();
+
+  /** For each evaluation mode, the mapping from expression String to
+      its compiled form **/
+  final SegmentedLruCache [] mCompiledExpressions =
+    new SegmentedLruCache [ExpressionEvaluatorImpl.EVALUATION_MODES];
+
+  /** The mapping from ExpectedType to ExpressionCaches mapping literal
+      String to parsed value **/
+  final WeakIdentityMap mExpectedTypes = new WeakIdentityMap ();
+
+  /** The mapping from FunctionMapper to WeakIdentityMaps mapping
+      parsed Expression to the Expression with its functions bound **/
+  final WeakIdentityMap mBoundExpressions = new WeakIdentityMap ();
+
+  /** The mapping from Method to the PureFunction it has been
+      registered as, synchronized on itself **/
+  final Map mPureFunctions = new HashMap ();
+
+  /** The mapping from Class to a SoftReference to its
+      BeanInfoManager, whose Methods refer to the Class **/
+  final WeakIdentityMap mBeanInfoManagers = new WeakIdentityMap ();
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  CachePartition ()
+  {
+    // There is nothing to cache for the INTERPRETED mode
+    for (int i = 1; i < mCompiledExpressions.length; i++) {
+      mCompiledExpressions [i] = new SegmentedLruCache ();
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the partition for the current Thread's context
+   * ClassLoader
+   **/
+  static CachePartition getCurrent ()
+  {
+    return getPartition (Thread.currentThread ().getContextClassLoader ());
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the partition for the given ClassLoader, creating it if
+   * necessary
+   **/
+  static CachePartition getPartition (ClassLoader pLoader)
+  {
+    if (pLoader == null) {
+      return sDefaultPartition;
+    }
+    CachePartition ret =
+      (CachePartition) dereference (sPartitionByClassLoader.get (pLoader));
+    if (ret == null) {
+      // A cleared reference is replaced, so the check and the put
+      // have to be atomic
+      synchronized (sPartitionByClassLoader) {
+	ret = (CachePartition) dereference
+	  (sPartitionByClassLoader.get (pLoader));
+	if (ret == null) {
+	  ret = new CachePartition ();
+	  sPartitionByClassLoader.put (pLoader, new SoftReference (ret));
+	}
+      }
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the referent of the given SoftReference, or null if it is
+   * null or has been cleared
+   **/
+  static Object dereference (Object pReference)
+  {
+    return (pReference == null) ? null : ((SoftReference) pReference).get ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Discards the partition of the given ClassLoader, and removes the
+   * entries that refer to classes loaded by that ClassLoader (or its
+   * descendants) from the other partitions, from the inline caches of
+   * all parsed expressions and from the queue of expressions waiting
+   * to be compiled.  The parse caches of the default partition, which
+   * may be used by any application, are cleared; those of the other
+   * partitions are kept.
+   **/
+  static void purge (ClassLoader pLoader)
+  {
+    if (pLoader == null) {
+      return;
+    }
+    CachePartition removed =
+      (CachePartition) dereference (sPartitionByClassLoader.remove (pLoader));
+    if (removed != null) {
+      flushIntrospector (removed.mBeanInfoManagers, pLoader);
+    }
+    sDefaultPartition.purgeClasses (pLoader);
+    sDefaultPartition.clearExpressions ();
+    Object [] loaders = sPartitionByClassLoader.keys ();
+    for (int i = 0; i < loaders.length; i++) {
+      CachePartition partition =
+	(CachePartition) dereference (sPartitionByClassLoader.get (loaders [i]));
+      if (partition != null) {
+	partition.purgeClasses (pLoader);
+      }
+    }
+    // Parsed expressions may also be kept by evaluators with their
+    // own caches, or by their callers
+    ArraySuffix.purgeInlineCaches (pLoader);
+    TieredExpression.purgeQueue (pLoader);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the entries keyed by classes loaded by the given
+   * ClassLoader or its descendants, the bound expressions whose
+   * FunctionMapper or functions are such classes, and the compiled
+   * expressions whose generated code refers to such classes.  The
+   * accessors cached in parsed expressions are purged separately, by
+   * ArraySuffix.
+   **/
+  void purgeClasses (ClassLoader pLoader)
+  {
+    purgeClasses (mExpectedTypes, pLoader);
+    flushIntrospector (mBeanInfoManagers, pLoader);
+    purgeClasses (mBeanInfoManagers, pLoader);
+    PureFunction.purgeClasses (mPureFunctions, pLoader);
+    for (int i = 1; i < mCompiledExpressions.length; i++) {
+      mCompiledExpressions [i].purgeClasses (pLoader);
+    }
+    Object [] mappers = mBoundExpressions.keys ();
+    for (int i = 0; i < mappers.length; i++) {
+      if (mappers [i] != null &&
+	  isLoadedBy (mappers [i].getClass (), pLoader)) {
+	mBoundExpressions.remove (mappers [i]);
+	continue;
+      }
+      WeakIdentityMap boundByExpression =
+	(WeakIdentityMap) mBoundExpressions.get (mappers [i]);
+      if (boundByExpression == null) {
+	continue;
+      }
+      Object [] expressions = boundByExpression.keys ();
+      for (int j = 0; j < expressions.length; j++) {
+	FunctionBindings bindings =
+	  (FunctionBindings) boundByExpression.get (expressions [j]);
+	if (bindings != null && bindings.refersTo (pLoader)) {
+	  boundByExpression.remove (expressions [j]);
+	}
+      }
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Discards the parsed, bound and compiled expressions
+   **/
+  void clearExpressions ()
+  {
+    mBoundExpressions.clear ();
+    mExpressionStrings.clear ();
+    for (int i = 1; i < mCompiledExpressions.length; i++) {
+      mCompiledExpressions [i].clear ();
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Flushes the classes loaded by the given ClassLoader or its
+   * descendants from the Introspector's BeanInfo cache, which would
+   * otherwise keep them reachable
+   **/
+  static void flushIntrospector (WeakIdentityMap pMap, ClassLoader pLoader)
+  {
+    Object [] classes = pMap.keys ();
+    for (int i = 0; i < classes.length; i++) {
+      if (classes [i] != null &&
+	  isLoadedBy ((Class) classes [i], pLoader)) {
+	Introspector.flushFromCaches ((Class) classes [i]);
+      }
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the entries of the given map keyed by classes loaded by
+   * the given ClassLoader or its descendants
+   **/
+  static void purgeClasses (WeakIdentityMap pMap, ClassLoader pLoader)
+  {
+    Object [] classes = pMap.keys ();
+    for (int i = 0; i < classes.length; i++) {
+      if (classes [i] != null &&
+	  isLoadedBy ((Class) classes [i], pLoader)) {
+	pMap.remove (classes [i]);
+      }
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the given compiled expression (or the target of
+   * the given TieredExpression) is generated code that refers to
+   * classes loaded by the given ClassLoader or its descendants
+   **/
+  static boolean refersTo (Object pCompiled, ClassLoader pLoader)
+  {
+    if (pCompiled instanceof TieredExpression) {
+      pCompiled = ((TieredExpression) pCompiled).mTarget;
+    }
+    return
+      pCompiled instanceof GeneratedExpression &&
+      ((GeneratedExpression) pCompiled).refersTo (pLoader);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the given class was loaded by the given
+   * ClassLoader or one of its descendants
+   **/
+  static boolean isLoadedBy (Class pClass, ClassLoader pLoader)
+  {
+    return isDescendant (pClass.getClassLoader (), pLoader);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the given ClassLoader is the given ancestor or one
+   * of its descendants
+   **/
+  static boolean isDescendant (ClassLoader pLoader, ClassLoader pAncestor)
+  {
+    for (ClassLoader loader = pLoader;
+	 loader != null;
+	 loader = loader.getParent ()) {
+      if (loader == pAncestor) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  //-------------------------------------
+}
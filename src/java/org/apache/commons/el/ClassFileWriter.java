@@ -0,0 +1,764 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * <p>A minimal writer for Java class files, sufficient for the classes
+ * generated by the BytecodeCompiler: one class with a few methods, no
+ * fields of its own, and no attributes other than Code.  The class
+ * files are written in the 1.4 format (version 48), which doesn't
+ * require stack map frames, so the writer only has to track the
+ * operand stack depth.
+ *
+ * <p>Internal names ("java/lang/Object") and descriptors
+ * ("(Ljava/lang/Object;)V") are used throughout, as in the class file
+ * format itself.
+ *
+ * @version $Id$
+ **/
+
+class ClassFileWriter
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+  static final int CLASS_FILE_MAJOR_VERSION = 48;
+
+  static final int CONSTANT_UTF8 = 1;
+  static final int CONSTANT_CLASS = 7;
+  static final int CONSTANT_STRING = 8;
+  static final int CONSTANT_FIELDREF = 9;
+  static final int CONSTANT_METHODREF = 10;
+  static final int CONSTANT_INTERFACE_METHODREF = 11;
+  static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  // The opcodes used by the BytecodeCompiler
+  static final int ACONST_NULL = 1;
+  static final int ICONST_0 = 3;
+  static final int ICONST_1 = 4;
+  static final int BIPUSH = 16;
+  static final int SIPUSH = 17;
+  static final int LDC = 18;
+  static final int LDC_W = 19;
+  static final int ALOAD = 25;
+  static final int AALOAD = 50;
+  static final int ASTORE = 58;
+  static final int POP = 87;
+  static final int DUP = 89;
+  static final int SWAP = 95;
+  static final int LADD = 97;
+  static final int DADD = 99;
+  static final int LSUB = 101;
+  static final int DSUB = 103;
+  static final int LMUL = 105;
+  static final int DMUL = 107;
+  static final int IXOR = 130;
+  static final int LCMP = 148;
+  static final int IFEQ = 153;
+  static final int IFNE = 154;
+  static final int IF_ACMPNE = 166;
+  static final int GOTO = 167;
+  static final int ARETURN = 176;
+  static final int RETURN = 177;
+  static final int GETFIELD = 180;
+  static final int INVOKEVIRTUAL = 182;
+  static final int INVOKESPECIAL = 183;
+  static final int INVOKESTATIC = 184;
+  static final int INVOKEINTERFACE = 185;
+  static final int NEW = 187;
+  static final int ATHROW = 191;
+  static final int CHECKCAST = 192;
+  static final int IFNULL = 198;
+  static final int IFNONNULL = 199;
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The constant pool entries, serialized **/
+  ByteArrayOutputStream mPoolBytes = new ByteArrayOutputStream ();
+  DataOutputStream mPool = new DataOutputStream (mPoolBytes);
+
+  /** The number of constant pool slots used, plus one **/
+  int mPoolCount = 1;
+
+  /** The mapping from constant pool entry key to index **/
+  Map mPoolIndexByKey = new HashMap ();
+
+  /** The class and superclass indexes **/
+  int mThisClass;
+  int mSuperClass;
+
+  /** The Code objects of the methods **/
+  List mMethods = new ArrayList ();
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   *
+   * @param pClassName the internal name of the class to write
+   * @param pSuperName the internal name of its superclass
+   **/
+  ClassFileWriter (String pClassName, String pSuperName)
+  {
+    mThisClass = classRef (pClassName);
+    mSuperClass = classRef (pSuperName);
+  }
+
+  //-------------------------------------
+  // Constant pool
+  //-------------------------------------
+  int utf8 (String pValue)
+  {
+    String key = "U" + pValue;
+    Integer index = (Integer) mPoolIndexByKey.get (key);
+    if (index != null) {
+      return index.intValue ();
+    }
+    try {
+      mPool.writeByte (CONSTANT_UTF8);
+      mPool.writeUTF (pValue);
+    }
+    catch (IOException exc) {
+      throw new IllegalStateException (exc.toString ());
+    }
+    return register (key, 1);
+  }
+
+  //-------------------------------------
+  int classRef (String pInternalName)
+  {
+    return reference (CONSTANT_CLASS, "C" + pInternalName, utf8 (pInternalName));
+  }
+
+  //-------------------------------------
+  int string (String pValue)
+  {
+    return reference (CONSTANT_STRING, "S" + pValue, utf8 (pValue));
+  }
+
+  //-------------------------------------
+  int fieldRef (String pOwner, String pName, String pDescriptor)
+  {
+    return memberRef (CONSTANT_FIELDREF, pOwner, pName, pDescriptor);
+  }
+
+  //-------------------------------------
+  int methodRef (String pOwner, String pName, String pDescriptor)
+  {
+    return memberRef (CONSTANT_METHODREF, pOwner, pName, pDescriptor);
+  }
+
+  //-------------------------------------
+  int interfaceMethodRef (String pOwner, String pName, String pDescriptor)
+  {
+    return memberRef (CONSTANT_INTERFACE_METHODREF, pOwner, pName, pDescriptor);
+  }
+
+  //-------------------------------------
+  int memberRef (int pTag, String pOwner, String pName, String pDescriptor)
+  {
+    String key = pTag + pOwner + "." + pName + pDescriptor;
+    Integer index = (Integer) mPoolIndexByKey.get (key);
+    if (index != null) {
+      return index.intValue ();
+    }
+    int owner = classRef (pOwner);
+    int nameAndType =
+      reference2 (CONSTANT_NAME_AND_TYPE,
+		  "N" + pName + pDescriptor,
+		  utf8 (pName),
+		  utf8 (pDescriptor));
+    return reference2 (pTag, key, owner, nameAndType);
+  }
+
+  //-------------------------------------
+  int reference (int pTag, String pKey, int pIndex)
+  {
+    Integer index = (Integer) mPoolIndexByKey.get (pKey);
+    if (index != null) {
+      return index.intValue ();
+    }
+    try {
+      mPool.writeByte (pTag);
+      mPool.writeShort (pIndex);
+    }
+    catch (IOException exc) {
+      throw new IllegalStateException (exc.toString ());
+    }
+    return register (pKey, 1);
+  }
+
+  //-------------------------------------
+  int reference2 (int pTag, String pKey, int pIndex1, int pIndex2)
+  {
+    Integer index = (Integer) mPoolIndexByKey.get (pKey);
+    if (index != null) {
+      return index.intValue ();
+    }
+    try {
+      mPool.writeByte (pTag);
+      mPool.writeShort (pIndex1);
+      mPool.writeShort (pIndex2);
+    }
+    catch (IOException exc) {
+      throw new IllegalStateException (exc.toString ());
+    }
+    return register (pKey, 1);
+  }
+
+  //-------------------------------------
+  int register (String pKey, int pSlots)
+  {
+    int ret = mPoolCount;
+    mPoolCount += pSlots;
+    if (mPoolCount > 0xFFFF) {
+      throw new IllegalStateException ("Constant pool overflow");
+    }
+    mPoolIndexByKey.put (pKey, new Integer (ret));
+    return ret;
+  }
+
+  //-------------------------------------
+  // Methods
+  //-------------------------------------
+  /**
+   *
+   * Adds a method and returns the Code to which its instructions are
+   * written
+   **/
+  Code addMethod (int pAccess, String pName, String pDescriptor)
+  {
+    Code ret = new Code (this, pAccess, utf8 (pName), utf8 (pDescriptor),
+			 argumentSlots (pDescriptor) + 1);
+    mMethods.add (ret);
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the class file
+   **/
+  byte [] toByteArray ()
+  {
+    try {
+      int codeAttribute = utf8 ("Code");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+      DataOutputStream out = new DataOutputStream (bytes);
+      out.writeInt (CLASS_FILE_MAGIC);
+      out.writeShort (0);
+      out.writeShort (CLASS_FILE_MAJOR_VERSION);
+      out.writeShort (mPoolCount);
+      mPool.flush ();
+      mPoolBytes.writeTo (out);
+      out.writeShort (ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort (mThisClass);
+      out.writeShort (mSuperClass);
+      out.writeShort (0);
+      out.writeShort (0);
+      out.writeShort (mMethods.size ());
+      for (int i = 0; i < mMethods.size (); i++) {
+	((Code) mMethods.get (i)).write (out, codeAttribute);
+      }
+      out.writeShort (0);
+      out.flush ();
+      return bytes.toByteArray ();
+    }
+    catch (IOException exc) {
+      throw new IllegalStateException (exc.toString ());
+    }
+  }
+
+  //-------------------------------------
+  // Descriptors
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of stack slots taken by the arguments described
+   * by the given method descriptor
+   **/
+  static int argumentSlots (String pDescriptor)
+  {
+    int ret = 0;
+    int i = 1;
+    while (pDescriptor.charAt (i) != ')') {
+      char ch = pDescriptor.charAt (i);
+      if (ch == 'J' || ch == 'D') {
+	ret += 2;
+	i++;
+      }
+      else {
+	ret += 1;
+	while (pDescriptor.charAt (i) == '[') {
+	  i++;
+	}
+	if (pDescriptor.charAt (i) == 'L') {
+	  i = pDescriptor.indexOf (';', i);
+	}
+	i++;
+      }
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of stack slots taken by the value returned by
+   * the method described by the given method descriptor
+   **/
+  static int returnSlots (String pDescriptor)
+  {
+    char ch = pDescriptor.charAt (pDescriptor.indexOf (')') + 1);
+    return (ch == 'V') ? 0 : (ch == 'J' || ch == 'D') ? 2 : 1;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the descriptor of the given class
+   **/
+  static String descriptor (Class pClass)
+  {
+    if (pClass.isPrimitive ()) {
+      if (pClass == Integer.TYPE) return "I";
+      if (pClass == Long.TYPE) return "J";
+      if (pClass == Boolean.TYPE) return "Z";
+      if (pClass == Double.TYPE) return "D";
+      if (pClass == Float.TYPE) return "F";
+      if (pClass == Short.TYPE) return "S";
+      if (pClass == Byte.TYPE) return "B";
+      if (pClass == Character.TYPE) return "C";
+      return "V";
+    }
+    else if (pClass.isArray ()) {
+      return internalName (pClass);
+    }
+    else {
+      return "L" + internalName (pClass) + ";";
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the descriptor of the given method
+   **/
+  static String descriptor (Class [] pParameterTypes, Class pReturnType)
+  {
+    StringBuffer buf = new StringBuffer ("(");
+    for (int i = 0; i < pParameterTypes.length; i++) {
+      buf.append (descriptor (pParameterTypes [i]));
+    }
+    buf.append (")");
+    buf.append (descriptor (pReturnType));
+    return buf.toString ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the internal name of the given class
+   **/
+  static String internalName (Class pClass)
+  {
+    return pClass.getName ().replace ('.', '/');
+  }
+
+  //-------------------------------------
+  // Label
+  //-------------------------------------
+  /**
+   *
+   * A position in the code, possibly not yet known, that instructions
+   * can jump to
+   **/
+  static final class Label
+  {
+    // The offset, or -1 if not yet marked
+    int mOffset = -1;
+
+    // The stack depth at the label, or -1 if not yet known
+    int mStack = -1;
+
+    // The offsets of the branch instructions and of their 2-byte
+    // operands that jump to the label before it is marked
+    int [] mFixups = new int [4];
+    int mFixupCount;
+  }
+
+  //-------------------------------------
+  // Code
+  //-------------------------------------
+  /**
+   *
+   * The instructions of one method.  Each method that adds an
+   * instruction also records its effect on the stack depth.
+   **/
+  static final class Code
+  {
+    final ClassFileWriter mWriter;
+    final int mAccess;
+    final int mName;
+    final int mDescriptor;
+
+    byte [] mCode = new byte [256];
+    int mLength;
+    int mStack;
+    int mMaxStack;
+    int mMaxLocals;
+
+    // Flag if the current position can't be reached by falling
+    // through from the previous instruction
+    boolean mUnreachable;
+
+    // The exception table, 4 shorts per entry
+    List mHandlers = new ArrayList ();
+
+    // The number of branches to labels not yet marked
+    int mPendingBranches;
+
+    Code (ClassFileWriter pWriter,
+	  int pAccess,
+	  int pName,
+	  int pDescriptor,
+	  int pArgumentSlots)
+    {
+      mWriter = pWriter;
+      mAccess = pAccess;
+      mName = pName;
+      mDescriptor = pDescriptor;
+      mMaxLocals = pArgumentSlots;
+    }
+
+    //-----------------------------------
+    int offset ()
+    {
+      return mLength;
+    }
+
+    //-----------------------------------
+    void stack (int pDelta)
+    {
+      mStack += pDelta;
+      if (mStack < 0) {
+	throw new IllegalStateException ("Stack underflow");
+      }
+      if (mStack > mMaxStack) {
+	mMaxStack = mStack;
+      }
+    }
+
+    //-----------------------------------
+    void u1 (int pValue)
+    {
+      if (mLength == mCode.length) {
+	byte [] code = new byte [mCode.length * 2];
+	System.arraycopy (mCode, 0, code, 0, mLength);
+	mCode = code;
+      }
+      mCode [mLength++] = (byte) pValue;
+    }
+
+    //-----------------------------------
+    void u2 (int pValue)
+    {
+      u1 (pValue >> 8);
+      u1 (pValue);
+    }
+
+    //-----------------------------------
+    /**
+     *
+     * Adds an instruction without operands
+     **/
+    void op (int pOpcode, int pStackDelta)
+    {
+      u1 (pOpcode);
+      stack (pStackDelta);
+      mUnreachable =
+	(pOpcode == ARETURN || pOpcode == RETURN || pOpcode == ATHROW);
+    }
+
+    //-----------------------------------
+    void pushInt (int pValue)
+    {
+      if (pValue >= -1 && pValue <= 5) {
+	op (ICONST_0 + pValue, 1);
+      }
+      else if (pValue >= Byte.MIN_VALUE && pValue <= Byte.MAX_VALUE) {
+	u1 (BIPUSH);
+	u1 (pValue);
+	stack (1);
+      }
+      else {
+	u1 (SIPUSH);
+	u2 (pValue);
+	stack (1);
+      }
+    }
+
+    //-----------------------------------
+    void pushString (String pValue)
+    {
+      int index = mWriter.string (pValue);
+      if (index < 256) {
+	u1 (LDC);
+	u1 (index);
+      }
+      else {
+	u1 (LDC_W);
+	u2 (index);
+      }
+      stack (1);
+    }
+
+    //-----------------------------------
+    int newLocal ()
+    {
+      int ret = mMaxLocals++;
+      if (ret > 255) {
+	throw new IllegalStateException ("Too many locals");
+      }
+      return ret;
+    }
+
+    //-----------------------------------
+    void aload (int pLocal)
+    {
+      u1 (ALOAD);
+      u1 (pLocal);
+      stack (1);
+    }
+
+    //-----------------------------------
+    void astore (int pLocal)
+    {
+      u1 (ASTORE);
+      u1 (pLocal);
+      stack (-1);
+    }
+
+    //-----------------------------------
+    void typeOp (int pOpcode, String pInternalName)
+    {
+      u1 (pOpcode);
+      u2 (mWriter.classRef (pInternalName));
+      stack ((pOpcode == NEW) ? 1 : 0);
+    }
+
+    //-----------------------------------
+    void getField (String pOwner, String pName, String pDescriptor)
+    {
+      u1 (GETFIELD);
+      u2 (mWriter.fieldRef (pOwner, pName, pDescriptor));
+      stack (0);
+    }
+
+    //-----------------------------------
+    void invoke (int pOpcode, String pOwner, String pName, String pDescriptor)
+    {
+      int argumentSlots = argumentSlots (pDescriptor);
+      u1 (pOpcode);
+      if (pOpcode == INVOKEINTERFACE) {
+	u2 (mWriter.interfaceMethodRef (pOwner, pName, pDescriptor));
+	u1 (argumentSlots + 1);
+	u1 (0);
+      }
+      else {
+	u2 (mWriter.methodRef (pOwner, pName, pDescriptor));
+      }
+      int receiverSlots = (pOpcode == INVOKESTATIC) ? 0 : 1;
+      stack (returnSlots (pDescriptor) - argumentSlots - receiverSlots);
+    }
+
+    //-----------------------------------
+    /**
+     *
+     * Adds a branch instruction (a conditional branch or GOTO)
+     **/
+    void jump (int pOpcode, Label pLabel)
+    {
+      int start = offset ();
+      u1 (pOpcode);
+      switch (pOpcode) {
+      case IFEQ:
+      case IFNE:
+      case IFNULL:
+      case IFNONNULL:
+	stack (-1);
+	break;
+      case IF_ACMPNE:
+	stack (-2);
+	break;
+      }
+      joinStack (pLabel);
+      if (pLabel.mOffset >= 0) {
+	u2 (branchOffset (pLabel.mOffset - start));
+      }
+      else {
+	if (pLabel.mFixupCount * 2 == pLabel.mFixups.length) {
+	  int [] fixups = new int [pLabel.mFixups.length * 2];
+	  System.arraycopy (pLabel.mFixups, 0, fixups, 0, pLabel.mFixups.length);
+	  pLabel.mFixups = fixups;
+	}
+	pLabel.mFixups [pLabel.mFixupCount * 2] = start;
+	pLabel.mFixups [pLabel.mFixupCount * 2 + 1] = offset ();
+	pLabel.mFixupCount++;
+	mPendingBranches++;
+	u2 (0);
+      }
+      mUnreachable = (pOpcode == GOTO);
+    }
+
+    //-----------------------------------
+    /**
+     *
+     * Marks the current position as the target of the given label
+     **/
+    void mark (Label pLabel)
+    {
+      if (mUnreachable) {
+	mStack = pLabel.mStack;
+	mUnreachable = false;
+      }
+      else {
+	joinStack (pLabel);
+      }
+      pLabel.mOffset = offset ();
+
+      // Patch the branches that jumped forward to the label
+      for (int i = 0; i < pLabel.mFixupCount; i++) {
+	int branch = pLabel.mFixups [i * 2];
+	int operand = pLabel.mFixups [i * 2 + 1];
+	int value = branchOffset (pLabel.mOffset - branch);
+	mCode [operand] = (byte) (value >> 8);
+	mCode [operand + 1] = (byte) value;
+      }
+      mPendingBranches -= pLabel.mFixupCount;
+      pLabel.mFixupCount = 0;
+    }
+
+    //-----------------------------------
+    /**
+     *
+     * Marks the current position as the start of an exception handler,
+     * entered with just the exception on the stack
+     **/
+    void markHandler (Label pLabel)
+    {
+      pLabel.mStack = 0;
+      mark (pLabel);
+      stack (1);
+    }
+
+    //-----------------------------------
+    void joinStack (Label pLabel)
+    {
+      if (pLabel.mStack < 0) {
+	pLabel.mStack = mStack;
+      }
+      else if (pLabel.mStack != mStack) {
+	throw new IllegalStateException ("Inconsistent stack depth");
+      }
+    }
+
+    //-----------------------------------
+    /**
+     *
+     * Adds an exception table entry
+     **/
+    void addHandler (Label pStart, Label pEnd, Label pHandler, String pType)
+    {
+      mHandlers.add (new Object [] {
+	pStart, pEnd, pHandler, new Integer (mWriter.classRef (pType))
+      });
+    }
+
+    //-----------------------------------
+    static int branchOffset (int pOffset)
+    {
+      if (pOffset < Short.MIN_VALUE || pOffset > Short.MAX_VALUE) {
+	throw new IllegalStateException ("Branch offset overflow");
+      }
+      return pOffset;
+    }
+
+    //-----------------------------------
+    /**
+     *
+     * Writes the method_info structure
+     **/
+    void write (DataOutputStream pOut, int pCodeAttribute)
+      throws IOException
+    {
+      if (mLength > 0xFFFF) {
+	throw new IllegalStateException ("Method too large");
+      }
+      if (mPendingBranches != 0) {
+	throw new IllegalStateException ("Unmarked label");
+      }
+      for (int i = 0; i < mHandlers.size (); i++) {
+	Object [] handler = (Object []) mHandlers.get (i);
+	for (int j = 0; j < 3; j++) {
+	  if (((Label) handler [j]).mOffset < 0) {
+	    throw new IllegalStateException ("Unmarked label");
+	  }
+	}
+      }
+
+      pOut.writeShort (mAccess);
+      pOut.writeShort (mName);
+      pOut.writeShort (mDescriptor);
+      pOut.writeShort (1);
+      pOut.writeShort (pCodeAttribute);
+      pOut.writeInt (12 + mLength + 8 * mHandlers.size ());
+      pOut.writeShort (mMaxStack);
+      pOut.writeShort (mMaxLocals);
+      pOut.writeInt (mLength);
+      pOut.write (mCode, 0, mLength);
+      pOut.writeShort (mHandlers.size ());
+      for (int i = 0; i < mHandlers.size (); i++) {
+	Object [] handler = (Object []) mHandlers.get (i);
+	pOut.writeShort (((Label) handler [0]).mOffset);
+	pOut.writeShort (((Label) handler [1]).mOffset);
+	pOut.writeShort (((Label) handler [2]).mOffset);
+	pOut.writeShort (((Integer) handler [3]).intValue ());
+      }
+      pOut.writeShort (0);
+    }
+  }
+
+  //-------------------------------------
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>An expression that has been compiled into a generated Java class.
+ * Evaluating it gives the same result as evaluating the parsed
+ * Expression it was compiled from.
+ *
+ * @version $Id$
+ **/
+
+public interface CompiledExpression
+{
+  //-------------------------------------
+  /**
+   *
+   * Returns the expression in the expression language syntax
+   **/
+  public String getExpressionString ();
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression in the given context
+   **/
+  public Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+    throws ELException;
+
+  //-------------------------------------
+}
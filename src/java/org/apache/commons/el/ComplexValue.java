@@ -111,12 +111,24 @@ public class ComplexValue
   }
 
   public Expression bindFunctions(final FunctionMapper functions) throws ELException {
-      final List suffixes = new ArrayList(mSuffixes.size());
+      List suffixes = null;
       for (int i = 0; mSuffixes != null && i < mSuffixes.size (); i++) {
           ValueSuffix suffix = (ValueSuffix) mSuffixes.get (i);
-          suffixes.add(suffix.bindFunctions(functions));
+          ValueSuffix boundSuffix = suffix.bindFunctions(functions);
+          if (suffixes == null && boundSuffix != suffix) {
+              suffixes = new ArrayList(mSuffixes.size());
+              suffixes.addAll(mSuffixes.subList(0, i));
+          }
+          if (suffixes != null) {
+              suffixes.add(boundSuffix);
+          }
       }
-      return new ComplexValue(mPrefix.bindFunctions(functions), suffixes);
+      final Expression prefix = mPrefix.bindFunctions(functions);
+      if (suffixes == null && prefix == mPrefix) {
+          // no functions below here, so share this subtree
+          return this;
+      }
+      return new ComplexValue(prefix, (suffixes == null) ? mSuffixes : suffixes);
   }
 
   //-------------------------------------
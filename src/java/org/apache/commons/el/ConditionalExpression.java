@@ -114,10 +114,16 @@ public class ConditionalExpression
   }
 
   public Expression bindFunctions(final FunctionMapper functions) throws ELException {
-       return new ConditionalExpression(
-               mCondition.bindFunctions(functions),
-               mTrueBranch.bindFunctions(functions),
-               mFalseBranch.bindFunctions(functions));
+       final Expression condition = mCondition.bindFunctions(functions);
+       final Expression trueBranch = mTrueBranch.bindFunctions(functions);
+       final Expression falseBranch = mFalseBranch.bindFunctions(functions);
+       if (condition == mCondition &&
+           trueBranch == mTrueBranch &&
+           falseBranch == mFalseBranch) {
+           // no functions below here, so share this subtree
+           return this;
+       }
+       return new ConditionalExpression(condition, trueBranch, falseBranch);
   }
 
   //-------------------------------------
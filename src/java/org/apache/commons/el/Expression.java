@@ -51,6 +51,21 @@ public abstract class Expression
   public abstract Object evaluate (VariableResolver pResolver, FunctionMapper functions)
     throws ELException;
 
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression in the given context into the given
+   * PrimitiveValue, returning the kind of the value.  Expressions that
+   * can produce a long or double without boxing it override this.
+   **/
+  int evaluatePrimitive (VariableResolver pResolver,
+			 FunctionMapper functions,
+			 PrimitiveValue pValue)
+    throws ELException
+  {
+    return pValue.set (evaluate (pResolver, functions));
+  }
+
   //-------------------------------------
 
   /**
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+/**
+ *
+ * <p>The cache used by ExpressionEvaluatorImpl to map expression
+ * Strings to their parsed form (String, Expression, or
+ * ExpressionString).  Implementations decide how many entries are
+ * retained and which ones are dropped, and must be safe for use by
+ * multiple simultaneous Threads.
+ *
+ * <p>The hit, miss and eviction counters are intended for monitoring
+ * and need not be exact while other Threads are using the cache.
+ *
+ * @version $Id$
+ **/
+
+public interface ExpressionCache
+{
+  //-------------------------------------
+  /**
+   *
+   * Returns the value cached for the given key, or null if there is
+   * none.  Counts as a hit or a miss.
+   **/
+  public Object get (String pKey);
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the value cached for the given key, or null if there is
+   * none.  Counts as a hit, but a miss is not counted, so that a cache
+   * probed on a path where misses are the rule (such as the cache of
+   * expression Strings that failed to parse, which is probed for
+   * every expression String not yet parsed) doesn't count the probes.
+   **/
+  public Object probe (String pKey);
+
+  //-------------------------------------
+  /**
+   *
+   * Caches the given value for the given key.  The cache may decide
+   * not to retain the value, or may evict other values to make room
+   * for it.
+   **/
+  public void put (String pKey, Object pValue);
+
+  //-------------------------------------
+  /**
+   *
+   * Removes all of the cached values.  The counters are not reset.
+   **/
+  public void clear ();
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of values currently cached
+   **/
+  public int size ();
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of lookups that found a cached value
+   **/
+  public long getHitCount ();
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of lookups that did not find a cached value
+   **/
+  public long getMissCount ();
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of values dropped to keep the cache within its
+   * bounds
+   **/
+  public long getEvictionCount ();
+
+  //-------------------------------------
+}
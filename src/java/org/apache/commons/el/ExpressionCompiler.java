@@ -0,0 +1,741 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.List;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>Compiles a parsed Expression into a tree of specialized, final
+ * node objects.  The parsed Expressions interpret themselves by
+ * walking Lists of operators and suffixes and dispatching on the
+ * operator on every evaluation; the compiled tree does that work once,
+ * so that each node does only its own job:
+ *
+ * <ul>
+ *   <li>a chain of operators becomes a chain of binary nodes
+ *   <li>and/or become short-circuiting nodes
+ *   <li>+, -, * and the relational operators get nodes with fast
+ *       paths for Long/Integer/Short/Byte and Double/Float operands,
+ *       falling back to the Coercions for anything else
+ *   <li>a value with suffixes becomes a property chain node holding
+ *       its suffixes in an array
+ * </ul>
+ *
+ * <p>The compiled tree evaluates to exactly what the parsed Expression
+ * does.  Subexpressions that have no specialized node (such as
+ * function invocations) are evaluated by the parsed Expression itself.
+ *
+ * @version $Id$
+ **/
+
+class ExpressionCompiler
+{
+  //-------------------------------------
+  /**
+   *
+   * Compiles the given parsed Expression.  The returned Expression
+   * has the same expression String, and binds its functions by
+   * compiling the bound form of the parsed Expression.
+   **/
+  public static Expression compile (Expression pExpression)
+  {
+    if (pExpression instanceof CompiledTree) {
+      return pExpression;
+    }
+    return new CompiledTree (pExpression, compileNode (pExpression));
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the Node that evaluates the given Expression
+   **/
+  static Node compileNode (Expression pExpression)
+  {
+    if (pExpression instanceof Literal) {
+      return new ConstantNode (((Literal) pExpression).getValue ());
+    }
+    else if (pExpression instanceof NamedValue) {
+      return new VariableNode (((NamedValue) pExpression).getName ());
+    }
+    else if (pExpression instanceof ComplexValue) {
+      return compileComplexValue ((ComplexValue) pExpression);
+    }
+    else if (pExpression instanceof BinaryOperatorExpression) {
+      return compileBinaryOperators ((BinaryOperatorExpression) pExpression);
+    }
+    else if (pExpression instanceof UnaryOperatorExpression) {
+      return compileUnaryOperators ((UnaryOperatorExpression) pExpression);
+    }
+    else if (pExpression instanceof ExpressionOptimizer.PrunedConditional) {
+      return compileNode
+	(((ExpressionOptimizer.PrunedConditional) pExpression).getBranch ());
+    }
+    else if (pExpression instanceof ConditionalExpression) {
+      ConditionalExpression expression = (ConditionalExpression) pExpression;
+      return new ConditionalNode
+	(compileNode (expression.getCondition ()),
+	 compileNode (expression.getTrueBranch ()),
+	 compileNode (expression.getFalseBranch ()));
+    }
+    else if (pExpression instanceof ExpressionString) {
+      return compileExpressionString ((ExpressionString) pExpression);
+    }
+    else {
+      return new InterpretedNode (pExpression);
+    }
+  }
+
+  //-------------------------------------
+  static Node compileComplexValue (ComplexValue pExpression)
+  {
+    Node prefix = compileNode (pExpression.getPrefix ());
+    List suffixes = pExpression.getSuffixes ();
+    if (suffixes == null || suffixes.size () == 0) {
+      return prefix;
+    }
+    return new PropertyChainNode
+      (prefix,
+       (ValueSuffix []) suffixes.toArray (new ValueSuffix [suffixes.size ()]));
+  }
+
+  //-------------------------------------
+  static Node compileBinaryOperators (BinaryOperatorExpression pExpression)
+  {
+    Node ret = compileNode (pExpression.getExpression ());
+    List operators = pExpression.getOperators ();
+    List expressions = pExpression.getExpressions ();
+    for (int i = 0; i < operators.size (); i++) {
+      ret = compileBinaryOperator
+	((BinaryOperator) operators.get (i),
+	 ret,
+	 compileNode ((Expression) expressions.get (i)));
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  static Node compileBinaryOperator (BinaryOperator pOperator,
+				     Node pLeft,
+				     Node pRight)
+  {
+    Class operatorClass = pOperator.getClass ();
+    if (operatorClass == AndOperator.class) {
+      return new AndNode (pLeft, pRight);
+    }
+    else if (operatorClass == OrOperator.class) {
+      return new OrNode (pLeft, pRight);
+    }
+    else if (operatorClass == PlusOperator.class) {
+      return new PlusNode ((ArithmeticOperator) pOperator, pLeft, pRight);
+    }
+    else if (operatorClass == MinusOperator.class) {
+      return new MinusNode ((ArithmeticOperator) pOperator, pLeft, pRight);
+    }
+    else if (operatorClass == MultiplyOperator.class) {
+      return new MultiplyNode ((ArithmeticOperator) pOperator, pLeft, pRight);
+    }
+    else if (pOperator instanceof RelationalOperator) {
+      return new RelationalNode ((RelationalOperator) pOperator, pLeft, pRight);
+    }
+    else if (pOperator instanceof EqualityOperator) {
+      return new EqualityNode ((EqualityOperator) pOperator, pLeft, pRight);
+    }
+    else if (!pOperator.shouldCoerceToBoolean ()) {
+      return new BinaryNode (pOperator, pLeft, pRight);
+    }
+    else {
+      return new ShortCircuitNode (pOperator, pLeft, pRight);
+    }
+  }
+
+  //-------------------------------------
+  static Node compileUnaryOperators (UnaryOperatorExpression pExpression)
+  {
+    Node ret = compileNode (pExpression.getExpression ());
+    if (pExpression.getOperator () != null) {
+      return compileUnaryOperator (pExpression.getOperator (), ret);
+    }
+    List operators = pExpression.getOperators ();
+    for (int i = operators.size () - 1; i >= 0; i--) {
+      ret = compileUnaryOperator ((UnaryOperator) operators.get (i), ret);
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  static Node compileUnaryOperator (UnaryOperator pOperator, Node pOperand)
+  {
+    if (pOperator.getClass () == NotOperator.class) {
+      return new NotNode (pOperand);
+    }
+    else {
+      return new UnaryNode (pOperator, pOperand);
+    }
+  }
+
+  //-------------------------------------
+  static Node compileExpressionString (ExpressionString pExpression)
+  {
+    Object [] elements = pExpression.getElements ();
+    Object [] compiled = new Object [elements.length];
+    for (int i = 0; i < elements.length; i++) {
+      compiled [i] = (elements [i] instanceof Expression) ?
+	(Object) compileNode ((Expression) elements [i]) :
+	elements [i];
+    }
+    return new ExpressionStringNode (compiled);
+  }
+
+  //-------------------------------------
+  // Operand tests
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the value is one of the integral types that the
+   * Coercions treat as a long
+   **/
+  static boolean isIntegral (Object pValue)
+  {
+    return
+      pValue instanceof Long ||
+      pValue instanceof Integer ||
+      pValue instanceof Short ||
+      pValue instanceof Byte;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the value is integral or a Double or Float
+   **/
+  static boolean isPrimitiveNumber (Object pValue)
+  {
+    return
+      isIntegral (pValue) ||
+      pValue instanceof Double ||
+      pValue instanceof Float;
+  }
+
+  //-------------------------------------
+  // CompiledTree
+  //-------------------------------------
+  /**
+   *
+   * The Expression returned by the compiler, wrapping the root Node.
+   **/
+  static final class CompiledTree
+    extends Expression
+  {
+    final Expression mSource;
+    final Node mRoot;
+
+    CompiledTree (Expression pSource, Node pRoot)
+    {
+      mSource = pSource;
+      mRoot = pRoot;
+    }
+
+    public String getExpressionString ()
+    {
+      return mSource.getExpressionString ();
+    }
+
+    public Object evaluate (VariableResolver pResolver,
+			    FunctionMapper functions)
+      throws ELException
+    {
+      return mRoot.evaluate (pResolver, functions);
+    }
+
+    public Expression bindFunctions (FunctionMapper functions)
+      throws ELException
+    {
+      Expression source = mSource.bindFunctions (functions);
+      return (source == mSource) ? this : compile (source);
+    }
+  }
+
+  //-------------------------------------
+  // Nodes
+  //-------------------------------------
+  /**
+   *
+   * The base class of the compiled nodes
+   **/
+  static abstract class Node
+  {
+    abstract Object evaluate (VariableResolver pResolver,
+			      FunctionMapper functions)
+      throws ELException;
+  }
+
+  //-------------------------------------
+  static final class ConstantNode
+    extends Node
+  {
+    final Object mValue;
+
+    ConstantNode (Object pValue)
+    {
+      mValue = pValue;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+    {
+      return mValue;
+    }
+  }
+
+  //-------------------------------------
+  static final class VariableNode
+    extends Node
+  {
+    final String mName;
+
+    VariableNode (String pName)
+    {
+      mName = pName;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      return (pResolver == null) ? null : pResolver.resolveVariable (mName);
+    }
+  }
+
+  //-------------------------------------
+  static final class InterpretedNode
+    extends Node
+  {
+    final Expression mExpression;
+
+    InterpretedNode (Expression pExpression)
+    {
+      mExpression = pExpression;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      return mExpression.evaluate (pResolver, functions);
+    }
+  }
+
+  //-------------------------------------
+  static final class PropertyChainNode
+    extends Node
+  {
+    final Node mPrefix;
+    final ValueSuffix [] mSuffixes;
+
+    PropertyChainNode (Node pPrefix, ValueSuffix [] pSuffixes)
+    {
+      mPrefix = pPrefix;
+      mSuffixes = pSuffixes;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object ret = mPrefix.evaluate (pResolver, functions);
+      for (int i = 0; i < mSuffixes.length; i++) {
+	ret = mSuffixes [i].evaluate (ret, pResolver, functions);
+      }
+      return ret;
+    }
+  }
+
+  //-------------------------------------
+  static final class AndNode
+    extends Node
+  {
+    final Node mLeft;
+    final Node mRight;
+
+    AndNode (Node pLeft, Node pRight)
+    {
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Boolean left =
+	Coercions.coerceToBoolean (mLeft.evaluate (pResolver, functions));
+      if (!left.booleanValue ()) {
+	return left;
+      }
+      return PrimitiveObjects.getBoolean
+	(Coercions.coerceToBoolean
+	 (mRight.evaluate (pResolver, functions)).booleanValue ());
+    }
+  }
+
+  //-------------------------------------
+  static final class OrNode
+    extends Node
+  {
+    final Node mLeft;
+    final Node mRight;
+
+    OrNode (Node pLeft, Node pRight)
+    {
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Boolean left =
+	Coercions.coerceToBoolean (mLeft.evaluate (pResolver, functions));
+      if (left.booleanValue ()) {
+	return left;
+      }
+      return PrimitiveObjects.getBoolean
+	(Coercions.coerceToBoolean
+	 (mRight.evaluate (pResolver, functions)).booleanValue ());
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Applies a boolean operator other than and/or, the way
+   * BinaryOperatorExpression does
+   **/
+  static final class ShortCircuitNode
+    extends Node
+  {
+    final BinaryOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    ShortCircuitNode (BinaryOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left =
+	Coercions.coerceToBoolean (mLeft.evaluate (pResolver, functions));
+      if (!mOperator.shouldEvaluate (left)) {
+	return left;
+      }
+      return mOperator.apply (left, mRight.evaluate (pResolver, functions));
+    }
+  }
+
+  //-------------------------------------
+  static final class BinaryNode
+    extends Node
+  {
+    final BinaryOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    BinaryNode (BinaryOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left = mLeft.evaluate (pResolver, functions);
+      if (!mOperator.shouldEvaluate (left)) {
+	return left;
+      }
+      return mOperator.apply (left, mRight.evaluate (pResolver, functions));
+    }
+  }
+
+  //-------------------------------------
+  static final class PlusNode
+    extends Node
+  {
+    final ArithmeticOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    PlusNode (ArithmeticOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left = mLeft.evaluate (pResolver, functions);
+      Object right = mRight.evaluate (pResolver, functions);
+      if (isIntegral (left) && isIntegral (right)) {
+	return PrimitiveObjects.getLong
+	  (((Number) left).longValue () + ((Number) right).longValue ());
+      }
+      else if (isPrimitiveNumber (left) && isPrimitiveNumber (right)) {
+	return PrimitiveObjects.getDouble
+	  (((Number) left).doubleValue () + ((Number) right).doubleValue ());
+      }
+      return Coercions.applyArithmeticOperator (left, right, mOperator);
+    }
+  }
+
+  //-------------------------------------
+  static final class MinusNode
+    extends Node
+  {
+    final ArithmeticOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    MinusNode (ArithmeticOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left = mLeft.evaluate (pResolver, functions);
+      Object right = mRight.evaluate (pResolver, functions);
+      if (isIntegral (left) && isIntegral (right)) {
+	return PrimitiveObjects.getLong
+	  (((Number) left).longValue () - ((Number) right).longValue ());
+      }
+      else if (isPrimitiveNumber (left) && isPrimitiveNumber (right)) {
+	return PrimitiveObjects.getDouble
+	  (((Number) left).doubleValue () - ((Number) right).doubleValue ());
+      }
+      return Coercions.applyArithmeticOperator (left, right, mOperator);
+    }
+  }
+
+  //-------------------------------------
+  static final class MultiplyNode
+    extends Node
+  {
+    final ArithmeticOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    MultiplyNode (ArithmeticOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left = mLeft.evaluate (pResolver, functions);
+      Object right = mRight.evaluate (pResolver, functions);
+      if (isIntegral (left) && isIntegral (right)) {
+	return PrimitiveObjects.getLong
+	  (((Number) left).longValue () * ((Number) right).longValue ());
+      }
+      else if (isPrimitiveNumber (left) && isPrimitiveNumber (right)) {
+	return PrimitiveObjects.getDouble
+	  (((Number) left).doubleValue () * ((Number) right).doubleValue ());
+      }
+      return Coercions.applyArithmeticOperator (left, right, mOperator);
+    }
+  }
+
+  //-------------------------------------
+  static final class RelationalNode
+    extends Node
+  {
+    final RelationalOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    RelationalNode (RelationalOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left = mLeft.evaluate (pResolver, functions);
+      Object right = mRight.evaluate (pResolver, functions);
+      if (isIntegral (left) && isIntegral (right)) {
+	return PrimitiveObjects.getBoolean
+	  (mOperator.apply (((Number) left).longValue (),
+			    ((Number) right).longValue ()));
+      }
+      else if (isPrimitiveNumber (left) && isPrimitiveNumber (right)) {
+	return PrimitiveObjects.getBoolean
+	  (mOperator.apply (((Number) left).doubleValue (),
+			    ((Number) right).doubleValue ()));
+      }
+      return mOperator.apply (left, right);
+    }
+  }
+
+  //-------------------------------------
+  static final class EqualityNode
+    extends Node
+  {
+    final EqualityOperator mOperator;
+    final Node mLeft;
+    final Node mRight;
+
+    EqualityNode (EqualityOperator pOperator, Node pLeft, Node pRight)
+    {
+      mOperator = pOperator;
+      mLeft = pLeft;
+      mRight = pRight;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      Object left = mLeft.evaluate (pResolver, functions);
+      Object right = mRight.evaluate (pResolver, functions);
+      if (isIntegral (left) && isIntegral (right)) {
+	return PrimitiveObjects.getBoolean
+	  (mOperator.apply (((Number) left).longValue () ==
+			    ((Number) right).longValue ()));
+      }
+      return mOperator.apply (left, right);
+    }
+  }
+
+  //-------------------------------------
+  static final class NotNode
+    extends Node
+  {
+    final Node mOperand;
+
+    NotNode (Node pOperand)
+    {
+      mOperand = pOperand;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      return PrimitiveObjects.getBoolean
+	(!Coercions.coerceToBoolean
+	 (mOperand.evaluate (pResolver, functions)).booleanValue ());
+    }
+  }
+
+  //-------------------------------------
+  static final class UnaryNode
+    extends Node
+  {
+    final UnaryOperator mOperator;
+    final Node mOperand;
+
+    UnaryNode (UnaryOperator pOperator, Node pOperand)
+    {
+      mOperator = pOperator;
+      mOperand = pOperand;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      return mOperator.apply (mOperand.evaluate (pResolver, functions));
+    }
+  }
+
+  //-------------------------------------
+  static final class ConditionalNode
+    extends Node
+  {
+    final Node mCondition;
+    final Node mTrueBranch;
+    final Node mFalseBranch;
+
+    ConditionalNode (Node pCondition, Node pTrueBranch, Node pFalseBranch)
+    {
+      mCondition = pCondition;
+      mTrueBranch = pTrueBranch;
+      mFalseBranch = pFalseBranch;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      if (Coercions.coerceToBoolean
+	  (mCondition.evaluate (pResolver, functions)).booleanValue ()) {
+	return mTrueBranch.evaluate (pResolver, functions);
+      }
+      else {
+	return mFalseBranch.evaluate (pResolver, functions);
+      }
+    }
+  }
+
+  //-------------------------------------
+  static final class ExpressionStringNode
+    extends Node
+  {
+    // Strings and Nodes
+    final Object [] mElements;
+
+    ExpressionStringNode (Object [] pElements)
+    {
+      mElements = pElements;
+    }
+
+    Object evaluate (VariableResolver pResolver, FunctionMapper functions)
+      throws ELException
+    {
+      StringBuffer buf = new StringBuffer ();
+      for (int i = 0; i < mElements.length; i++) {
+	Object elem = mElements [i];
+	if (elem instanceof String) {
+	  buf.append ((String) elem);
+	}
+	else {
+	  Object val = ((Node) elem).evaluate (pResolver, functions);
+	  if (val != null) {
+	    buf.append (val.toString ());
+	  }
+	}
+      }
+      return buf.toString ();
+    }
+  }
+
+  //-------------------------------------
+}
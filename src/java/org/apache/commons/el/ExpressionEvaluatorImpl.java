@@ -16,11 +16,9 @@
  */
 package org.apache.commons.el;
 
-import java.io.Reader;
-import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.text.MessageFormat;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import javax.servlet.jsp.el.ELException;
@@ -28,7 +26,6 @@ import javax.servlet.jsp.el.ExpressionEvaluator;
 import javax.servlet.jsp.el.FunctionMapper;
 import javax.servlet.jsp.el.VariableResolver;
 
-import org.apache.commons.el.parser.ELParser;
 import org.apache.commons.el.parser.ParseException;
 import org.apache.commons.el.parser.Token;
 import org.apache.commons.el.parser.TokenMgrError;
@@ -54,9 +51,10 @@ import org.apache.commons.el.parser.TokenMgrError;
  * expression elements, it maintains a cache mapping
  * ExpectedType/ExpressionString to parsed value, so that static
  * expression Strings won't have to go through a conversion step every
- * time they are used.  All instances of the evaluator share the same
- * cache.  The cache may be bypassed by setting a flag on the
- * evaluator's constructor.
+ * time they are used.  Unless an evaluator is constructed with its
+ * own ExpressionCache, all instances of the evaluator share the same
+ * bounded cache (see {@link SegmentedLruCache}).  The cache may be
+ * bypassed by setting a flag on the evaluator's constructor.
  *
  * <p>The evaluator must be passed a VariableResolver in its
  * constructor.  The VariableResolver is used to resolve variable
@@ -89,14 +87,34 @@ public class ExpressionEvaluatorImpl
   //-------------------------------------
   // Statics
   //-------------------------------------
-  /** The mapping from expression String to its parsed form (String,
-      Expression, or ExpressionString) **/
-  static Map sCachedExpressionStrings =
-    Collections.synchronizedMap (new HashMap ());
+  /** The default number of failed expression Strings remembered **/
+  public static final int DEFAULT_FAILURE_CACHE_SIZE = 256;
 
-  /** The mapping from ExpectedType to Maps mapping literal String to
-      parsed value **/
-  static Map sCachedExpectedTypes = new HashMap ();
+  /** The maximum number of literal Strings whose conversion is
+      cached for each expected type **/
+  public static final int DEFAULT_CONVERSION_CACHE_SIZE = 1024;
+
+  /** Stands in for a null conversion result in the conversion
+      caches **/
+  static final Object NULL_CONVERSION = new Object ();
+
+  /** Evaluation mode: parsed expressions interpret themselves **/
+  public static final int INTERPRETED = 0;
+
+  /** Evaluation mode: parsed expressions are compiled into trees of
+      specialized nodes before they are evaluated **/
+  public static final int COMPILED_TREE = 1;
+
+  /** Evaluation mode: parsed expressions are compiled into generated
+      classes before they are evaluated **/
+  public static final int BYTECODE = 2;
+
+  /** The number of evaluation modes **/
+  static final int EVALUATION_MODES = 3;
+
+  /** The default number of evaluations of a parsed expression after
+      which it is compiled **/
+  public static final int DEFAULT_COMPILE_THRESHOLD = 100;
 
   //-------------------------------------
   // Member variables
@@ -105,6 +123,22 @@ public class ExpressionEvaluatorImpl
   /** Flag if the cache should be bypassed **/
   boolean mBypassCache;
 
+  /** The mapping from expression String to its parsed form, or null
+      to use the cache of the context ClassLoader's CachePartition **/
+  ExpressionCache mCachedExpressionStrings;
+
+  /** The mapping from expression String that failed to parse to its
+      error message, or null to use the context ClassLoader's **/
+  ExpressionCache mFailedExpressionStrings;
+
+  /** The evaluation mode **/
+  volatile int mEvaluationMode = INTERPRETED;
+
+  /** The number of evaluations of a parsed expression after which it
+      is compiled for the evaluation mode, or 0 to compile it before
+      its first evaluation **/
+  volatile int mCompileThreshold = DEFAULT_COMPILE_THRESHOLD;
+
   //-------------------------------------
   /**
    *
@@ -124,6 +158,265 @@ public class ExpressionEvaluatorImpl
     mBypassCache = pBypassCache;
   }
 
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   *
+   * @param pCache the cache to use for parsed expression Strings,
+   * instead of the caches kept for each context ClassLoader
+   **/
+  public ExpressionEvaluatorImpl (ExpressionCache pCache)
+  {
+    this (pCache, new SegmentedLruCache (DEFAULT_FAILURE_CACHE_SIZE));
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   *
+   * @param pCache the cache to use for parsed expression Strings,
+   * instead of the caches kept for each context ClassLoader
+   * @param pFailureCache the cache to use for the error messages of
+   * expression Strings that failed to parse
+   **/
+  public ExpressionEvaluatorImpl (ExpressionCache pCache,
+				  ExpressionCache pFailureCache)
+  {
+    if (pCache == null) {
+      throw new NullPointerException ("pCache");
+    }
+    if (pFailureCache == null) {
+      throw new NullPointerException ("pFailureCache");
+    }
+    mCachedExpressionStrings = pCache;
+    mFailedExpressionStrings = pFailureCache;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the cache used for parsed expression Strings, which may
+   * be queried for its hit, miss and eviction counts.  Unless the
+   * evaluator was given its own cache, this is the cache kept for the
+   * current Thread's context ClassLoader.
+   **/
+  public ExpressionCache getExpressionCache ()
+  {
+    return (mCachedExpressionStrings != null) ?
+      mCachedExpressionStrings :
+      CachePartition.getCurrent ().mExpressionStrings;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the cache of expression Strings that failed to parse.  Its
+   * hit count is the number of times a known-bad expression String
+   * was evaluated again, and its size the number of distinct bad
+   * expression Strings currently remembered.  It is only probed, so
+   * its miss count stays 0.
+   **/
+  public ExpressionCache getFailureCache ()
+  {
+    return (mFailedExpressionStrings != null) ?
+      mFailedExpressionStrings :
+      CachePartition.getCurrent ().mFailedExpressionStrings;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the evaluation mode, INTERPRETED, COMPILED_TREE or
+   * BYTECODE
+   **/
+  public int getEvaluationMode ()
+  {
+    return mEvaluationMode;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Sets the evaluation mode.  In the INTERPRETED mode (the default)
+   * the parsed expressions evaluate themselves.  In the COMPILED_TREE
+   * mode they are first compiled into trees of specialized nodes,
+   * which produce the same results with less dispatching.  In the
+   * BYTECODE mode they are compiled into generated classes, falling
+   * back to interpretation for any expression that can't be compiled.
+   * The compiled forms are cached alongside the parsed forms.
+   *
+   * @param pEvaluationMode the evaluation mode
+   * @exception IllegalArgumentException if the mode is not known
+   **/
+  public void setEvaluationMode (int pEvaluationMode)
+  {
+    if (pEvaluationMode < 0 || pEvaluationMode >= EVALUATION_MODES) {
+      throw new IllegalArgumentException
+	("Unknown evaluation mode " + pEvaluationMode);
+    }
+    mEvaluationMode = pEvaluationMode;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of evaluations of a parsed expression after
+   * which it is compiled for the evaluation mode
+   **/
+  public int getCompileThreshold ()
+  {
+    return mCompileThreshold;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Sets the number of evaluations of a parsed expression after which
+   * it is compiled for the evaluation mode.  Until then the parsed
+   * expression is interpreted; once the threshold is reached it is
+   * compiled on a background Thread, and the compiled form replaces it
+   * when ready.  A threshold of 0 compiles each expression before its
+   * first evaluation.  The threshold applies to expressions cached or
+   * parsed after it is set, and has no effect in the INTERPRETED mode.
+   *
+   * @param pCompileThreshold the number of evaluations
+   * @exception IllegalArgumentException if the threshold is negative
+   **/
+  public void setCompileThreshold (int pCompileThreshold)
+  {
+    if (pCompileThreshold < 0) {
+      throw new IllegalArgumentException
+	("Negative compile threshold " + pCompileThreshold);
+    }
+    mCompileThreshold = pCompileThreshold;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of expressions that have reached the compile
+   * threshold and been replaced by their compiled forms
+   **/
+  public static long getPromotionCount ()
+  {
+    return TieredExpression.getPromotionCount ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of expressions that have reached the compile
+   * threshold but could not be compiled, and so remain interpreted
+   **/
+  public static long getPromotionFailureCount ()
+  {
+    return TieredExpression.getPromotionFailureCount ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of expressions that have reached the compile
+   * threshold and are waiting for the background Thread to compile
+   * them
+   **/
+  public static int getPendingPromotionCount ()
+  {
+    return TieredExpression.getPendingPromotionCount ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Discards everything cached on behalf of the given ClassLoader:
+   * the parsed expressions, converted values and bean introspection
+   * results kept for it as a context ClassLoader, and the entries for
+   * its classes kept for other context ClassLoaders.  Those caches
+   * are otherwise only released when memory runs low, so a container
+   * (or a ServletContextListener's contextDestroyed method) should
+   * call this when a web application is stopped, to have the
+   * application's ClassLoader garbage collected at once.
+   *
+   * @param pLoader the ClassLoader of the stopped application
+   **/
+  public static void purge (ClassLoader pLoader)
+  {
+    CachePartition.purge (pLoader);
+  }
+
+  //-------------------------------------
+  // Pure functions
+  //-------------------------------------
+  /**
+   *
+   * Declares the given function method pure, with a cache of
+   * PureFunction.DEFAULT_CACHE_SIZE results
+   *
+   * @see #registerPureFunction(Method, int)
+   **/
+  public static PureFunction registerPureFunction (Method pMethod)
+  {
+    return registerPureFunction (pMethod, PureFunction.DEFAULT_CACHE_SIZE);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Declares the given function method pure: its result depends only
+   * on its arguments, and calling it has no side effects.  Calls to it
+   * with literal arguments are replaced by their results when the
+   * function is bound, and other calls with value arguments (see
+   * PureFunction) are answered from a cache of up to the given
+   * number of recent results.  The declaration is
+   * kept for the current Thread's context ClassLoader, and applies to
+   * expressions parsed with parseExpression from then on.  Declaring a
+   * method pure again returns its existing PureFunction.
+   *
+   * @param pMethod the static method of the function
+   * @param pCacheSize the maximum number of results cached, which may
+   *     be 0 to only evaluate calls with literal arguments early
+   * @return the PureFunction, which keeps the cache's statistics
+   **/
+  public static PureFunction registerPureFunction (Method pMethod,
+						   int pCacheSize)
+  {
+    if (!Modifier.isStatic (pMethod.getModifiers ())) {
+      throw new IllegalArgumentException
+	("Function " + pMethod + " is not static");
+    }
+    if (pCacheSize < 0) {
+      throw new IllegalArgumentException
+	("Negative cache size " + pCacheSize);
+    }
+    CachePartition partition = CachePartition.getCurrent ();
+    PureFunction ret;
+    synchronized (partition.mPureFunctions) {
+      ret = (PureFunction) partition.mPureFunctions.get (pMethod);
+      if (ret != null) {
+	return ret;
+      }
+      ret = new PureFunction (pMethod, pCacheSize);
+      partition.mPureFunctions.put (pMethod, ret);
+    }
+    // Expressions bound before this don't know the function is pure
+    partition.mBoundExpressions.clear ();
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the PureFunction the given method has been registered as
+   * for the current Thread's context ClassLoader, or null if it hasn't
+   * been declared pure
+   **/
+  public static PureFunction getPureFunction (Method pMethod)
+  {
+    return PureFunction.get (pMethod);
+  }
+
   //-------------------------------------
 
   /**
@@ -156,13 +449,58 @@ public class ExpressionEvaluatorImpl
        // Create an Expression object that knows how to evaluate this.
        final Object parsedExpression = parseExpressionString(expression);
        if (parsedExpression instanceof Expression) {
-           return new JSTLExpression(this, (Expression)parsedExpression, expectedType, fMapper);
+           return new JSTLExpression(this,
+                                     bindFunctions((Expression)parsedExpression, fMapper),
+                                     expectedType);
        } else {
            // this had better be a string
            return new JSTLExpression(this, (String)parsedExpression, expectedType, fMapper);
        }
   }
 
+  //-------------------------------------
+  /**
+   *
+   * Returns the given parsed Expression with its functions bound to the
+   * given FunctionMapper.  The bound Expressions are cached by the
+   * identity of the FunctionMapper, along with the Method each function
+   * name resolved to.  A cached binding is only used while the
+   * FunctionMapper still resolves the same names to the same Methods,
+   * and bindings with unmapped functions are not cached at all, so
+   * FunctionMappers may change their mappings.  Expressions without
+   * functions are returned as they are.
+   **/
+  Expression bindFunctions (Expression pExpression, FunctionMapper pMapper)
+    throws ELException
+  {
+    if (mBypassCache || pMapper == null) {
+      return pExpression.bindFunctions (pMapper);
+    }
+
+    WeakIdentityMap mappers = CachePartition.getCurrent ().mBoundExpressions;
+    WeakIdentityMap boundByExpression = (WeakIdentityMap) mappers.get (pMapper);
+    if (boundByExpression == null) {
+      boundByExpression = (WeakIdentityMap) mappers.putIfAbsent
+	(pMapper, new WeakIdentityMap ());
+    }
+
+    FunctionBindings bindings =
+      (FunctionBindings) boundByExpression.get (pExpression);
+    if (bindings == null || !bindings.isCurrent (pMapper)) {
+      // Binding has no side effects, so Threads that race here just
+      // bind it more than once
+      bindings = FunctionBindings.bind (pExpression, pMapper);
+      if (bindings.mHasUnmappedFunctions) {
+	// The functions may be mapped by the time it is parsed again
+	boundByExpression.remove (pExpression);
+      }
+      else {
+	boundByExpression.put (pExpression, bindings);
+      }
+    }
+    return bindings.getExpression (pExpression);
+  }
+
   //-------------------------------------
   /**
    *
@@ -182,6 +520,84 @@ public class ExpressionEvaluatorImpl
                 VariableResolver pResolver,
                 FunctionMapper functions)
     throws ELException
+  {
+    return evaluate (getEvaluatedForm (pExpressionString),
+		     pExpectedType,
+		     pResolver,
+		     functions);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the given expression String to a boolean, as if it were
+   * evaluated to a Boolean and unboxed
+   **/
+  public boolean evaluateBoolean (String pExpressionString,
+				  VariableResolver pResolver,
+				  FunctionMapper functions)
+    throws ELException
+  {
+    return evaluateBoolean (getEvaluatedForm (pExpressionString),
+			    pResolver,
+			    functions);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the given expression String to a long, as if it were
+   * evaluated to a Long and unboxed
+   **/
+  public long evaluateLong (String pExpressionString,
+			    VariableResolver pResolver,
+			    FunctionMapper functions)
+    throws ELException
+  {
+    return evaluateLong (getEvaluatedForm (pExpressionString),
+			 pResolver,
+			 functions);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the given expression String to a double, as if it were
+   * evaluated to a Double and unboxed
+   **/
+  public double evaluateDouble (String pExpressionString,
+				VariableResolver pResolver,
+				FunctionMapper functions)
+    throws ELException
+  {
+    return evaluateDouble (getEvaluatedForm (pExpressionString),
+			   pResolver,
+			   functions);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the given expression String to a String
+   **/
+  public String evaluateString (String pExpressionString,
+				VariableResolver pResolver,
+				FunctionMapper functions)
+    throws ELException
+  {
+    return evaluateString (getEvaluatedForm (pExpressionString),
+			   pResolver,
+			   functions);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the form of the given expression String to evaluate: the
+   * parsed String or the (compiled) Expression
+   **/
+  Object getEvaluatedForm (String pExpressionString)
+    throws ELException
   {
     // Check for null expression strings
     if (pExpressionString == null) {
@@ -191,7 +607,11 @@ public class ExpressionEvaluatorImpl
 
     // Get the parsed version of the expression string
     Object parsedValue = parseExpressionString (pExpressionString);
-    return evaluate (parsedValue, pExpectedType, pResolver, functions);
+    if (mEvaluationMode != INTERPRETED && parsedValue instanceof Expression) {
+      parsedValue = getCompiledExpression (pExpressionString,
+					   (Expression) parsedValue);
+    }
+    return parsedValue;
   }
 
   //-------------------------------------
@@ -236,13 +656,104 @@ public class ExpressionEvaluatorImpl
         }
     }
 
+  //-------------------------------------
+  // Typed evaluation
+  //-------------------------------------
+  // Each of these evaluates a parsed value (a String or an Expression)
+  // and converts the result as the Coercions would convert it to the
+  // corresponding wrapper class.  Numbers are taken from the
+  // Expression unboxed where it can produce them that way, and
+  // Strings are converted through the cache of static conversions.
+
+  boolean evaluateBoolean (Object pParsedValue,
+			   VariableResolver pResolver,
+			   FunctionMapper functions)
+    throws ELException
+  {
+    Object value = (pParsedValue instanceof String) ?
+      convertStaticValueToExpectedType ((String) pParsedValue,
+					Boolean.class) :
+      ((Expression) pParsedValue).evaluate (pResolver, functions);
+    if (value instanceof Boolean) {
+      return ((Boolean) value).booleanValue ();
+    }
+    return Coercions.coerceToBoolean (value).booleanValue ();
+  }
+
+  //-------------------------------------
+  long evaluateLong (Object pParsedValue,
+		     VariableResolver pResolver,
+		     FunctionMapper functions)
+    throws ELException
+  {
+    if (pParsedValue instanceof String) {
+      return ((Number) convertStaticValueToExpectedType
+	      ((String) pParsedValue, Long.class)).longValue ();
+    }
+    PrimitiveValue value = new PrimitiveValue ();
+    switch (((Expression) pParsedValue).evaluatePrimitive (pResolver,
+							    functions,
+							    value)) {
+    case PrimitiveValue.LONG:
+      return value.mLong;
+    case PrimitiveValue.DOUBLE:
+      return (long) value.mDouble;
+    default:
+      return Coercions.coerceToPrimitiveNumber (value.mObject, Long.class).
+	longValue ();
+    }
+  }
+
+  //-------------------------------------
+  double evaluateDouble (Object pParsedValue,
+			 VariableResolver pResolver,
+			 FunctionMapper functions)
+    throws ELException
+  {
+    if (pParsedValue instanceof String) {
+      return ((Number) convertStaticValueToExpectedType
+	      ((String) pParsedValue, Double.class)).doubleValue ();
+    }
+    PrimitiveValue value = new PrimitiveValue ();
+    switch (((Expression) pParsedValue).evaluatePrimitive (pResolver,
+							    functions,
+							    value)) {
+    case PrimitiveValue.LONG:
+    case PrimitiveValue.DOUBLE:
+      return value.getDouble ();
+    default:
+      return Coercions.coerceToPrimitiveNumber (value.mObject, Double.class).
+	doubleValue ();
+    }
+  }
+
+  //-------------------------------------
+  String evaluateString (Object pParsedValue,
+			 VariableResolver pResolver,
+			 FunctionMapper functions)
+    throws ELException
+  {
+    if (pParsedValue instanceof String) {
+      return (String) pParsedValue;
+    }
+    Object value = ((Expression) pParsedValue).evaluate (pResolver, functions);
+    if (value instanceof String) {
+      return (String) value;
+    }
+    return Coercions.coerceToString (value);
+  }
+
   //-------------------------------------
   /**
    *
    * Gets the parsed form of the given expression string.  If the
    * parsed form is cached (and caching is not bypassed), return the
    * cached form, otherwise parse and cache the value.  Returns either
-   * a String, Expression, or ExpressionString.
+   * a String, Expression, or ExpressionString.  Strings without any
+   * "${" are returned as they are, without being cached.  The error
+   * messages of expression Strings that fail to parse are cached as
+   * well, so that a bad expression on a busy page isn't parsed again
+   * on every request.
    **/
   public Object parseExpressionString (String pExpressionString)
     throws ELException
@@ -252,38 +763,205 @@ public class ExpressionEvaluatorImpl
       return "";
     }
 
-    // See if it's in the cache
-    Object ret =
-      mBypassCache ?
-      null :
-      sCachedExpressionStrings.get (pExpressionString);
+    // Text without "${" parses to itself (the grammar has no escape
+    // for "${"), so it needs neither a parser nor a cache entry
+    if (pExpressionString.indexOf ("${") < 0) {
+      return pExpressionString;
+    }
+
+    if (mBypassCache) {
+      return parseUncached (pExpressionString);
+    }
 
+    CachePartition partition = CachePartition.getCurrent ();
+    ExpressionCache cache = mCachedExpressionStrings;
+    ExpressionCache failureCache = mFailedExpressionStrings;
+    if (cache == null) {
+      cache = partition.mExpressionStrings;
+      failureCache = partition.mFailedExpressionStrings;
+    }
+
+    // See if it's in the cache
+    Object ret = cache.get (pExpressionString);
     if (ret == null) {
-      // Parse the expression
-      Reader r = new StringReader (pExpressionString);
-      ELParser parser = new ELParser (r);
-      try {
-        ret = parser.ExpressionString ();
-        sCachedExpressionStrings.put (pExpressionString, ret);
+      // See if it's already known not to parse.  Most Strings missing
+      // from the cache are just not parsed yet, so that isn't counted
+      // as a miss of the failure cache.
+      String errorMessage = (String) failureCache.probe (pExpressionString);
+      if (errorMessage != null) {
+        throw new ELException (errorMessage);
       }
-      catch (ParseException exc)
-      {
-        throw new ELException
-          (formatParseException (pExpressionString,
-              exc));
+      ret = parseCoalesced (pExpressionString, cache, failureCache,
+                            partition.mPendingParses);
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the given expression string and caches the result in the
+   * given caches.  If another Thread is already parsing the same
+   * String, waits for it and shares its result (or failure) instead.
+   * The parses in progress are tracked in the given map, which is
+   * that of the current CachePartition.
+   **/
+  Object parseCoalesced (String pExpressionString,
+                         ExpressionCache pCache,
+                         ExpressionCache pFailureCache,
+                         Map pPendingParses)
+    throws ELException
+  {
+    PendingParse pending;
+    boolean parseHere = false;
+    synchronized (pPendingParses) {
+      pending = (PendingParse) pPendingParses.get (pExpressionString);
+      if (pending == null) {
+        pending = new PendingParse ();
+        pPendingParses.put (pExpressionString, pending);
+        parseHere = true;
       }
-      catch (TokenMgrError exc)
-      {
-        // Note - this should never be reached, since the parser is
-        // constructed to tokenize any input (illegal inputs get
-        // parsed to <BADLY_ESCAPED_STRING_LITERAL> or
-        // <ILLEGAL_CHARACTER>
-        throw new ELException (exc.getMessage ());
+    }
+
+    if (!parseHere) {
+      Object ret = pending.getResult ();
+      return (ret != null) ? ret : parseUncached (pExpressionString);
+    }
+
+    Object ret = null;
+    String errorMessage = null;
+    try {
+      ret = parseUncached (pExpressionString);
+      pCache.put (pExpressionString, ret);
+      return ret;
+    }
+    catch (ELException exc) {
+      errorMessage = exc.getMessage ();
+      if (errorMessage != null) {
+        pFailureCache.put (pExpressionString, errorMessage);
+      }
+      throw exc;
+    }
+    finally {
+      // The result is cached before the pending parse is removed, so
+      // that Threads arriving in between find one or the other
+      synchronized (pPendingParses) {
+        pPendingParses.remove (pExpressionString);
       }
+      pending.complete (ret, errorMessage);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the compiled form of the given parsed expression, for the
+   * current evaluation mode
+   **/
+  Object getCompiledExpression (String pExpressionString,
+				Expression pExpression)
+  {
+    int mode = mEvaluationMode;
+    if (mBypassCache) {
+      // Nothing outlives this evaluation to count evaluations against,
+      // so there is no point in tiering
+      return compile (pExpression, mode);
+    }
+    ExpressionCache cache =
+      CachePartition.getCurrent ().mCompiledExpressions [mode];
+    Object ret = cache.get (pExpressionString);
+    if (ret == null) {
+      // Compiling is cheap and has no side effects, so Threads that
+      // race here just compile it more than once
+      ret = optimize (pExpression, mode);
+      cache.put (pExpressionString, ret);
     }
     return ret;
   }
 
+  //-------------------------------------
+  /**
+   *
+   * Returns the form of the given parsed expression to evaluate in the
+   * given evaluation mode: the compiled form, or a TieredExpression
+   * that compiles it once it reaches the compile threshold
+   **/
+  Expression optimize (Expression pExpression, int pEvaluationMode)
+  {
+    int threshold = mCompileThreshold;
+    if (pEvaluationMode == INTERPRETED || threshold == 0) {
+      return compile (pExpression, pEvaluationMode);
+    }
+    return new TieredExpression (pExpression, pEvaluationMode, threshold);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Compiles the given parsed expression for the given evaluation mode
+   **/
+  static Expression compile (Expression pExpression, int pEvaluationMode)
+  {
+    switch (pEvaluationMode) {
+    case COMPILED_TREE:
+      return ExpressionCompiler.compile (pExpression);
+    case BYTECODE:
+      return BytecodeCompiler.compile (pExpression);
+    default:
+      return pExpression;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the given expression string without consulting the cache.
+   * The hand-written ExpressionParser parses it if it can; the
+   * generated ELParser only runs on Strings that fail to parse, to
+   * report the error.
+   **/
+  Object parseUncached (String pExpressionString)
+    throws ELException
+  {
+    return ExpressionOptimizer.optimize (parseUnoptimized (pExpressionString));
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the given expression string, as parseUncached does, but
+   * without folding its constant parts
+   **/
+  Object parseUnoptimized (String pExpressionString)
+    throws ELException
+  {
+    Object parsed = ExpressionParser.parse (pExpressionString);
+    if (parsed != null) {
+      return parsed;
+    }
+
+    PooledParser parser = PooledParser.acquire (pExpressionString);
+    try {
+      parsed = parser.parse ();
+    }
+    catch (ParseException exc)
+    {
+      String message = formatParseException (pExpressionString, exc);
+      parser.release ();
+      throw new ELException (message);
+    }
+    catch (TokenMgrError exc)
+    {
+      // Note - this should never be reached, since the parser is
+      // constructed to tokenize any input (illegal inputs get
+      // parsed to <BADLY_ESCAPED_STRING_LITERAL> or
+      // <ILLEGAL_CHARACTER>
+      throw new ELException (exc.getMessage ());
+    }
+    parser.release ();
+    return parsed;
+  }
+
   //-------------------------------------
   /**
    *
@@ -296,11 +974,117 @@ public class ExpressionEvaluatorImpl
     return Coercions.coerce (pValue, pExpectedType);
   }
 
+  //-------------------------------------
+  // Coercion plans
+  //-------------------------------------
+  // The ways of converting an evaluated value to an expected type,
+  // chosen once for the expected type of a parsed Expression
+
+  /** The value is returned as it is **/
+  static final int COERCE_NONE = 0;
+
+  /** The value is converted to a String **/
+  static final int COERCE_STRING = 1;
+
+  /** The value is converted to a Boolean **/
+  static final int COERCE_BOOLEAN = 2;
+
+  /** The value is converted to a Number of the expected type **/
+  static final int COERCE_NUMBER = 3;
+
+  /** The value is converted by the Coercions **/
+  static final int COERCE_GENERIC = 4;
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the coercion plan for the given expected type
+   **/
+  static int getCoercion (Class pExpectedType)
+  {
+    if (pExpectedType == Object.class) {
+      return COERCE_NONE;
+    }
+    else if (pExpectedType == String.class) {
+      return COERCE_STRING;
+    }
+    else if (pExpectedType == Boolean.class ||
+	     pExpectedType == Boolean.TYPE) {
+      return COERCE_BOOLEAN;
+    }
+    else if (pExpectedType != null &&
+	     Coercions.isNumberClass (pExpectedType)) {
+      return COERCE_NUMBER;
+    }
+    else {
+      return COERCE_GENERIC;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the given expected type is String, a primitive
+   * type or its object version, whose converted values can be shared
+   * by every evaluation
+   **/
+  static boolean isImmutableType (Class pExpectedType)
+  {
+    Class cl = PrimitiveObjects.getPrimitiveObjectClass (pExpectedType);
+    return
+      cl == String.class ||
+      cl == Boolean.class ||
+      cl == Character.class ||
+      cl == Byte.class ||
+      cl == Short.class ||
+      cl == Integer.class ||
+      cl == Long.class ||
+      cl == Float.class ||
+      cl == Double.class;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Converts the given value to the expected type with the given
+   * coercion plan, giving the same result as convertToExpectedType.
+   * For COERCE_NUMBER the object version of the expected type is
+   * passed separately; it is only compared with the value's class,
+   * while errors name the expected type itself.
+   **/
+  static Object coerce (Object pValue,
+			int pCoercion,
+			Class pExpectedType,
+			Class pObjectType)
+    throws ELException
+  {
+    switch (pCoercion) {
+    case COERCE_NONE:
+      return pValue;
+    case COERCE_STRING:
+      return (pValue instanceof String) ?
+	pValue :
+	Coercions.coerceToString (pValue);
+    case COERCE_BOOLEAN:
+      return (pValue instanceof Boolean) ?
+	pValue :
+	Coercions.coerceToBoolean (pValue);
+    case COERCE_NUMBER:
+      return (pValue != null && pValue.getClass () == pObjectType) ?
+	pValue :
+	Coercions.coerceToPrimitiveNumber (pValue, pExpectedType);
+    default:
+      return Coercions.coerce (pValue, pExpectedType);
+    }
+  }
+
   //-------------------------------------
   /**
    *
    * Converts the given String, specified as a static expression
-   * string, to the given expected type.  The conversion is cached.
+   * string, to the given expected type.  The conversion is cached,
+   * and is performed only once per String and expected type even if
+   * several Threads ask for it at the same time.
    **/
   Object convertStaticValueToExpectedType (String pValue, Class pExpectedType)
     throws ELException
@@ -311,36 +1095,47 @@ public class ExpressionEvaluatorImpl
       return pValue;
     }
 
-    // Find the cached value
-    Map valueByString = getOrCreateExpectedTypeMap (pExpectedType);
-    if (!mBypassCache &&
-      valueByString.containsKey (pValue)) {
-      return valueByString.get (pValue);
+    if (mBypassCache) {
+      return Coercions.coerce (pValue, pExpectedType);
     }
-    else {
-      // Convert from a String
-      Object ret = Coercions.coerce (pValue, pExpectedType);
-      valueByString.put (pValue, ret);
-      return ret;
+
+    // Find the cached value
+    ExpressionCache valueByString =
+      getOrCreateExpectedTypeCache (pExpectedType);
+    Object ret = valueByString.get (pValue);
+    if (ret == null) {
+      synchronized (valueByString) {
+        ret = valueByString.get (pValue);
+        if (ret == null) {
+          // Convert from a String
+          ret = Coercions.coerce (pValue, pExpectedType);
+          if (ret == null) {
+            ret = NULL_CONVERSION;
+          }
+          valueByString.put (pValue, ret);
+        }
+      }
     }
+    return (ret == NULL_CONVERSION) ? null : ret;
   }
 
   //-------------------------------------
   /**
    *
-   * Creates or returns the Map that maps string literals to parsed
-   * values for the specified expected type.
+   * Creates or returns the cache that maps string literals to parsed
+   * values for the specified expected type, kept for the current
+   * Thread's context ClassLoader.
    **/
-  static Map getOrCreateExpectedTypeMap (Class pExpectedType)
+  static ExpressionCache getOrCreateExpectedTypeCache (Class pExpectedType)
   {
-    synchronized (sCachedExpectedTypes) {
-      Map ret = (Map) sCachedExpectedTypes.get (pExpectedType);
-      if (ret == null) {
-        ret = Collections.synchronizedMap (new HashMap ());
-        sCachedExpectedTypes.put (pExpectedType, ret);
-      }
-      return ret;
+    WeakIdentityMap caches = CachePartition.getCurrent ().mExpectedTypes;
+    ExpressionCache ret = (ExpressionCache) caches.get (pExpectedType);
+    if (ret == null) {
+      ret = (ExpressionCache) caches.putIfAbsent
+        (pExpectedType,
+         new SegmentedLruCache (DEFAULT_CONVERSION_CACHE_SIZE));
     }
+    return ret;
   }
 
   //-------------------------------------
@@ -451,12 +1246,17 @@ public class ExpressionEvaluatorImpl
   /**
    *
    * Parses the given expression string, then converts it back to a
-   * String in its canonical form.  This is used to test parsing.
+   * String in its canonical form.  This is used to test parsing, so
+   * the expression is rendered as parsed, without the constant folding
+   * applied to the cached form.
    **/
   public String parseAndRender (String pExpressionString)
     throws ELException
   {
-    Object val = parseExpressionString (pExpressionString);
+    if (pExpressionString.indexOf ("${") < 0) {
+      return pExpressionString;
+    }
+    Object val = parseUnoptimized (pExpressionString);
     if (val instanceof String) {
       return (String) val;
     }
@@ -473,24 +1273,36 @@ public class ExpressionEvaluatorImpl
 
   /**
    * An object that encapsulates an expression to be evaluated by 
-   * the JSTL evaluator.
+   * the JSTL evaluator.  Its evaluation is planned when it is created:
+   * a static String is converted to the expected type once, and an
+   * Expression's value is converted with the coercion chosen for the
+   * expected type.
    */
   private class JSTLExpression
     extends javax.servlet.jsp.el.Expression
+    implements TypedExpression
   {
     private ExpressionEvaluatorImpl evaluator;
     private Object parsedExpression;
     private Class expectedType;
+    private Class objectType;
+    private int coercion;
+    private boolean converted;
+    private Object convertedValue;
 
     public JSTLExpression(
             final ExpressionEvaluatorImpl evaluator,
-            final Expression expression,
-            final Class expectedType,
-            final FunctionMapper fMapper)
+            final Expression boundExpression,
+            final Class expectedType)
     throws ELException {
       this.evaluator = evaluator;
-      this.parsedExpression = expression.bindFunctions(fMapper);
+      this.parsedExpression = evaluator.optimize(boundExpression,
+                                                 evaluator.mEvaluationMode);
+      this.coercion = getCoercion(expectedType);
       this.expectedType = expectedType;
+      this.objectType = (this.coercion == COERCE_NUMBER) ?
+        PrimitiveObjects.getPrimitiveObjectClass(expectedType) :
+        expectedType;
     }
     public JSTLExpression(
             final ExpressionEvaluatorImpl evaluator,
@@ -501,16 +1313,60 @@ public class ExpressionEvaluatorImpl
        this.evaluator = evaluator;
        this.parsedExpression = expressionString;
        this.expectedType = expectedType;
+       // Other types are converted on each evaluation, as they would
+       // be by ExpressionEvaluatorImpl.evaluate
+       if (isImmutableType(expectedType)) {
+         try {
+           this.convertedValue =
+             evaluator.convertStaticValueToExpectedType(expressionString, expectedType);
+           this.converted = true;
+         } catch (ELException exc) {
+           // Report the failure when the expression is evaluated
+         }
+       }
      }
     
      public Object evaluate( VariableResolver vResolver )
        throws ELException
      {
+      if (this.converted) {
+        return this.convertedValue;
+      }
+      if (this.parsedExpression instanceof Expression) {
+        return coerce(((Expression) this.parsedExpression).evaluate(vResolver, null),
+                      this.coercion,
+                      this.expectedType,
+                      this.objectType);
+      }
       return evaluator.evaluateParsedValue(this.parsedExpression,
                this.expectedType,
                vResolver,
                null);
      }
+
+     public boolean evaluateBoolean( VariableResolver vResolver )
+       throws ELException
+     {
+      return evaluator.evaluateBoolean(this.parsedExpression, vResolver, null);
+     }
+
+     public long evaluateLong( VariableResolver vResolver )
+       throws ELException
+     {
+      return evaluator.evaluateLong(this.parsedExpression, vResolver, null);
+     }
+
+     public double evaluateDouble( VariableResolver vResolver )
+       throws ELException
+     {
+      return evaluator.evaluateDouble(this.parsedExpression, vResolver, null);
+     }
+
+     public String evaluateString( VariableResolver vResolver )
+       throws ELException
+     {
+      return evaluator.evaluateString(this.parsedExpression, vResolver, null);
+     }
    }
 
   //-------------------------------------
@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.List;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>Simplifies the parsed form of an expression String, once, right
+ * after it is parsed:
+ *
+ * <ul>
+ *   <li>an operator expression whose value is determined by its
+ *       literal operands becomes a single literal
+ *   <li>a conditional expression whose condition is literal becomes the
+ *       branch it selects
+ *   <li>an expression String whose elements are all literal becomes
+ *       the String it evaluates to
+ * </ul>
+ *
+ * <p>An operator is only folded when applying it to its operands can
+ * neither fail nor log anything (for instance, numbers are only added
+ * to numbers, and nothing is divided by zero), so that the folded form
+ * behaves exactly as the original would on every evaluation.
+ * Everything else is left to be evaluated as before.
+ *
+ * <p>The parsed tree is simplified in place, since the parser has just
+ * created it.  The simplified expressions keep the expression Strings
+ * of the expressions they replace.
+ *
+ * @version $Id$
+ **/
+
+class ExpressionOptimizer
+{
+  //-------------------------------------
+  /**
+   *
+   * Simplifies the value returned by ELParser.ExpressionString ():
+   * a String, an Expression, or an ExpressionString
+   **/
+  public static Object optimize (Object pParsedValue)
+    throws ELException
+  {
+    if (pParsedValue instanceof ExpressionString) {
+      ExpressionString expression = (ExpressionString) pParsedValue;
+      optimizeElements (expression);
+      if (isConstant (expression)) {
+	return expression.evaluate (null, null);
+      }
+      return expression;
+    }
+    else if (pParsedValue instanceof Expression) {
+      return optimize ((Expression) pParsedValue);
+    }
+    else {
+      return pParsedValue;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the simplified form of the given Expression
+   **/
+  static Expression optimize (Expression pExpression)
+    throws ELException
+  {
+    if (pExpression instanceof BinaryOperatorExpression) {
+      return optimizeBinaryOperators ((BinaryOperatorExpression) pExpression);
+    }
+    else if (pExpression instanceof UnaryOperatorExpression) {
+      return optimizeUnaryOperators ((UnaryOperatorExpression) pExpression);
+    }
+    else if (pExpression instanceof ConditionalExpression) {
+      return optimizeConditional ((ConditionalExpression) pExpression);
+    }
+    else if (pExpression instanceof ComplexValue) {
+      ComplexValue expression = (ComplexValue) pExpression;
+      expression.setPrefix (optimize (expression.getPrefix ()));
+      List suffixes = expression.getSuffixes ();
+      for (int i = 0; suffixes != null && i < suffixes.size (); i++) {
+	Object suffix = suffixes.get (i);
+	if (suffix.getClass () == ArraySuffix.class) {
+	  ArraySuffix arraySuffix = (ArraySuffix) suffix;
+	  arraySuffix.setIndex (optimize (arraySuffix.getIndex ()));
+	}
+      }
+      return expression;
+    }
+    else if (pExpression instanceof FunctionInvocation) {
+      List arguments = ((FunctionInvocation) pExpression).getArgumentList ();
+      for (int i = 0; i < arguments.size (); i++) {
+	arguments.set (i, optimize ((Expression) arguments.get (i)));
+      }
+      return pExpression;
+    }
+    else if (pExpression instanceof ExpressionString) {
+      optimizeElements ((ExpressionString) pExpression);
+      return pExpression;
+    }
+    else {
+      return pExpression;
+    }
+  }
+
+  //-------------------------------------
+  static void optimizeElements (ExpressionString pExpression)
+    throws ELException
+  {
+    Object [] elements = pExpression.getElements ();
+    for (int i = 0; i < elements.length; i++) {
+      if (elements [i] instanceof Expression) {
+	elements [i] = optimize ((Expression) elements [i]);
+      }
+    }
+  }
+
+  //-------------------------------------
+  static boolean isConstant (ExpressionString pExpression)
+  {
+    Object [] elements = pExpression.getElements ();
+    for (int i = 0; i < elements.length; i++) {
+      if (elements [i] instanceof Expression &&
+	  !(elements [i] instanceof Literal)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Folds the operator chain if its value is determined by its literal
+   * operands, following the steps of BinaryOperatorExpression.evaluate.
+   * Operands skipped by and/or need not be literal.
+   **/
+  static Expression optimizeBinaryOperators (BinaryOperatorExpression pExpression)
+    throws ELException
+  {
+    String expressionString = pExpression.getExpressionString ();
+    pExpression.setExpression (optimize (pExpression.getExpression ()));
+    List operators = pExpression.getOperators ();
+    List expressions = pExpression.getExpressions ();
+    for (int i = 0; i < expressions.size (); i++) {
+      expressions.set (i, optimize ((Expression) expressions.get (i)));
+    }
+
+    if (!(pExpression.getExpression () instanceof Literal)) {
+      return pExpression;
+    }
+    Object value = ((Literal) pExpression.getExpression ()).getValue ();
+    for (int i = 0; i < operators.size (); i++) {
+      BinaryOperator operator = (BinaryOperator) operators.get (i);
+      if (operator.shouldCoerceToBoolean ()) {
+	if (!isBooleanOrNull (value)) {
+	  return pExpression;
+	}
+	value = Coercions.coerceToBoolean (value);
+      }
+      if (operator.shouldEvaluate (value)) {
+	Expression next = (Expression) expressions.get (i);
+	if (!(next instanceof Literal)) {
+	  return pExpression;
+	}
+	Object nextValue = ((Literal) next).getValue ();
+	if (!isFoldable (operator, value, nextValue)) {
+	  return pExpression;
+	}
+	value = operator.apply (value, nextValue);
+      }
+    }
+    return new FoldedLiteral (value, expressionString);
+  }
+
+  //-------------------------------------
+  static Expression optimizeUnaryOperators (UnaryOperatorExpression pExpression)
+    throws ELException
+  {
+    String expressionString = pExpression.getExpressionString ();
+    pExpression.setExpression (optimize (pExpression.getExpression ()));
+    if (!(pExpression.getExpression () instanceof Literal)) {
+      return pExpression;
+    }
+
+    Object value = ((Literal) pExpression.getExpression ()).getValue ();
+    if (pExpression.getOperator () != null) {
+      if (!isFoldable (pExpression.getOperator (), value)) {
+	return pExpression;
+      }
+      value = pExpression.getOperator ().apply (value);
+    }
+    else {
+      List operators = pExpression.getOperators ();
+      for (int i = operators.size () - 1; i >= 0; i--) {
+	UnaryOperator operator = (UnaryOperator) operators.get (i);
+	if (!isFoldable (operator, value)) {
+	  return pExpression;
+	}
+	value = operator.apply (value);
+      }
+    }
+    return new FoldedLiteral (value, expressionString);
+  }
+
+  //-------------------------------------
+  static Expression optimizeConditional (ConditionalExpression pExpression)
+    throws ELException
+  {
+    String expressionString = pExpression.getExpressionString ();
+    pExpression.setCondition (optimize (pExpression.getCondition ()));
+    pExpression.setTrueBranch (optimize (pExpression.getTrueBranch ()));
+    pExpression.setFalseBranch (optimize (pExpression.getFalseBranch ()));
+
+    if (!(pExpression.getCondition () instanceof Literal)) {
+      return pExpression;
+    }
+    Object condition = ((Literal) pExpression.getCondition ()).getValue ();
+    if (!isBooleanOrNull (condition)) {
+      return pExpression;
+    }
+    Expression branch =
+      Coercions.coerceToBoolean (condition).booleanValue () ?
+      pExpression.getTrueBranch () :
+      pExpression.getFalseBranch ();
+    if (branch instanceof Literal) {
+      return new FoldedLiteral (((Literal) branch).getValue (),
+				expressionString);
+    }
+    return new PrunedConditional (pExpression, branch);
+  }
+
+  //-------------------------------------
+  // Operand tests
+  //-------------------------------------
+  /**
+   *
+   * Returns true if applying the given operator to the given operands
+   * can neither fail nor log a warning
+   **/
+  static boolean isFoldable (BinaryOperator pOperator,
+			     Object pLeft,
+			     Object pRight)
+  {
+    Class operatorClass = pOperator.getClass ();
+    if (operatorClass == PlusOperator.class ||
+	operatorClass == MinusOperator.class ||
+	operatorClass == MultiplyOperator.class ||
+	operatorClass == DivideOperator.class) {
+      return isNumber (pLeft) && isNumber (pRight);
+    }
+    else if (operatorClass == IntegerDivideOperator.class ||
+	     operatorClass == ModulusOperator.class) {
+      return
+	isNumber (pLeft) &&
+	isNumber (pRight) &&
+	((Number) pRight).longValue () != 0;
+    }
+    else if (operatorClass == LessThanOperator.class ||
+	     operatorClass == LessThanOrEqualsOperator.class ||
+	     operatorClass == GreaterThanOperator.class ||
+	     operatorClass == GreaterThanOrEqualsOperator.class) {
+      return
+	(isNumber (pLeft) && isNumber (pRight)) ||
+	(pLeft instanceof String && pRight instanceof String);
+    }
+    else if (operatorClass == EqualsOperator.class ||
+	     operatorClass == NotEqualsOperator.class) {
+      return
+	pLeft == null ||
+	pRight == null ||
+	(isNumber (pLeft) && isNumber (pRight)) ||
+	(pLeft instanceof String && pRight instanceof String) ||
+	(pLeft instanceof Boolean && pRight instanceof Boolean);
+    }
+    else if (operatorClass == AndOperator.class ||
+	     operatorClass == OrOperator.class) {
+      return isBooleanOrNull (pLeft) && isBooleanOrNull (pRight);
+    }
+    else {
+      return false;
+    }
+  }
+
+  //-------------------------------------
+  static boolean isFoldable (UnaryOperator pOperator, Object pValue)
+  {
+    Class operatorClass = pOperator.getClass ();
+    if (operatorClass == EmptyOperator.class) {
+      return true;
+    }
+    else if (operatorClass == NotOperator.class) {
+      return isBooleanOrNull (pValue);
+    }
+    else if (operatorClass == UnaryMinusOperator.class) {
+      return isNumber (pValue);
+    }
+    else {
+      return false;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the value is one of the numbers that literals and
+   * folded literals can have
+   **/
+  static boolean isNumber (Object pValue)
+  {
+    return pValue instanceof Long || pValue instanceof Double;
+  }
+
+  //-------------------------------------
+  static boolean isBooleanOrNull (Object pValue)
+  {
+    return pValue == null || pValue instanceof Boolean;
+  }
+
+  //-------------------------------------
+  // FoldedLiteral
+  //-------------------------------------
+  /**
+   *
+   * A literal that replaces a folded expression, and keeps its
+   * expression String
+   **/
+  static final class FoldedLiteral
+    extends Literal
+  {
+    final String mExpressionString;
+
+    FoldedLiteral (Object pValue, String pExpressionString)
+    {
+      super (pValue);
+      mExpressionString = pExpressionString;
+    }
+
+    public String getExpressionString ()
+    {
+      return mExpressionString;
+    }
+  }
+
+  //-------------------------------------
+  // PrunedConditional
+  //-------------------------------------
+  /**
+   *
+   * A conditional expression whose condition is literal, which
+   * evaluates just the branch selected by the condition
+   **/
+  static final class PrunedConditional
+    extends ConditionalExpression
+  {
+    final Expression mBranch;
+
+    PrunedConditional (ConditionalExpression pExpression, Expression pBranch)
+    {
+      super (pExpression.getCondition (),
+	     pExpression.getTrueBranch (),
+	     pExpression.getFalseBranch ());
+      mBranch = pBranch;
+    }
+
+    Expression getBranch ()
+    {
+      return mBranch;
+    }
+
+    public Object evaluate (VariableResolver pResolver,
+			    FunctionMapper functions)
+      throws ELException
+    {
+      return mBranch.evaluate (pResolver, functions);
+    }
+
+    public Expression bindFunctions (FunctionMapper functions)
+      throws ELException
+    {
+      Expression trueBranch = getTrueBranch ().bindFunctions (functions);
+      Expression falseBranch = getFalseBranch ().bindFunctions (functions);
+      if (trueBranch == getTrueBranch () &&
+	  falseBranch == getFalseBranch ()) {
+	return this;
+      }
+      return new PrunedConditional
+	(new ConditionalExpression (getCondition (), trueBranch, falseBranch),
+	 (mBranch == getTrueBranch ()) ? trueBranch : falseBranch);
+    }
+  }
+
+  //-------------------------------------
+}
@@ -0,0 +1,987 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.el.parser.ELParserConstants;
+
+/**
+ *
+ * <p>A hand-written recursive-descent parser for the grammar in
+ * ELParser.jj.  It scans the expression String directly, one token
+ * ahead, without the character stream, Token objects and lookahead
+ * tables of the generated ELParser, and builds the same tree of
+ * Expressions and ExpressionStrings.
+ *
+ * <p>This parser only handles expression Strings that parse.  It
+ * returns null for anything the grammar rejects, and the caller then
+ * runs the generated ELParser on the same String to get the
+ * ParseException, so that error messages stay exactly as they were.
+ *
+ * <p>Two decisions in the grammar use syntactic lookahead, and are made
+ * here as follows:
+ *
+ * <ul>
+ *   <li>An expression is a conditional expression if its first or
+ *       expression is followed by "?".  Nothing else may follow an
+ *       expression with "?", so this accepts the same Strings as
+ *       looking ahead for a whole conditional expression.
+ *   <li>An identifier starts a function invocation if it is followed
+ *       by "(", or by ":", another identifier and "(".
+ * </ul>
+ *
+ * @version $Id$
+ **/
+
+final class ExpressionParser
+  implements ELParserConstants
+{
+  //-------------------------------------
+  // Statics
+  //-------------------------------------
+
+  /** Thrown to abandon the parse when the input does not follow the
+      grammar.  It never leaves this class, so one instance is shared. **/
+  static final ParseFailure sParseFailure = new ParseFailure ();
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The expression String being parsed **/
+  final String mInput;
+
+  /** The length of the expression String **/
+  final int mLength;
+
+  /** The kind of the current token, from ELParserConstants **/
+  int mKind;
+
+  /** The index of the first character of the current token **/
+  int mStart;
+
+  /** The index just past the current token **/
+  int mPos;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  ExpressionParser (String pInput)
+  {
+    mInput = pInput;
+    mLength = pInput.length ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the given expression String, returning the same value as
+   * ELParser.ExpressionString (): a String, an Expression, or an
+   * ExpressionString.  Returns null if the String does not parse.
+   **/
+  static Object parse (String pExpressionString)
+  {
+    try {
+      return new ExpressionParser (pExpressionString).parseExpressionString ();
+    }
+    catch (ParseFailure exc) {
+      return null;
+    }
+  }
+
+  //-------------------------------------
+  // Productions
+  //-------------------------------------
+  /**
+   *
+   * ExpressionString: one or more pieces of text and ${...}
+   * expressions.  A single piece is returned as it is.
+   **/
+  Object parseExpressionString ()
+  {
+    String input = mInput;
+    int length = mLength;
+    if (length == 0) {
+      throw sParseFailure;
+    }
+
+    Object ret = null;
+    List elems = null;
+    int pos = 0;
+    while (pos < length) {
+      Object elem;
+      if (input.charAt (pos) == '$' &&
+	  pos + 1 < length &&
+	  input.charAt (pos + 1) == '{') {
+	mPos = pos + 2;
+	nextToken ();
+	elem = parseExpression ();
+	if (mKind != END_EXPRESSION) {
+	  throw sParseFailure;
+	}
+	pos = mPos;
+      }
+      else {
+	int end = getTextEnd (pos);
+	elem = input.substring (pos, end);
+	pos = end;
+      }
+
+      if (ret == null) {
+	ret = elem;
+      }
+      else {
+	if (elems == null) {
+	  elems = new ArrayList ();
+	  elems.add (ret);
+	}
+	elems.add (elem);
+      }
+    }
+
+    if (elems != null) {
+      ret = new ExpressionString (elems.toArray ());
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the end of the NON_EXPRESSION_TEXT token starting at the
+   * given index, which does not start "${".  As in the generated token
+   * manager, text is split before every "$", and a "$" followed by
+   * another "$" is a token of its own.
+   **/
+  int getTextEnd (int pPos)
+  {
+    String input = mInput;
+    int length = mLength;
+    if (input.charAt (pPos) != '$') {
+      int end = input.indexOf ('$', pPos);
+      return (end < 0) ? length : end;
+    }
+    int end = pPos + 1;
+    while (end < length) {
+      char ch = input.charAt (end);
+      if (ch == '{' || ch == '$') {
+	break;
+      }
+      end++;
+    }
+    return end;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Expression: an or expression, optionally followed by
+   * "?" Expression ":" Expression
+   **/
+  Expression parseExpression ()
+  {
+    Expression condition = parseOrExpression ();
+    if (mKind != COND) {
+      return condition;
+    }
+    nextToken ();
+    Expression trueBranch = parseExpression ();
+    if (mKind != COLON) {
+      throw sParseFailure;
+    }
+    nextToken ();
+    Expression falseBranch = parseExpression ();
+    return new ConditionalExpression (condition, trueBranch, falseBranch);
+  }
+
+  //-------------------------------------
+  Expression parseOrExpression ()
+  {
+    Expression startExpression = parseAndExpression ();
+    List operators = null;
+    List expressions = null;
+    while (mKind == OR1 || mKind == OR2) {
+      nextToken ();
+      Expression expression = parseAndExpression ();
+      if (operators == null) {
+	operators = new ArrayList ();
+	expressions = new ArrayList ();
+      }
+      operators.add (OrOperator.SINGLETON);
+      expressions.add (expression);
+    }
+    return newBinaryOperatorExpression (startExpression,
+					operators,
+					expressions);
+  }
+
+  //-------------------------------------
+  Expression parseAndExpression ()
+  {
+    Expression startExpression = parseEqualityExpression ();
+    List operators = null;
+    List expressions = null;
+    while (mKind == AND1 || mKind == AND2) {
+      nextToken ();
+      Expression expression = parseEqualityExpression ();
+      if (operators == null) {
+	operators = new ArrayList ();
+	expressions = new ArrayList ();
+      }
+      operators.add (AndOperator.SINGLETON);
+      expressions.add (expression);
+    }
+    return newBinaryOperatorExpression (startExpression,
+					operators,
+					expressions);
+  }
+
+  //-------------------------------------
+  Expression parseEqualityExpression ()
+  {
+    Expression startExpression = parseRelationalExpression ();
+    List operators = null;
+    List expressions = null;
+    while (true) {
+      BinaryOperator operator;
+      switch (mKind) {
+      case EQ1:
+      case EQ2:
+	operator = EqualsOperator.SINGLETON;
+	break;
+      case NE1:
+      case NE2:
+	operator = NotEqualsOperator.SINGLETON;
+	break;
+      default:
+	return newBinaryOperatorExpression (startExpression,
+					    operators,
+					    expressions);
+      }
+      nextToken ();
+      Expression expression = parseRelationalExpression ();
+      if (operators == null) {
+	operators = new ArrayList ();
+	expressions = new ArrayList ();
+      }
+      operators.add (operator);
+      expressions.add (expression);
+    }
+  }
+
+  //-------------------------------------
+  Expression parseRelationalExpression ()
+  {
+    Expression startExpression = parseAddExpression ();
+    List operators = null;
+    List expressions = null;
+    while (true) {
+      BinaryOperator operator;
+      switch (mKind) {
+      case LT1:
+      case LT2:
+	operator = LessThanOperator.SINGLETON;
+	break;
+      case GT1:
+      case GT2:
+	operator = GreaterThanOperator.SINGLETON;
+	break;
+      case GE1:
+      case GE2:
+	operator = GreaterThanOrEqualsOperator.SINGLETON;
+	break;
+      case LE1:
+      case LE2:
+	operator = LessThanOrEqualsOperator.SINGLETON;
+	break;
+      default:
+	return newBinaryOperatorExpression (startExpression,
+					    operators,
+					    expressions);
+      }
+      nextToken ();
+      Expression expression = parseAddExpression ();
+      if (operators == null) {
+	operators = new ArrayList ();
+	expressions = new ArrayList ();
+      }
+      operators.add (operator);
+      expressions.add (expression);
+    }
+  }
+
+  //-------------------------------------
+  Expression parseAddExpression ()
+  {
+    Expression startExpression = parseMultiplyExpression ();
+    List operators = null;
+    List expressions = null;
+    while (true) {
+      BinaryOperator operator;
+      switch (mKind) {
+      case PLUS:
+	operator = PlusOperator.SINGLETON;
+	break;
+      case MINUS:
+	operator = MinusOperator.SINGLETON;
+	break;
+      default:
+	return newBinaryOperatorExpression (startExpression,
+					    operators,
+					    expressions);
+      }
+      nextToken ();
+      Expression expression = parseMultiplyExpression ();
+      if (operators == null) {
+	operators = new ArrayList ();
+	expressions = new ArrayList ();
+      }
+      operators.add (operator);
+      expressions.add (expression);
+    }
+  }
+
+  //-------------------------------------
+  Expression parseMultiplyExpression ()
+  {
+    Expression startExpression = parseUnaryExpression ();
+    List operators = null;
+    List expressions = null;
+    while (true) {
+      BinaryOperator operator;
+      switch (mKind) {
+      case MULTIPLY:
+	operator = MultiplyOperator.SINGLETON;
+	break;
+      case DIVIDE1:
+      case DIVIDE2:
+	operator = DivideOperator.SINGLETON;
+	break;
+      case MODULUS1:
+      case MODULUS2:
+	operator = ModulusOperator.SINGLETON;
+	break;
+      default:
+	return newBinaryOperatorExpression (startExpression,
+					    operators,
+					    expressions);
+      }
+      nextToken ();
+      Expression expression = parseUnaryExpression ();
+      if (operators == null) {
+	operators = new ArrayList ();
+	expressions = new ArrayList ();
+      }
+      operators.add (operator);
+      expressions.add (expression);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the BinaryOperatorExpression for the given operands, or
+   * the start expression alone if there were no operators
+   **/
+  static Expression newBinaryOperatorExpression (Expression pStartExpression,
+						 List pOperators,
+						 List pExpressions)
+  {
+    if (pOperators == null) {
+      return pStartExpression;
+    }
+    return new BinaryOperatorExpression (pStartExpression,
+					 pOperators,
+					 pExpressions);
+  }
+
+  //-------------------------------------
+  Expression parseUnaryExpression ()
+  {
+    UnaryOperator singleOperator = null;
+    List operators = null;
+    while (true) {
+      UnaryOperator operator;
+      switch (mKind) {
+      case NOT1:
+      case NOT2:
+	operator = NotOperator.SINGLETON;
+	break;
+      case MINUS:
+	operator = UnaryMinusOperator.SINGLETON;
+	break;
+      case EMPTY:
+	operator = EmptyOperator.SINGLETON;
+	break;
+      default:
+	operator = null;
+	break;
+      }
+      if (operator == null) {
+	break;
+      }
+      nextToken ();
+      if (singleOperator == null) {
+	singleOperator = operator;
+      }
+      else if (operators == null) {
+	operators = new ArrayList ();
+	operators.add (singleOperator);
+	operators.add (operator);
+      }
+      else {
+	operators.add (operator);
+      }
+    }
+
+    Expression expression = parseValue ();
+    if (operators != null) {
+      return new UnaryOperatorExpression (null, operators, expression);
+    }
+    else if (singleOperator != null) {
+      return new UnaryOperatorExpression (singleOperator, null, expression);
+    }
+    else {
+      return expression;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Value: a value prefix followed by any number of "." and "[]"
+   * suffixes
+   **/
+  Expression parseValue ()
+  {
+    Expression prefix = parseValuePrefix ();
+    List suffixes = null;
+    while (true) {
+      ValueSuffix suffix;
+      if (mKind == DOT) {
+	nextToken ();
+	if (mKind != IDENTIFIER) {
+	  throw sParseFailure;
+	}
+	suffix = new PropertySuffix (getImage ());
+	nextToken ();
+      }
+      else if (mKind == LBRACKET) {
+	nextToken ();
+	Expression index = parseExpression ();
+	if (mKind != RBRACKET) {
+	  throw sParseFailure;
+	}
+	nextToken ();
+	suffix = new ArraySuffix (index);
+      }
+      else {
+	break;
+      }
+      if (suffixes == null) {
+	suffixes = new ArrayList ();
+      }
+      suffixes.add (suffix);
+    }
+
+    if (suffixes == null) {
+      return prefix;
+    }
+    else {
+      return new ComplexValue (prefix, suffixes);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * ValuePrefix: a literal, a parenthesized expression, a function
+   * invocation, or a named value
+   **/
+  Expression parseValuePrefix ()
+  {
+    Expression ret;
+    switch (mKind) {
+    case TRUE:
+      ret = BooleanLiteral.TRUE;
+      break;
+    case FALSE:
+      ret = BooleanLiteral.FALSE;
+      break;
+    case NULL:
+      ret = NullLiteral.SINGLETON;
+      break;
+    case INTEGER_LITERAL:
+      ret = new IntegerLiteral (getImage ());
+      break;
+    case FLOATING_POINT_LITERAL:
+      ret = new FloatingPointLiteral (getImage ());
+      break;
+    case STRING_LITERAL:
+      ret = StringLiteral.fromToken (getImage ());
+      break;
+    case LPAREN:
+      nextToken ();
+      ret = parseExpression ();
+      if (mKind != RPAREN) {
+	throw sParseFailure;
+      }
+      break;
+    case IDENTIFIER:
+      return parseNamedValueOrFunctionInvocation ();
+    default:
+      throw sParseFailure;
+    }
+    nextToken ();
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the function invocation or named value starting with the
+   * current identifier
+   **/
+  Expression parseNamedValueOrFunctionInvocation ()
+  {
+    String name = getImage ();
+    int nameEnd = mPos;
+    nextToken ();
+    if (mKind == COLON) {
+      // Look ahead for QualifiedName "(", backing up if it isn't there
+      nextToken ();
+      if (mKind == IDENTIFIER) {
+	String localName = getImage ();
+	nextToken ();
+	if (mKind == LPAREN) {
+	  return parseFunctionArguments (name + ":" + localName);
+	}
+      }
+      mPos = nameEnd;
+      nextToken ();
+      return new NamedValue (name);
+    }
+    else if (mKind == LPAREN) {
+      return parseFunctionArguments (name);
+    }
+    else {
+      return new NamedValue (name);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the arguments of a function invocation, starting at the
+   * current "(" token
+   **/
+  Expression parseFunctionArguments (String pFunctionName)
+  {
+    List argumentList = new ArrayList ();
+    nextToken ();
+    if (mKind != RPAREN) {
+      argumentList.add (parseExpression ());
+      while (mKind == COMMA) {
+	nextToken ();
+	argumentList.add (parseExpression ());
+      }
+      if (mKind != RPAREN) {
+	throw sParseFailure;
+      }
+    }
+    nextToken ();
+    return new FunctionInvocation (pFunctionName, argumentList);
+  }
+
+  //-------------------------------------
+  // Scanning
+  //-------------------------------------
+  /**
+   *
+   * Returns the text of the current token
+   **/
+  String getImage ()
+  {
+    return mInput.substring (mStart, mPos);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Scans the token inside of a ${...} construct that follows mPos,
+   * skipping white space, and makes it the current token.  Tokens the
+   * parser has no use for (badly escaped String literals and illegal
+   * characters) are all scanned as ILLEGAL_CHARACTER.
+   **/
+  void nextToken ()
+  {
+    String input = mInput;
+    int length = mLength;
+    int pos = mPos;
+    while (pos < length) {
+      char ch = input.charAt (pos);
+      if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r') {
+	break;
+      }
+      pos++;
+    }
+    mStart = pos;
+    if (pos == length) {
+      mKind = EOF;
+      mPos = pos;
+      return;
+    }
+
+    char ch = input.charAt (pos++);
+    int kind;
+    switch (ch) {
+    case '}':
+      kind = END_EXPRESSION;
+      break;
+    case '.':
+      if (pos < length && isDecimalDigit (input.charAt (pos))) {
+	pos = scanExponent (scanDecimalDigits (pos));
+	kind = FLOATING_POINT_LITERAL;
+      }
+      else {
+	kind = DOT;
+      }
+      break;
+    case '>':
+      if (pos < length && input.charAt (pos) == '=') {
+	pos++;
+	kind = GE1;
+      }
+      else {
+	kind = GT1;
+      }
+      break;
+    case '<':
+      if (pos < length && input.charAt (pos) == '=') {
+	pos++;
+	kind = LE1;
+      }
+      else {
+	kind = LT1;
+      }
+      break;
+    case '=':
+      if (pos < length && input.charAt (pos) == '=') {
+	pos++;
+	kind = EQ1;
+      }
+      else {
+	kind = ILLEGAL_CHARACTER;
+      }
+      break;
+    case '!':
+      if (pos < length && input.charAt (pos) == '=') {
+	pos++;
+	kind = NE1;
+      }
+      else {
+	kind = NOT2;
+      }
+      break;
+    case '&':
+      if (pos < length && input.charAt (pos) == '&') {
+	pos++;
+	kind = AND2;
+      }
+      else {
+	kind = ILLEGAL_CHARACTER;
+      }
+      break;
+    case '|':
+      if (pos < length && input.charAt (pos) == '|') {
+	pos++;
+	kind = OR2;
+      }
+      else {
+	kind = ILLEGAL_CHARACTER;
+      }
+      break;
+    case '(':
+      kind = LPAREN;
+      break;
+    case ')':
+      kind = RPAREN;
+      break;
+    case ',':
+      kind = COMMA;
+      break;
+    case ':':
+      kind = COLON;
+      break;
+    case '[':
+      kind = LBRACKET;
+      break;
+    case ']':
+      kind = RBRACKET;
+      break;
+    case '+':
+      kind = PLUS;
+      break;
+    case '-':
+      kind = MINUS;
+      break;
+    case '*':
+      kind = MULTIPLY;
+      break;
+    case '/':
+      kind = DIVIDE1;
+      break;
+    case '%':
+      kind = MODULUS1;
+      break;
+    case '?':
+      kind = COND;
+      break;
+    case '"':
+    case '\'':
+      {
+	int end = scanStringLiteral (ch, pos);
+	if (end < 0) {
+	  kind = ILLEGAL_CHARACTER;
+	}
+	else {
+	  kind = STRING_LITERAL;
+	  pos = end;
+	}
+      }
+      break;
+    default:
+      if (isDecimalDigit (ch)) {
+	pos = scanDecimalDigits (pos);
+	if (pos < length && input.charAt (pos) == '.') {
+	  pos = scanExponent (scanDecimalDigits (pos + 1));
+	  kind = FLOATING_POINT_LITERAL;
+	}
+	else {
+	  int end = scanExponent (pos);
+	  kind = (end == pos) ? INTEGER_LITERAL : FLOATING_POINT_LITERAL;
+	  pos = end;
+	}
+      }
+      else if (isLetter (ch) || ch == '#') {
+	while (pos < length) {
+	  char next = input.charAt (pos);
+	  if (!isLetter (next) && !isDigit (next)) {
+	    break;
+	  }
+	  pos++;
+	}
+	kind = getIdentifierKind (input, mStart, pos);
+      }
+      else {
+	kind = ILLEGAL_CHARACTER;
+      }
+      break;
+    }
+    mKind = kind;
+    mPos = pos;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the index past the String literal whose contents start at
+   * the given index, or -1 if it is not a well-formed STRING_LITERAL
+   **/
+  int scanStringLiteral (char pQuote, int pPos)
+  {
+    String input = mInput;
+    int length = mLength;
+    int pos = pPos;
+    while (pos < length) {
+      char ch = input.charAt (pos);
+      if (ch == pQuote) {
+	return pos + 1;
+      }
+      else if (ch == '\\') {
+	if (pos + 1 < length) {
+	  char escaped = input.charAt (pos + 1);
+	  if (escaped == '\\' || escaped == pQuote) {
+	    pos += 2;
+	    continue;
+	  }
+	}
+	return -1;
+      }
+      pos++;
+    }
+    return -1;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the index past the ASCII digits starting at the given
+   * index
+   **/
+  int scanDecimalDigits (int pPos)
+  {
+    String input = mInput;
+    int length = mLength;
+    int pos = pPos;
+    while (pos < length && isDecimalDigit (input.charAt (pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the index past the exponent starting at the given index,
+   * or the index itself if there is no complete exponent there
+   **/
+  int scanExponent (int pPos)
+  {
+    String input = mInput;
+    int length = mLength;
+    int pos = pPos;
+    if (pos >= length) {
+      return pPos;
+    }
+    char ch = input.charAt (pos);
+    if (ch != 'e' && ch != 'E') {
+      return pPos;
+    }
+    pos++;
+    if (pos < length &&
+	(input.charAt (pos) == '+' || input.charAt (pos) == '-')) {
+      pos++;
+    }
+    if (pos >= length || !isDecimalDigit (input.charAt (pos))) {
+      return pPos;
+    }
+    return scanDecimalDigits (pos);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the token kind of the identifier between the given
+   * indexes: the kind of the reserved word it spells, or IDENTIFIER
+   **/
+  static int getIdentifierKind (String pInput, int pStart, int pEnd)
+  {
+    switch (pEnd - pStart) {
+    case 2:
+      if (pInput.startsWith ("gt", pStart)) return GT2;
+      if (pInput.startsWith ("lt", pStart)) return LT2;
+      if (pInput.startsWith ("eq", pStart)) return EQ2;
+      if (pInput.startsWith ("le", pStart)) return LE2;
+      if (pInput.startsWith ("ge", pStart)) return GE2;
+      if (pInput.startsWith ("ne", pStart)) return NE2;
+      if (pInput.startsWith ("or", pStart)) return OR1;
+      break;
+    case 3:
+      if (pInput.startsWith ("div", pStart)) return DIVIDE2;
+      if (pInput.startsWith ("mod", pStart)) return MODULUS2;
+      if (pInput.startsWith ("not", pStart)) return NOT1;
+      if (pInput.startsWith ("and", pStart)) return AND1;
+      break;
+    case 4:
+      if (pInput.startsWith ("true", pStart)) return TRUE;
+      if (pInput.startsWith ("null", pStart)) return NULL;
+      break;
+    case 5:
+      if (pInput.startsWith ("false", pStart)) return FALSE;
+      if (pInput.startsWith ("empty", pStart)) return EMPTY;
+      break;
+    }
+    return IDENTIFIER;
+  }
+
+  //-------------------------------------
+  static boolean isDecimalDigit (char pChar)
+  {
+    return pChar >= '0' && pChar <= '9';
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the character is a LETTER in ELParser.jj
+   **/
+  static boolean isLetter (char pChar)
+  {
+    if (pChar < 0x80) {
+      return
+	(pChar >= 'a' && pChar <= 'z') ||
+	(pChar >= 'A' && pChar <= 'Z') ||
+	pChar == '_' ||
+	pChar == '$';
+    }
+    return
+      (pChar >= '\u00c0' && pChar <= '\u00d6') ||
+      (pChar >= '\u00d8' && pChar <= '\u00f6') ||
+      (pChar >= '\u00f8' && pChar <= '\u1fff') ||
+      (pChar >= '\u3040' && pChar <= '\u318f') ||
+      (pChar >= '\u3300' && pChar <= '\u337f') ||
+      (pChar >= '\u3400' && pChar <= '\u3d2d') ||
+      (pChar >= '\u4e00' && pChar <= '\u9fff') ||
+      (pChar >= '\uf900' && pChar <= '\ufaff');
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the character is a DIGIT in ELParser.jj
+   **/
+  static boolean isDigit (char pChar)
+  {
+    if (pChar < 0x80) {
+      return pChar >= '0' && pChar <= '9';
+    }
+    return
+      (pChar >= '\u0660' && pChar <= '\u0669') ||
+      (pChar >= '\u06f0' && pChar <= '\u06f9') ||
+      (pChar >= '\u0966' && pChar <= '\u096f') ||
+      (pChar >= '\u09e6' && pChar <= '\u09ef') ||
+      (pChar >= '\u0a66' && pChar <= '\u0a6f') ||
+      (pChar >= '\u0ae6' && pChar <= '\u0aef') ||
+      (pChar >= '\u0b66' && pChar <= '\u0b6f') ||
+      (pChar >= '\u0be7' && pChar <= '\u0bef') ||
+      (pChar >= '\u0c66' && pChar <= '\u0c6f') ||
+      (pChar >= '\u0ce6' && pChar <= '\u0cef') ||
+      (pChar >= '\u0d66' && pChar <= '\u0d6f') ||
+      (pChar >= '\u0e50' && pChar <= '\u0e59') ||
+      (pChar >= '\u0ed0' && pChar <= '\u0ed9') ||
+      (pChar >= '\u1040' && pChar <= '\u1049');
+  }
+
+  //-------------------------------------
+  // ParseFailure
+  //-------------------------------------
+  /**
+   *
+   * Abandons a parse that does not follow the grammar
+   **/
+  static final class ParseFailure
+    extends RuntimeException
+  {
+  }
+
+  //-------------------------------------
+}
@@ -106,14 +106,19 @@ public class ExpressionString extends Expression
   //-------------------------------------
 
   public Expression bindFunctions(FunctionMapper functions) throws ELException {
-      final Object[] boundElements = new Object[mElements.length];
+      Object[] boundElements = null;
       for (int i = 0; i < mElements.length; i++) {
           if (mElements[i] instanceof Expression) {
-              boundElements[i] = ((Expression)mElements[i]).bindFunctions(functions);
-          } else {
-              boundElements[i] = mElements[i];
+              Expression bound = ((Expression)mElements[i]).bindFunctions(functions);
+              if (bound != mElements[i]) {
+                  if (boundElements == null) {
+                      boundElements = (Object[]) mElements.clone();
+                  }
+                  boundElements[i] = bound;
+              }
           }
       }
-      return new ExpressionString(boundElements);
+      // share this ExpressionString if it has no functions
+      return (boundElements == null) ? this : new ExpressionString(boundElements);
   }
 }
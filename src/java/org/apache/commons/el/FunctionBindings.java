@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.Method;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+
+/**
+ *
+ * <p>A parsed Expression bound to the functions of a FunctionMapper,
+ * together with the functions it was bound to, as cached by
+ * ExpressionEvaluatorImpl.bindFunctions.
+ *
+ * <p>A FunctionMapper may change its mappings, so a cached binding is
+ * only used while the FunctionMapper still resolves every function
+ * name to the same Method.  Checking that calls the FunctionMapper
+ * once for each function, but allocates nothing.
+ *
+ * @version $Id$
+ **/
+
+final class FunctionBindings
+  implements FunctionMapper
+{
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The FunctionMapper being recorded, only while binding, so that
+      the cached bindings don't refer to their FunctionMapper **/
+  FunctionMapper mMapper;
+
+  /** The prefixes of the function names resolved **/
+  String [] mPrefixes = new String [2];
+
+  /** The local names of the function names resolved **/
+  String [] mLocalNames = new String [2];
+
+  /** The Methods they resolved to **/
+  Method [] mMethods = new Method [2];
+
+  /** The number of function names resolved **/
+  int mCount;
+
+  /** Flag if some function name resolved to no Method **/
+  boolean mHasUnmappedFunctions;
+
+  /** The bound Expression, or null if it is the parsed Expression
+      itself **/
+  Expression mExpression;
+
+  //-------------------------------------
+  /**
+   *
+   * Binds the functions of the given Expression to the given
+   * FunctionMapper, recording the functions it resolves
+   **/
+  static FunctionBindings bind (Expression pExpression,
+				FunctionMapper pMapper)
+    throws ELException
+  {
+    FunctionBindings ret = new FunctionBindings ();
+    ret.mMapper = pMapper;
+    try {
+      Expression bound = pExpression.bindFunctions (ret);
+      ret.mExpression = (bound == pExpression) ? null : bound;
+    }
+    finally {
+      ret.mMapper = null;
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the bound form of the given parsed Expression
+   **/
+  Expression getExpression (Expression pParsedExpression)
+  {
+    return (mExpression == null) ? pParsedExpression : mExpression;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the given FunctionMapper still resolves each of
+   * the recorded function names to the same Method
+   **/
+  boolean isCurrent (FunctionMapper pMapper)
+  {
+    for (int i = 0; i < mCount; i++) {
+      Method method = pMapper.resolveFunction (mPrefixes [i], mLocalNames [i]);
+      if (method == null || !method.equals (mMethods [i])) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if one of the recorded Methods is declared by a class
+   * loaded by the given ClassLoader or its descendants
+   **/
+  boolean refersTo (ClassLoader pLoader)
+  {
+    for (int i = 0; i < mCount; i++) {
+      if (CachePartition.isLoadedBy (mMethods [i].getDeclaringClass (),
+				     pLoader)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  //-------------------------------------
+  // FunctionMapper methods
+  //-------------------------------------
+  /**
+   *
+   * Resolves the function with the FunctionMapper being recorded, and
+   * records the result
+   **/
+  public Method resolveFunction (String pPrefix, String pLocalName)
+  {
+    Method ret = mMapper.resolveFunction (pPrefix, pLocalName);
+    if (ret == null) {
+      mHasUnmappedFunctions = true;
+      return null;
+    }
+    if (mCount == mMethods.length) {
+      mPrefixes = (String []) grow (mPrefixes, new String [mCount * 2]);
+      mLocalNames = (String []) grow (mLocalNames, new String [mCount * 2]);
+      mMethods = (Method []) grow (mMethods, new Method [mCount * 2]);
+    }
+    mPrefixes [mCount] = pPrefix;
+    mLocalNames [mCount] = pLocalName;
+    mMethods [mCount] = ret;
+    mCount++;
+    return ret;
+  }
+
+  //-------------------------------------
+  static Object [] grow (Object [] pArray, Object [] pNewArray)
+  {
+    System.arraycopy (pArray, 0, pNewArray, 0, pArray.length);
+    return pNewArray;
+  }
+
+  //-------------------------------------
+}
@@ -20,7 +20,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ArrayList;
 
 import javax.servlet.jsp.el.ELException;
 import javax.servlet.jsp.el.FunctionMapper;
@@ -52,7 +51,7 @@ public class FunctionInvocation
   private String functionName;
   private List argumentList;
   public String getFunctionName() { return functionName; }
-  public void setFunctionName(String f) { functionName = f; }
+  public void setFunctionName(String f) { functionName = f; splitFunctionName(); }
   public List getArgumentList() { return argumentList; }
   public void setArgumentList(List l) { argumentList = l; }
 
@@ -64,6 +63,27 @@ public class FunctionInvocation
   {
     this.functionName = functionName;
     this.argumentList = argumentList;
+    splitFunctionName();
+  }
+
+  // the prefix and local name of the function, split once so that
+  // resolving the function doesn't have to
+  private String prefix;
+  private String localName;
+
+  /**
+   * Splits the function name into its prefix and local name
+   **/
+  private void splitFunctionName()
+  {
+    int index = functionName.indexOf( ':' );
+    if (index == -1) {
+      prefix = "";
+      localName = functionName;
+    } else {
+      prefix = functionName.substring( 0, index );
+      localName = functionName.substring( index + 1 );
+    }
   }
 
   //-------------------------------------
@@ -132,30 +152,50 @@ public class FunctionInvocation
     }
 
     // finally, invoke the target method, which we know to be static
+    return invoke(target, arguments);
+  }
+
+  /**
+   * Invokes the given static method with the given arguments,
+   * reporting anything it throws as a failure of this function.
+   **/
+  Object invoke(Method target, Object[] arguments)
+    throws ELException
+  {
     try {
       return (target.invoke(null, arguments));
     } catch (InvocationTargetException ex) {
-        if (log.isErrorEnabled()) {
-            String message = MessageUtil.getMessageWithArgs(
-                Constants.FUNCTION_INVOCATION_ERROR,
-                functionName);
-            Throwable t = ex.getTargetException();
-            log.error(message, t);
-            throw new ELException(message, t);
-        }      
+      ELException exc = getInvocationError(ex.getTargetException(), functionName);
+      if (exc != null) {
+        throw exc;
+      }
       return null;
     } catch (Throwable t) {
-        if (log.isErrorEnabled()) {
-            String message = MessageUtil.getMessageWithArgs(
-                Constants.FUNCTION_INVOCATION_ERROR,
-                functionName);            
-            log.error(message, t);
-            throw new ELException(message, t); 
-        }      
+      ELException exc = getInvocationError(t, functionName);
+      if (exc != null) {
+        throw exc;
+      }
       return null;
     }
   }
 
+  /**
+   * Logs the given failure of the named function and returns the
+   * ELException to throw for it, or null if errors are not being
+   * reported and the function should evaluate to null.
+   **/
+  static ELException getInvocationError(Throwable t, String functionName)
+  {
+    if (log.isErrorEnabled()) {
+      String message = MessageUtil.getMessageWithArgs(
+          Constants.FUNCTION_INVOCATION_ERROR,
+          functionName);
+      log.error(message, t);
+      return new ELException(message, t);
+    }
+    return null;
+  }
+
   /**
    * Returns the <code>Method</code> which is mapped to the function
    * name used by this <code>FunctionInvocation</code>.
@@ -169,18 +209,6 @@ public class FunctionInvocation
           return null;
       }                    
 
-      // normalize function name
-      String prefix = null; 
-      String localName = null; 
-      int index = functionName.indexOf( ':' );
-      if (index == -1) {
-        prefix = "";
-        localName = functionName;
-      } else {
-        prefix = functionName.substring( 0, index );
-        localName = functionName.substring( index + 1 );
-      }       
-  
       // ensure that the function's name is mapped
       Method target = (Method) functions.resolveFunction(prefix, localName);
    
@@ -189,15 +217,22 @@ public class FunctionInvocation
 
    public Expression bindFunctions(final FunctionMapper functions)
            throws ELException {
-       final List argList = new ArrayList(argumentList.size());
-       for (Iterator argIter = argumentList.iterator(); argIter.hasNext();) {
-           Expression arg = (Expression) argIter.next();
-           argList.add(arg.bindFunctions(functions));
+       final Method target = resolveFunction(functions);
+       final List boundArguments =
+           BinaryOperatorExpression.bindAll(argumentList, functions);
+       final PureFunction pure = (target == null) ? null : PureFunction.get(target);
+       if (pure != null) {
+           return new PureFunctionInvocation(pure, functionName, boundArguments).fold();
+       }
+       final Expression intrinsic = (target == null) ? null :
+           IntrinsicFunctionInvocation.create(target, functionName, boundArguments);
+       if (intrinsic != null) {
+           return intrinsic;
        }
        return new BoundFunctionInvocation(
-               resolveFunction(functions),
+               target,
                functionName,
-               argList);
+               boundArguments);
    }
 
   //-------------------------------------
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>The superclass of the classes generated by the BytecodeCompiler.
+ * The generated classes are defined by their own ClassLoaders, and so
+ * are not in this package at runtime; the static methods here are the
+ * support routines they call, and are public only for that reason.
+ *
+ * @version $Id$
+ **/
+
+public abstract class GeneratedExpression
+  extends Expression
+  implements CompiledExpression
+{
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The parsed Expression this was compiled from **/
+  protected final Expression mSource;
+
+  /** The objects (literal values, operators, suffixes and
+      subexpressions) that the generated code refers to **/
+  protected final Object [] mConstants;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  protected GeneratedExpression (Expression pSource, Object [] pConstants)
+  {
+    mSource = pSource;
+    mConstants = pConstants;
+  }
+
+  //-------------------------------------
+  // Expression methods
+  //-------------------------------------
+  /**
+   *
+   * Returns the expression in the expression language syntax
+   **/
+  public String getExpressionString ()
+  {
+    return mSource.getExpressionString ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns this if the parsed Expression has no functions to bind.
+   * Otherwise, returns the bound parsed Expression in a new
+   * TieredExpression, so that a class is generated for it only once it
+   * has been evaluated often enough, rather than for every
+   * FunctionMapper it is bound to.
+   **/
+  public Expression bindFunctions (FunctionMapper functions)
+    throws ELException
+  {
+    Expression source = mSource.bindFunctions (functions);
+    return (source == mSource) ?
+      (Expression) this :
+      new TieredExpression (source,
+			    ExpressionEvaluatorImpl.BYTECODE,
+			    ExpressionEvaluatorImpl.DEFAULT_COMPILE_THRESHOLD);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the generated code refers to a class loaded by the
+   * given ClassLoader or its descendants, either in its constants (as
+   * the guard of an inline cache) or by name (as the receiver or
+   * result of a direct call)
+   **/
+  boolean refersTo (ClassLoader pLoader)
+  {
+    for (int i = 0; i < mConstants.length; i++) {
+      if (mConstants [i] instanceof Class &&
+	  CachePartition.isLoadedBy ((Class) mConstants [i], pLoader)) {
+	return true;
+      }
+    }
+    ClassLoader loader = getClass ().getClassLoader ();
+    return
+      loader instanceof BytecodeCompiler.GeneratedClassLoader &&
+      ((BytecodeCompiler.GeneratedClassLoader) loader).refersTo (pLoader);
+  }
+
+  //-------------------------------------
+  // Support for the generated code
+  //-------------------------------------
+  public static Object resolveVariable (VariableResolver pResolver,
+					String pName)
+    throws ELException
+  {
+    return (pResolver == null) ? null : pResolver.resolveVariable (pName);
+  }
+
+  public static boolean isIntegral (Object pValue)
+  {
+    return ExpressionCompiler.isIntegral (pValue);
+  }
+
+  public static boolean isPrimitiveNumber (Object pValue)
+  {
+    return ExpressionCompiler.isPrimitiveNumber (pValue);
+  }
+
+  public static StringBuffer append (StringBuffer pBuffer, Object pValue)
+  {
+    if (pValue != null) {
+      pBuffer.append (pValue.toString ());
+    }
+    return pBuffer;
+  }
+
+  public static ELException getPropertyError (Throwable pCause,
+					      Object pValue,
+					      String pName)
+  {
+    return ArraySuffix.getPropertyError (pCause, pValue, pName);
+  }
+
+  public static Object coerceArgument (BoundFunctionInvocation pFunction,
+				       int pIndex,
+				       Object pValue)
+    throws ELException
+  {
+    return pFunction.coerceArgument (pIndex, pValue);
+  }
+
+  public static ELException getFunctionError (Throwable pCause,
+					      String pFunctionName)
+  {
+    return FunctionInvocation.getInvocationError (pCause, pFunctionName);
+  }
+
+  public static Object box (boolean pValue)
+  { return PrimitiveObjects.getBoolean (pValue); }
+
+  public static Object box (byte pValue)
+  { return PrimitiveObjects.getByte (pValue); }
+
+  public static Object box (char pValue)
+  { return PrimitiveObjects.getCharacter (pValue); }
+
+  public static Object box (short pValue)
+  { return PrimitiveObjects.getShort (pValue); }
+
+  public static Object box (int pValue)
+  { return PrimitiveObjects.getInteger (pValue); }
+
+  public static Object box (long pValue)
+  { return PrimitiveObjects.getLong (pValue); }
+
+  public static Object box (float pValue)
+  { return PrimitiveObjects.getFloat (pValue); }
+
+  public static Object box (double pValue)
+  { return PrimitiveObjects.getDouble (pValue); }
+
+  //-------------------------------------
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>A bound call to one of the common functions of the JSTL
+ * <code>fn:</code> library, which does what the function does
+ * directly rather than invoking it reflectively.  The arguments are
+ * coerced to the parameter types as for any other function.  Values
+ * the intrinsic has no fast path for (such as an Iterator passed to
+ * <code>fn:length</code>) are passed to the function itself, so that
+ * it can report them as it does.
+ *
+ * <p>The functions are recognized by their class, name and parameter
+ * types, so a FunctionMapper that maps them to other names still gets
+ * the intrinsics.  The JSTL classes aren't needed to compile or run
+ * this class.
+ *
+ * @version $Id$
+ **/
+
+final class IntrinsicFunctionInvocation
+  extends BoundFunctionInvocation
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+
+  /** The class of the JSTL functions **/
+  static final String FUNCTIONS_CLASS =
+    "org.apache.taglibs.standard.functions.Functions";
+
+  // The intrinsics
+  static final int LENGTH = 0;
+  static final int ESCAPE_XML = 1;
+  static final int CONTAINS = 2;
+  static final int CONTAINS_IGNORE_CASE = 3;
+  static final int STARTS_WITH = 4;
+  static final int INDEX_OF = 5;
+  static final int SUBSTRING = 6;
+  static final int TO_UPPER_CASE = 7;
+  static final int TO_LOWER_CASE = 8;
+  static final int TRIM = 9;
+  static final int JOIN = 10;
+
+  /** The name and parameter types of the function of each intrinsic **/
+  static final Object [][] FUNCTIONS = {
+    { "length", new Class [] { Object.class } },
+    { "escapeXml", new Class [] { String.class } },
+    { "contains", new Class [] { String.class, String.class } },
+    { "containsIgnoreCase", new Class [] { String.class, String.class } },
+    { "startsWith", new Class [] { String.class, String.class } },
+    { "indexOf", new Class [] { String.class, String.class } },
+    { "substring", new Class [] { String.class, Integer.TYPE, Integer.TYPE } },
+    { "toUpperCase", new Class [] { String.class } },
+    { "toLowerCase", new Class [] { String.class } },
+    { "trim", new Class [] { String.class } },
+    { "join", new Class [] { String [].class, String.class } },
+  };
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The intrinsic **/
+  final int mIntrinsic;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  IntrinsicFunctionInvocation (Method pMethod,
+			       String pFunctionName,
+			       List pArgumentList,
+			       int pIntrinsic)
+  {
+    super (pMethod, pFunctionName, pArgumentList);
+    mIntrinsic = pIntrinsic;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns an IntrinsicFunctionInvocation for a call to the given
+   * method with the given arguments, or null if the method isn't one
+   * of the functions with an intrinsic
+   **/
+  static IntrinsicFunctionInvocation create (Method pMethod,
+					     String pFunctionName,
+					     List pArgumentList)
+  {
+    int intrinsic = getIntrinsic (pMethod.getDeclaringClass ().getName (),
+				  pMethod.getName (),
+				  pMethod.getParameterTypes ());
+    if (intrinsic < 0 ||
+	pArgumentList.size () != pMethod.getParameterTypes ().length) {
+      return null;
+    }
+    return new IntrinsicFunctionInvocation (pMethod,
+					    pFunctionName,
+					    pArgumentList,
+					    intrinsic);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the intrinsic for the given function, or -1 if there is
+   * none
+   **/
+  static int getIntrinsic (String pClassName,
+			   String pName,
+			   Class [] pParameterTypes)
+  {
+    if (!FUNCTIONS_CLASS.equals (pClassName)) {
+      return -1;
+    }
+    for (int i = 0; i < FUNCTIONS.length; i++) {
+      if (FUNCTIONS [i][0].equals (pName) &&
+	  sameTypes ((Class []) FUNCTIONS [i][1], pParameterTypes)) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  //-------------------------------------
+  static boolean sameTypes (Class [] pTypes1, Class [] pTypes2)
+  {
+    if (pTypes1.length != pTypes2.length) {
+      return false;
+    }
+    for (int i = 0; i < pTypes1.length; i++) {
+      if (pTypes1 [i] != pTypes2 [i]) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  //-------------------------------------
+  // Expression methods
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the arguments and applies the intrinsic to them
+   **/
+  public Object evaluate (VariableResolver pResolver,
+			  FunctionMapper functions)
+    throws ELException
+  {
+    Object arg0 = evaluateArgument (0, pResolver, functions);
+    switch (mIntrinsic) {
+    case LENGTH:
+      return length (arg0);
+    case ESCAPE_XML:
+      return escapeXml ((String) arg0);
+    case TO_UPPER_CASE:
+      return ((String) arg0).toUpperCase ();
+    case TO_LOWER_CASE:
+      return ((String) arg0).toLowerCase ();
+    case TRIM:
+      return ((String) arg0).trim ();
+    }
+
+    Object arg1 = evaluateArgument (1, pResolver, functions);
+    switch (mIntrinsic) {
+    case CONTAINS:
+      return PrimitiveObjects.getBoolean
+	(((String) arg0).indexOf ((String) arg1) != -1);
+    case CONTAINS_IGNORE_CASE:
+      return PrimitiveObjects.getBoolean
+	(((String) arg0).toUpperCase ().indexOf
+	 (((String) arg1).toUpperCase ()) != -1);
+    case STARTS_WITH:
+      return PrimitiveObjects.getBoolean
+	(((String) arg0).startsWith ((String) arg1));
+    case INDEX_OF:
+      return PrimitiveObjects.getInteger
+	(((String) arg0).indexOf ((String) arg1));
+    case JOIN:
+      if (arg0 != null && !(arg0 instanceof String [])) {
+	// Whatever a PropertyEditor made of a String
+	return invoke (getMethod (), new Object [] { arg0, arg1 });
+      }
+      return join ((String []) arg0, (String) arg1);
+    }
+
+    Object arg2 = evaluateArgument (2, pResolver, functions);
+    return substring ((String) arg0,
+		      ((Number) arg1).intValue (),
+		      ((Number) arg2).intValue ());
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the argument at the given index and coerces it to the
+   * type of its parameter
+   **/
+  Object evaluateArgument (int pIndex,
+			   VariableResolver pResolver,
+			   FunctionMapper functions)
+    throws ELException
+  {
+    Expression argument = (Expression) getArgumentList ().get (pIndex);
+    return coerceArgument (pIndex, argument.evaluate (pResolver, functions));
+  }
+
+  //-------------------------------------
+  // Intrinsics
+  //-------------------------------------
+  // Each of these does what the JSTL function does with arguments
+  // that have been coerced to its parameter types (so Strings are
+  // never null)
+
+  Object length (Object pValue)
+    throws ELException
+  {
+    if (pValue == null) {
+      return PrimitiveObjects.getInteger (0);
+    }
+    else if (pValue instanceof String) {
+      return PrimitiveObjects.getInteger (((String) pValue).length ());
+    }
+    else if (pValue instanceof Collection) {
+      return PrimitiveObjects.getInteger (((Collection) pValue).size ());
+    }
+    else if (pValue instanceof Map) {
+      return PrimitiveObjects.getInteger (((Map) pValue).size ());
+    }
+    else if (pValue.getClass ().isArray ()) {
+      return PrimitiveObjects.getInteger (Array.getLength (pValue));
+    }
+    else {
+      // Iterators, Enumerations and anything the function rejects
+      return invoke (getMethod (), new Object [] { pValue });
+    }
+  }
+
+  //-------------------------------------
+  static String escapeXml (String pValue)
+  {
+    StringBuffer buf = null;
+    int start = 0;
+    for (int i = 0, length = pValue.length (); i < length; i++) {
+      String escaped;
+      switch (pValue.charAt (i)) {
+      case '&': escaped = "&amp;"; break;
+      case '<': escaped = "&lt;"; break;
+      case '>': escaped = "&gt;"; break;
+      case '"': escaped = "&#034;"; break;
+      case '\'': escaped = "&#039;"; break;
+      default: continue;
+      }
+      if (buf == null) {
+	buf = new StringBuffer (length + 16);
+      }
+      buf.append (pValue.substring (start, i));
+      buf.append (escaped);
+      start = i + 1;
+    }
+    if (buf == null) {
+      return pValue;
+    }
+    buf.append (pValue.substring (start));
+    return buf.toString ();
+  }
+
+  //-------------------------------------
+  static String substring (String pValue, int pBegin, int pEnd)
+  {
+    if (pBegin >= pValue.length ()) {
+      return "";
+    }
+    if (pBegin < 0) {
+      pBegin = 0;
+    }
+    if (pEnd < 0 || pEnd > pValue.length ()) {
+      pEnd = pValue.length ();
+    }
+    if (pEnd < pBegin) {
+      return "";
+    }
+    return pValue.substring (pBegin, pEnd);
+  }
+
+  //-------------------------------------
+  static String join (String [] pValues, String pSeparator)
+  {
+    if (pValues == null) {
+      return "";
+    }
+    StringBuffer buf = new StringBuffer ();
+    for (int i = 0; i < pValues.length; i++) {
+      buf.append (pValues [i]);
+      if (i < pValues.length - 1) {
+	buf.append (pSeparator);
+      }
+    }
+    return buf.toString ();
+  }
+
+  //-------------------------------------
+}
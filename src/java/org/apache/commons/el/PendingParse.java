@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import javax.servlet.jsp.el.ELException;
+
+/**
+ *
+ * <p>Represents a parse of an expression String that is in progress
+ * on some Thread.  Other Threads that need the same expression String
+ * wait for the parse to complete and share its result (or its
+ * failure) instead of parsing the String themselves.
+ *
+ * @version $Id$
+ **/
+
+class PendingParse
+{
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** Flag if the parse has finished **/
+  boolean mDone;
+
+  /** The parsed form, if the parse succeeded **/
+  Object mResult;
+
+  /** The error message, if the parse failed **/
+  String mErrorMessage;
+
+  //-------------------------------------
+  /**
+   *
+   * Records the outcome of the parse and releases the waiting
+   * Threads.  If both arguments are null, the parse was abandoned and
+   * the waiting Threads will have to parse for themselves.
+   **/
+  synchronized void complete (Object pResult, String pErrorMessage)
+  {
+    mResult = pResult;
+    mErrorMessage = pErrorMessage;
+    mDone = true;
+    notifyAll ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Waits for the parse to finish, then returns its result or throws
+   * its failure.  Returns null if the parse was abandoned or the wait
+   * was interrupted.
+   **/
+  synchronized Object getResult ()
+    throws ELException
+  {
+    while (!mDone) {
+      try {
+	wait ();
+      }
+      catch (InterruptedException exc) {
+	Thread.currentThread ().interrupt ();
+	return null;
+      }
+    }
+    if (mErrorMessage != null) {
+      throw new ELException (mErrorMessage);
+    }
+    return mResult;
+  }
+
+  //-------------------------------------
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import org.apache.commons.el.parser.ELParser;
+import org.apache.commons.el.parser.ELParserTokenManager;
+import org.apache.commons.el.parser.ParseException;
+import org.apache.commons.el.parser.SimpleCharStream;
+
+/**
+ *
+ * <p>A generated ELParser, together with the token manager and
+ * character stream it reads through, that is reset with the generated
+ * ReInit methods and reused for one expression String after another.
+ *
+ * <p>A small pool of them is shared by all Threads.  A Thread takes a
+ * parser out of the pool for the duration of a parse and puts it back
+ * afterwards, so no two Threads ever use the same parser at once.  A
+ * parser whose parse ended in anything other than a result or a
+ * ParseException is not put back.  The pool is a bounded stack rather
+ * than a ThreadLocal, so that container Threads don't keep parsers
+ * (and this class's ClassLoader) alive once the application is gone.
+ *
+ * @version $Id$
+ **/
+
+final class PooledParser
+{
+  //-------------------------------------
+  // Statics
+  //-------------------------------------
+
+  /** The maximum number of idle parsers kept **/
+  static final int POOL_SIZE = 8;
+
+  /** The idle parsers, also the lock for sPoolCount **/
+  static final PooledParser [] sPool = new PooledParser [POOL_SIZE];
+
+  /** The number of idle parsers in sPool **/
+  static int sPoolCount;
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The character stream the token manager reads **/
+  final SimpleCharStream mCharStream;
+
+  /** The token manager the parser reads **/
+  final ELParserTokenManager mTokenManager;
+
+  /** The parser **/
+  final ELParser mParser;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  PooledParser ()
+  {
+    mCharStream = new SimpleCharStream ("");
+    mTokenManager = new ELParserTokenManager (mCharStream);
+    mParser = new ELParser (mTokenManager);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Takes a parser out of the pool, or creates one if the pool is
+   * empty, and sets it up to parse the given expression String
+   **/
+  static PooledParser acquire (String pExpressionString)
+  {
+    PooledParser ret = null;
+    synchronized (sPool) {
+      if (sPoolCount > 0) {
+	ret = sPool [--sPoolCount];
+	sPool [sPoolCount] = null;
+      }
+    }
+    if (ret == null) {
+      ret = new PooledParser ();
+    }
+    ret.mCharStream.ReInit (pExpressionString);
+    ret.mTokenManager.ReInit (ret.mCharStream);
+    ret.mParser.ReInit (ret.mTokenManager);
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Parses the expression String, returning a String, an Expression,
+   * or an ExpressionString
+   **/
+  Object parse ()
+    throws ParseException
+  {
+    return mParser.ExpressionString ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Puts this parser back into the pool, unless the pool is full.  The
+   * parser must not be used after this.
+   **/
+  void release ()
+  {
+    // Don't hold on to the expression String
+    mCharStream.ReInit ("");
+    synchronized (sPool) {
+      if (sPoolCount < POOL_SIZE) {
+	sPool [sPoolCount++] = this;
+      }
+    }
+  }
+
+  //-------------------------------------
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+/**
+ *
+ * <p>The result of evaluating an Expression as a primitive.  A
+ * PrimitiveValue holds either a long, a double, or an Object, so that
+ * nested arithmetic can pass its intermediate results along without
+ * boxing them; the value is only boxed when an Object is asked for.
+ *
+ * <p>A PrimitiveValue is reused for all the subexpressions of one
+ * evaluation.  Each Expression reads the value its subexpression left
+ * before evaluating the next one, so the reuse is safe.
+ *
+ * @version $Id$
+ **/
+
+final class PrimitiveValue
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+  // The kinds of values
+
+  /** An Object, which may be null **/
+  static final int OBJECT = 0;
+
+  /** A Long, Integer, Short or Byte, held as a long **/
+  static final int LONG = 1;
+
+  /** A Double or Float, held as a double **/
+  static final int DOUBLE = 2;
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The kind of the value **/
+  int mKind;
+
+  /** The value if it is a LONG **/
+  long mLong;
+
+  /** The value if it is a DOUBLE **/
+  double mDouble;
+
+  /** The value as an Object, or null if it is a LONG or DOUBLE that
+      has not been boxed yet **/
+  Object mObject;
+
+  //-------------------------------------
+  /**
+   *
+   * Sets the value to the given Object, returning its kind
+   **/
+  int set (Object pValue)
+  {
+    mObject = pValue;
+    if (pValue instanceof Long ||
+	pValue instanceof Integer ||
+	pValue instanceof Short ||
+	pValue instanceof Byte) {
+      mLong = ((Number) pValue).longValue ();
+      return mKind = LONG;
+    }
+    else if (pValue instanceof Double ||
+	     pValue instanceof Float) {
+      mDouble = ((Number) pValue).doubleValue ();
+      return mKind = DOUBLE;
+    }
+    else {
+      return mKind = OBJECT;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Sets the value to the given long, returning its kind
+   **/
+  int setLong (long pValue)
+  {
+    mObject = null;
+    mLong = pValue;
+    return mKind = LONG;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Sets the value to the given double, returning its kind
+   **/
+  int setDouble (double pValue)
+  {
+    mObject = null;
+    mDouble = pValue;
+    return mKind = DOUBLE;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the value as a double, if it is a LONG or DOUBLE
+   **/
+  double getDouble ()
+  {
+    return (mKind == LONG) ? (double) mLong : mDouble;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the value as an Object, boxing it if necessary
+   **/
+  Object getObject ()
+  {
+    if (mObject == null) {
+      if (mKind == LONG) {
+	mObject = PrimitiveObjects.getLong (mLong);
+      }
+      else if (mKind == DOUBLE) {
+	mObject = PrimitiveObjects.getDouble (mDouble);
+      }
+    }
+    return mObject;
+  }
+
+  //-------------------------------------
+}
@@ -43,7 +43,10 @@ public class PropertySuffix
   public String getName ()
   { return mName; }
   public void setName (String pName)
-  { mName = pName; }
+  {
+    mName = pName;
+    clearInlineCache ();
+  }
 
   //-------------------------------------
   /**
@@ -67,6 +70,16 @@ public class PropertySuffix
     return mName;
   }
 
+  //-------------------------------------
+  /**
+   *
+   * Returns the property name, which is always constant
+   **/
+  String getConstantIndex ()
+  {
+    return mName;
+  }
+
   //-------------------------------------
   /**
    *
@@ -89,5 +102,17 @@ public class PropertySuffix
     return "." + StringLiteral.toIdentifierToken (mName);
   }
 
+  //-------------------------------------
+  /**
+   *
+   * Returns this suffix, which has no functions to bind (and whose
+   * inline cache may be shared by the bound expression)
+   **/
+  public ValueSuffix bindFunctions (FunctionMapper functions)
+    throws ELException
+  {
+    return this;
+  }
+
   //-------------------------------------
 }
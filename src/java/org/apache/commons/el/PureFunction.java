@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * <p>A function that has been declared pure: its result depends only
+ * on its arguments, and calling it has no side effects.  A call to a
+ * pure function whose arguments are all literals is evaluated when
+ * the function is bound, and the call is replaced by its result.
+ * Other calls whose coerced arguments are all null, Strings,
+ * Booleans, Characters or primitive Numbers look them up in a bounded
+ * cache of the function's recent results, and only invoke the
+ * function on a miss.  Calls with any other arguments (which may be
+ * compared by identity, or modified between calls) always invoke it.
+ *
+ * <p>Functions are declared pure with {@link
+ * ExpressionEvaluatorImpl#registerPureFunction}.
+ *
+ * @version $Id$
+ **/
+
+public final class PureFunction
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+
+  /** The default maximum number of results cached for a function **/
+  public static final int DEFAULT_CACHE_SIZE = 256;
+
+  /** Stands in for a null result in the cache **/
+  static final Object NULL_RESULT = new Object ();
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The method of the function **/
+  final Method mMethod;
+
+  /** The maximum number of results cached **/
+  final int mCacheSize;
+
+  /** The mapping from the List of coerced arguments to the result,
+      least recently used first **/
+  final Map mResults;
+
+  /** The counters, guarded by this **/
+  long mHitCount;
+  long mMissCount;
+  long mEvictionCount;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  PureFunction (Method pMethod, int pCacheSize)
+  {
+    mMethod = pMethod;
+    mCacheSize = pCacheSize;
+    mResults = new LinkedHashMap (16, 0.75f, true) {
+	protected boolean removeEldestEntry (Map.Entry pEldest)
+	{
+	  if (size () > mCacheSize) {
+	    mEvictionCount++;
+	    return true;
+	  }
+	  return false;
+	}
+      };
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the cached result for the given arguments, NULL_RESULT for
+   * a cached null, or null if there is none.  Counts as a hit or a
+   * miss.
+   **/
+  synchronized Object get (List pArguments)
+  {
+    Object ret = mResults.get (pArguments);
+    if (ret == null) {
+      mMissCount++;
+    }
+    else {
+      mHitCount++;
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Caches the result for the given arguments
+   **/
+  synchronized void put (List pArguments, Object pResult)
+  {
+    if (mCacheSize > 0) {
+      mResults.put (pArguments, (pResult == null) ? NULL_RESULT : pResult);
+    }
+  }
+
+  //-------------------------------------
+  // Properties
+  //-------------------------------------
+  /**
+   *
+   * Returns the method of the function
+   **/
+  public Method getMethod ()
+  {
+    return mMethod;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the maximum number of results cached
+   **/
+  public int getCacheSize ()
+  {
+    return mCacheSize;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of results currently cached
+   **/
+  public synchronized int size ()
+  {
+    return mResults.size ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of calls answered from the cache
+   **/
+  public synchronized long getHitCount ()
+  {
+    return mHitCount;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of calls that invoked the function
+   **/
+  public synchronized long getMissCount ()
+  {
+    return mMissCount;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of results dropped to keep the cache within its
+   * bounds
+   **/
+  public synchronized long getEvictionCount ()
+  {
+    return mEvictionCount;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes all of the cached results.  The counters are not reset.
+   **/
+  public synchronized void clear ()
+  {
+    mResults.clear ();
+  }
+
+  //-------------------------------------
+  // Registry
+  //-------------------------------------
+  /**
+   *
+   * Returns the PureFunction registered for the given method in the
+   * current context ClassLoader's CachePartition, or null if the
+   * method hasn't been declared pure
+   **/
+  static PureFunction get (Method pMethod)
+  {
+    Map functions = CachePartition.getCurrent ().mPureFunctions;
+    synchronized (functions) {
+      return (PureFunction) functions.get (pMethod);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the functions declared by classes loaded by the given
+   * ClassLoader or its descendants from the given registry
+   **/
+  static void purgeClasses (Map pFunctions, ClassLoader pLoader)
+  {
+    synchronized (pFunctions) {
+      for (Iterator i = pFunctions.keySet ().iterator (); i.hasNext (); ) {
+	Method method = (Method) i.next ();
+	if (CachePartition.isLoadedBy (method.getDeclaringClass (), pLoader)) {
+	  i.remove ();
+	}
+      }
+    }
+  }
+
+  //-------------------------------------
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.jsp.el.ELException;
+
+/**
+ *
+ * <p>A bound call to a {@link PureFunction}, which looks its coerced
+ * arguments up in the function's result cache before invoking it.
+ * Only arguments that are null or of an immutable value type (see
+ * ExpressionEvaluatorImpl.isImmutableType) are looked up: the cache
+ * compares arguments with equals, which for other objects may be
+ * identity, or may change as the object is modified.
+ *
+ * @version $Id$
+ **/
+
+final class PureFunctionInvocation
+  extends BoundFunctionInvocation
+{
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The function called **/
+  final PureFunction mFunction;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  PureFunctionInvocation (PureFunction pFunction,
+			  String pFunctionName,
+			  List pArgumentList)
+  {
+    super (pFunction.getMethod (), pFunctionName, pArgumentList);
+    mFunction = pFunction;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the result of the call if all of its arguments are
+   * literals and it can be evaluated without error, otherwise this
+   **/
+  Expression fold ()
+  {
+    List arguments = getArgumentList ();
+    for (int i = 0; i < arguments.size (); i++) {
+      if (!(arguments.get (i) instanceof Literal)) {
+	return this;
+      }
+    }
+    try {
+      return new ExpressionOptimizer.FoldedLiteral
+	(evaluate (null, null), getExpressionString ());
+    }
+    catch (ELException exc) {
+      // Report it when the call is evaluated
+      return this;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the cached result for the given arguments, or invokes the
+   * method and caches its result.  Failures are not cached, and calls
+   * with arguments that can't be cached just invoke the method.
+   **/
+  Object invoke (Method pTarget, Object [] pArguments)
+    throws ELException
+  {
+    if (!isCacheable (pArguments)) {
+      return super.invoke (pTarget, pArguments);
+    }
+
+    List key = Arrays.asList (pArguments);
+    Object ret = mFunction.get (key);
+    if (ret != null) {
+      return (ret == PureFunction.NULL_RESULT) ? null : ret;
+    }
+
+    try {
+      ret = pTarget.invoke (null, pArguments);
+    }
+    catch (InvocationTargetException exc) {
+      ELException error =
+	getInvocationError (exc.getTargetException (), getFunctionName ());
+      if (error != null) {
+	throw error;
+      }
+      return null;
+    }
+    catch (Throwable exc) {
+      ELException error = getInvocationError (exc, getFunctionName ());
+      if (error != null) {
+	throw error;
+      }
+      return null;
+    }
+    mFunction.put (key, ret);
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if each of the given arguments is null or of an
+   * immutable value type
+   **/
+  static boolean isCacheable (Object [] pArguments)
+  {
+    for (int i = 0; i < pArguments.length; i++) {
+      if (pArguments [i] != null &&
+	  !ExpressionEvaluatorImpl.isImmutableType (pArguments [i].getClass ())) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  //-------------------------------------
+}
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+/**
+ *
+ * <p>A bounded ExpressionCache using a segmented LRU policy.  The
+ * cache is split into a probationary segment and a protected
+ * segment.  New entries are admitted to the probationary segment, and
+ * are only moved into the protected segment once they are used a
+ * second time.  When the protected segment overflows, its least
+ * recently used entry is demoted back to the probationary segment;
+ * when the cache as a whole overflows, the least recently used
+ * probationary entry is evicted.
+ *
+ * <p>The effect is that expressions which are used repeatedly survive
+ * a burst of one-off expressions (such as those written by users of a
+ * content management system), which a plain LRU cache would not.
+ *
+ * <p>Lookups never lock.  The entries are indexed by a hash table
+ * whose chains are immutable once published, so a reader sees either
+ * the old or the new chain while a writer is changing it.  A lookup
+ * only marks the entry it finds as referenced; the promotions and
+ * demotions that the marks imply are carried out later, by the
+ * (synchronized) writer that needs to make room for a new entry.  The
+ * protected segment is therefore ordered by a "second chance" scan
+ * rather than by exact recency, which is the usual price of keeping
+ * the read path free of locks.
+ *
+ * @version $Id$
+ **/
+
+public class SegmentedLruCache
+  implements ExpressionCache
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+
+  /** The default maximum number of entries **/
+  public static final int DEFAULT_MAXIMUM_SIZE = 8192;
+
+  /** The percentage of the maximum size given to the protected
+      segment **/
+  static final int PROTECTED_PERCENTAGE = 80;
+
+  /** The number of counter stripes, and the distance in longs between
+      two stripes (so that they don't share a cache line) **/
+  static final int COUNTER_STRIPES = 16;
+  static final int COUNTER_STRIDE = 16;
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The maximum number of entries in the cache **/
+  final int mMaximumSize;
+
+  /** The maximum number of entries in the protected segment **/
+  final int mMaximumProtectedSize;
+
+  /** The hash index.  Writers change a chain by storing its new head
+      into the table in place (with a single store), and replace the
+      table only when it grows.  Readers need no lock because the
+      fields of a Node are final, so a reader sees either the old or
+      the new chain, fully built; Node must never get a mutable
+      field. **/
+  volatile Node [] mTable;
+
+  /** The number of entries **/
+  volatile int mSize;
+
+  /** The number of entries in the protected segment **/
+  int mProtectedSize;
+
+  /** The probationary and protected segments, each a circular list
+      whose head is the most recently added entry **/
+  final Entry mProbation = new Entry (null, null);
+  final Entry mProtected = new Entry (null, null);
+
+  /** Striped counters, so that concurrent readers don't all write
+      the same memory **/
+  final long [] mHitCounts = new long [COUNTER_STRIPES * COUNTER_STRIDE];
+  final long [] mMissCounts = new long [COUNTER_STRIPES * COUNTER_STRIDE];
+  long mEvictionCount;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  public SegmentedLruCache ()
+  {
+    this (DEFAULT_MAXIMUM_SIZE);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   *
+   * @param pMaximumSize the maximum number of entries to retain
+   **/
+  public SegmentedLruCache (int pMaximumSize)
+  {
+    if (pMaximumSize <= 0) {
+      throw new IllegalArgumentException
+	("Maximum size must be positive: " + pMaximumSize);
+    }
+    mMaximumSize = pMaximumSize;
+    mMaximumProtectedSize =
+      (int) (((long) pMaximumSize) * PROTECTED_PERCENTAGE / 100);
+    mTable = new Node [16];
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the maximum number of entries
+   **/
+  public int getMaximumSize ()
+  {
+    return mMaximumSize;
+  }
+
+  //-------------------------------------
+  // ExpressionCache methods
+  //-------------------------------------
+  public Object get (String pKey)
+  {
+    Object ret = probe (pKey);
+    if (ret == null) {
+      mMissCounts [counterIndex ()]++;
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  public Object probe (String pKey)
+  {
+    int hash = hash (pKey);
+    Node [] table = mTable;
+    for (Node node = table [hash & (table.length - 1)];
+	 node != null;
+	 node = node.mNext) {
+      if (node.mHash == hash && pKey.equals (node.mKey)) {
+	Entry entry = node.mEntry;
+	// Only write the flag when it changes, so that a popular entry
+	// isn't written by every reader
+	if (!entry.mReferenced) {
+	  entry.mReferenced = true;
+	}
+	mHitCounts [counterIndex ()]++;
+	return entry.mValue;
+      }
+    }
+    return null;
+  }
+
+  //-------------------------------------
+  public synchronized void put (String pKey, Object pValue)
+  {
+    if (pValue == null) {
+      return;
+    }
+
+    int hash = hash (pKey);
+    Node [] table = mTable;
+    int index = hash & (table.length - 1);
+    for (Node node = table [index]; node != null; node = node.mNext) {
+      if (node.mHash == hash && pKey.equals (node.mKey)) {
+	node.mEntry.mValue = pValue;
+	return;
+      }
+    }
+
+    Entry entry = new Entry (pKey, pValue);
+    linkFirst (mProbation, entry);
+    table [index] = new Node (hash, pKey, entry, table [index]);
+    int size = mSize + 1;
+    if (size > table.length - (table.length >> 2)) {
+      table = resize (table);
+    }
+    // The volatile writes publish the new chain to readers
+    mTable = table;
+    mSize = size;
+
+    while (mSize > mMaximumSize) {
+      evictOne ();
+    }
+  }
+
+  //-------------------------------------
+  public synchronized void clear ()
+  {
+    unlinkAll (mProbation);
+    unlinkAll (mProtected);
+    mProtectedSize = 0;
+    mTable = new Node [16];
+    mSize = 0;
+  }
+
+  //-------------------------------------
+  public int size ()
+  {
+    return mSize;
+  }
+
+  //-------------------------------------
+  public long getHitCount ()
+  {
+    return sum (mHitCounts);
+  }
+
+  //-------------------------------------
+  public long getMissCount ()
+  {
+    return sum (mMissCounts);
+  }
+
+  //-------------------------------------
+  public synchronized long getEvictionCount ()
+  {
+    return mEvictionCount;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the entries whose values refer to classes loaded by the
+   * given ClassLoader or its descendants, as decided by
+   * CachePartition.refersTo.  The counters are not changed.
+   **/
+  synchronized void purgeClasses (ClassLoader pLoader)
+  {
+    purgeClasses (mProbation, pLoader);
+    mProtectedSize -= purgeClasses (mProtected, pLoader);
+  }
+
+  //-------------------------------------
+  // Segment maintenance - all called with the lock held
+  //-------------------------------------
+  /**
+   *
+   * Removes the entries of the given segment whose values refer to
+   * classes of the given ClassLoader, and returns how many it removed
+   **/
+  int purgeClasses (Entry pHead, ClassLoader pLoader)
+  {
+    int ret = 0;
+    Entry entry = pHead.mNext;
+    while (entry != pHead) {
+      Entry next = entry.mNext;
+      if (CachePartition.refersTo (entry.mValue, pLoader)) {
+	unlink (entry);
+	removeFromTable (entry.mKey);
+	mSize = mSize - 1;
+	ret++;
+      }
+      entry = next;
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Makes room for one entry.  Referenced probationary entries found
+   * along the way are promoted rather than evicted.
+   **/
+  void evictOne ()
+  {
+    while (true) {
+      Entry victim = mProbation.mPrev;
+      if (victim == mProbation) {
+	// Everything is protected - demote to make a candidate
+	demote ();
+	continue;
+      }
+      if (victim.mReferenced) {
+	victim.mReferenced = false;
+	unlink (victim);
+	linkFirst (mProtected, victim);
+	mProtectedSize++;
+	while (mProtectedSize > mMaximumProtectedSize) {
+	  demote ();
+	}
+	continue;
+      }
+      unlink (victim);
+      removeFromTable (victim.mKey);
+      mSize = mSize - 1;
+      mEvictionCount++;
+      return;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Moves the least recently used protected entry into the
+   * probationary segment, giving a second chance to any referenced
+   * entries it passes.
+   **/
+  void demote ()
+  {
+    while (true) {
+      Entry entry = mProtected.mPrev;
+      unlink (entry);
+      if (entry.mReferenced) {
+	entry.mReferenced = false;
+	linkFirst (mProtected, entry);
+      }
+      else {
+	mProtectedSize--;
+	linkFirst (mProbation, entry);
+	return;
+      }
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the given key from the hash index.  The nodes ahead of the
+   * removed one are copied, so that readers traversing the old chain
+   * are unaffected.
+   **/
+  void removeFromTable (String pKey)
+  {
+    int hash = hash (pKey);
+    Node [] table = mTable;
+    int index = hash & (table.length - 1);
+    Node first = table [index];
+    Node removed = first;
+    while (removed != null &&
+	   !(removed.mHash == hash && pKey.equals (removed.mKey))) {
+      removed = removed.mNext;
+    }
+    if (removed == null) {
+      return;
+    }
+    Node newFirst = removed.mNext;
+    for (Node node = first; node != removed; node = node.mNext) {
+      newFirst = new Node (node.mHash, node.mKey, node.mEntry, newFirst);
+    }
+    table [index] = newFirst;
+    mTable = table;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns a table twice the size of the given one, holding copies of
+   * its nodes
+   **/
+  static Node [] resize (Node [] pTable)
+  {
+    Node [] ret = new Node [pTable.length * 2];
+    for (int i = 0; i < pTable.length; i++) {
+      for (Node node = pTable [i]; node != null; node = node.mNext) {
+	int index = node.mHash & (ret.length - 1);
+	ret [index] = new Node (node.mHash, node.mKey, node.mEntry, ret [index]);
+      }
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  static void linkFirst (Entry pHead, Entry pEntry)
+  {
+    pEntry.mPrev = pHead;
+    pEntry.mNext = pHead.mNext;
+    pHead.mNext.mPrev = pEntry;
+    pHead.mNext = pEntry;
+  }
+
+  //-------------------------------------
+  static void unlink (Entry pEntry)
+  {
+    pEntry.mPrev.mNext = pEntry.mNext;
+    pEntry.mNext.mPrev = pEntry.mPrev;
+    pEntry.mPrev = null;
+    pEntry.mNext = null;
+  }
+
+  //-------------------------------------
+  static void unlinkAll (Entry pHead)
+  {
+    pHead.mNext = pHead;
+    pHead.mPrev = pHead;
+  }
+
+  //-------------------------------------
+  // Utilities
+  //-------------------------------------
+  static int hash (String pKey)
+  {
+    int h = pKey.hashCode ();
+    return h ^ (h >>> 16);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the counter slot for the current Thread
+   **/
+  static int counterIndex ()
+  {
+    int h = System.identityHashCode (Thread.currentThread ());
+    return ((h ^ (h >>> 16)) & (COUNTER_STRIPES - 1)) * COUNTER_STRIDE;
+  }
+
+  //-------------------------------------
+  static long sum (long [] pCounts)
+  {
+    long ret = 0;
+    for (int i = 0; i < pCounts.length; i += COUNTER_STRIDE) {
+      ret += pCounts [i];
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  // Node and Entry
+  //-------------------------------------
+  /**
+   *
+   * An element of a hash chain.  Nodes are immutable; a chain is
+   * changed by building a new one.
+   **/
+  static final class Node
+  {
+    final int mHash;
+    final String mKey;
+    final Entry mEntry;
+    final Node mNext;
+
+    Node (int pHash, String pKey, Entry pEntry, Node pNext)
+    {
+      mHash = pHash;
+      mKey = pKey;
+      mEntry = pEntry;
+      mNext = pNext;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * A cached value, linked into one of the segments.  The links are
+   * only used by writers.
+   **/
+  static final class Entry
+  {
+    final String mKey;
+    volatile Object mValue;
+    volatile boolean mReferenced;
+    Entry mPrev;
+    Entry mNext;
+
+    Entry (String pKey, Object pValue)
+    {
+      mKey = pKey;
+      mValue = pValue;
+      mPrev = this;
+      mNext = this;
+    }
+  }
+
+  //-------------------------------------
+}
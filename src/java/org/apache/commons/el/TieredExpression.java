@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.FunctionMapper;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>An Expression that is interpreted until it has been evaluated a
+ * given number of times, and is then compiled for an evaluation mode
+ * on a background Thread.  Once compiled, the compiled form replaces
+ * the parsed Expression for all subsequent evaluations.
+ *
+ * <p>Besides saving the cost of compiling expressions that are rarely
+ * evaluated, this lets the interpreted evaluations fill the inline
+ * caches of the property suffixes, which the BytecodeCompiler turns
+ * into direct getter calls.
+ *
+ * <p>The evaluation count is not synchronized, so concurrent
+ * evaluations may lose some counts; this only delays the promotion.
+ *
+ * @version $Id$
+ **/
+
+final class TieredExpression
+  extends Expression
+{
+  //-------------------------------------
+  // Statics
+  //-------------------------------------
+
+  /** The maximum number of TieredExpressions waiting to be compiled.
+      Requests made while the queue is full are dropped; the expression
+      asks again once it has been evaluated another threshold's worth
+      of times. **/
+  static final int MAX_QUEUE_SIZE = 1024;
+
+  /** The TieredExpressions waiting to be compiled, also the lock for
+      the statistics below **/
+  static final LinkedList sQueue = new LinkedList ();
+
+  /** The Thread that compiles them, or null if not yet started **/
+  static Thread sCompilerThread;
+
+  /** The number of expressions promoted to their compiled forms **/
+  static long sPromotionCount;
+
+  /** The number of expressions that could not be compiled, and were
+      left interpreted **/
+  static long sPromotionFailureCount;
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The parsed Expression **/
+  final Expression mSource;
+
+  /** The evaluation mode to compile for **/
+  final int mEvaluationMode;
+
+  /** The number of evaluations after which to compile **/
+  final int mThreshold;
+
+  /** The context ClassLoader of the Thread that created this, which
+      the compiler runs with, or null if there was none.  The
+      reference is weak so as not to keep the ClassLoader's
+      CachePartition alive. **/
+  final WeakReference mContextClassLoader;
+
+  /** The Expression to evaluate: the parsed Expression, then the
+      compiled form **/
+  volatile Expression mTarget;
+
+  /** The number of evaluations so far **/
+  int mEvaluationCount;
+
+  /** Flag if this has been queued for compiling **/
+  volatile boolean mPromotionRequested;
+
+  //-------------------------------------
+  /**
+   *
+   * Constructor
+   **/
+  TieredExpression (Expression pSource, int pEvaluationMode, int pThreshold)
+  {
+    mSource = pSource;
+    mTarget = pSource;
+    mEvaluationMode = pEvaluationMode;
+    mThreshold = pThreshold;
+    ClassLoader loader = Thread.currentThread ().getContextClassLoader ();
+    mContextClassLoader = (loader == null) ? null : new WeakReference (loader);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns true if the compiled form has replaced the parsed
+   * Expression
+   **/
+  boolean isPromoted ()
+  {
+    return mTarget != mSource;
+  }
+
+  //-------------------------------------
+  // Expression methods
+  //-------------------------------------
+  /**
+   *
+   * Returns the expression in the expression language syntax
+   **/
+  public String getExpressionString ()
+  {
+    return mSource.getExpressionString ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression in the given context
+   **/
+  public Object evaluate (VariableResolver pResolver,
+			  FunctionMapper functions)
+    throws ELException
+  {
+    Expression target = mTarget;
+    if (target == mSource &&
+	!mPromotionRequested &&
+	++mEvaluationCount >= mThreshold) {
+      requestPromotion ();
+    }
+    return target.evaluate (pResolver, functions);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression in the given context into the given
+   * PrimitiveValue
+   **/
+  int evaluatePrimitive (VariableResolver pResolver,
+			 FunctionMapper functions,
+			 PrimitiveValue pValue)
+    throws ELException
+  {
+    Expression target = mTarget;
+    if (target == mSource &&
+	!mPromotionRequested &&
+	++mEvaluationCount >= mThreshold) {
+      requestPromotion ();
+    }
+    return target.evaluatePrimitive (pResolver, functions, pValue);
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Binds the functions of the parsed Expression.  The bound copy is a
+   * new TieredExpression that has to reach the threshold on its own
+   * before it is compiled, even if this has been compiled already.
+   **/
+  public Expression bindFunctions (FunctionMapper functions)
+    throws ELException
+  {
+    Expression source = mSource.bindFunctions (functions);
+    if (source == mSource) {
+      // Share the evaluation count and the compiled form
+      return this;
+    }
+    return new TieredExpression (source,
+				 mEvaluationMode,
+				 mThreshold);
+  }
+
+  //-------------------------------------
+  // Promotion
+  //-------------------------------------
+  /**
+   *
+   * Queues this to be compiled, starting the compiler Thread if
+   * necessary.  If the queue is full, the request is dropped and the
+   * evaluation count starts over.
+   **/
+  void requestPromotion ()
+  {
+    synchronized (sQueue) {
+      if (mPromotionRequested) {
+	return;
+      }
+      if (sQueue.size () >= MAX_QUEUE_SIZE) {
+	mEvaluationCount = 0;
+	return;
+      }
+      mPromotionRequested = true;
+      sQueue.addLast (this);
+      if (sCompilerThread == null) {
+	sCompilerThread = startCompilerThread ();
+      }
+      sQueue.notifyAll ();
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Starts the compiler Thread.  It is created in a privileged block
+   * and in the root ThreadGroup, so that it doesn't inherit the
+   * AccessControlContext and ThreadGroup of the requesting Thread,
+   * which would keep that Thread's web application (its
+   * ProtectionDomain and ClassLoader) alive for as long as the VM
+   * runs.
+   **/
+  static Thread startCompilerThread ()
+  {
+    return (Thread) AccessController.doPrivileged (new PrivilegedAction () {
+	public Object run ()
+	{
+	  ThreadGroup group = Thread.currentThread ().getThreadGroup ();
+	  try {
+	    while (group.getParent () != null) {
+	      group = group.getParent ();
+	    }
+	  }
+	  catch (SecurityException exc) {
+	    // Use the highest ThreadGroup we may see
+	  }
+	  Thread ret = new Thread (group, "commons-el expression compiler") {
+	      public void run ()
+	      {
+		runCompiler ();
+	      }
+	    };
+	  ret.setDaemon (true);
+	  // Don't keep the requesting Thread's ClassLoader alive
+	  ret.setContextClassLoader (null);
+	  ret.start ();
+	  return ret;
+	}
+      });
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the queued expressions created with the given context
+   * ClassLoader or one of its descendants (or with a ClassLoader that
+   * has been collected), whose parsed forms may refer to the
+   * ClassLoader's classes
+   **/
+  static void purgeQueue (ClassLoader pLoader)
+  {
+    synchronized (sQueue) {
+      for (Iterator iter = sQueue.iterator (); iter.hasNext (); ) {
+	TieredExpression expression = (TieredExpression) iter.next ();
+	if (expression.mContextClassLoader == null) {
+	  continue;
+	}
+	ClassLoader loader =
+	  (ClassLoader) expression.mContextClassLoader.get ();
+	if (loader == null ||
+	    CachePartition.isDescendant (loader, pLoader)) {
+	  iter.remove ();
+	  expression.mEvaluationCount = 0;
+	  expression.mPromotionRequested = false;
+	}
+      }
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * The body of the compiler Thread, which compiles the queued
+   * expressions for as long as the VM runs
+   **/
+  static void runCompiler ()
+  {
+    while (true) {
+      TieredExpression expression;
+      synchronized (sQueue) {
+	while (sQueue.isEmpty ()) {
+	  try {
+	    sQueue.wait ();
+	  }
+	  catch (InterruptedException exc) {
+	    // Keep waiting; the Thread is a daemon
+	  }
+	}
+	expression = (TieredExpression) sQueue.removeFirst ();
+      }
+      expression.promote ();
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Compiles the parsed Expression, with the context ClassLoader of the
+   * Thread that created this, and swaps the compiled form in
+   **/
+  void promote ()
+  {
+    Thread thread = Thread.currentThread ();
+    ClassLoader loader = null;
+    if (mContextClassLoader != null) {
+      loader = (ClassLoader) mContextClassLoader.get ();
+      if (loader == null) {
+	// The ClassLoader is gone, and this expression with it
+	return;
+      }
+    }
+
+    Expression compiled = null;
+    try {
+      thread.setContextClassLoader (loader);
+      compiled = ExpressionEvaluatorImpl.compile (mSource, mEvaluationMode);
+    }
+    catch (Throwable exc) {
+      // Leave the expression interpreted
+    }
+    finally {
+      thread.setContextClassLoader (null);
+    }
+
+    synchronized (sQueue) {
+      if (compiled == null || compiled == mSource) {
+	sPromotionFailureCount++;
+      }
+      else {
+	sPromotionCount++;
+      }
+    }
+    if (compiled != null) {
+      mTarget = compiled;
+    }
+  }
+
+  //-------------------------------------
+  // Statistics
+  //-------------------------------------
+  static long getPromotionCount ()
+  {
+    synchronized (sQueue) {
+      return sPromotionCount;
+    }
+  }
+
+  //-------------------------------------
+  static long getPromotionFailureCount ()
+  {
+    synchronized (sQueue) {
+      return sPromotionFailureCount;
+    }
+  }
+
+  //-------------------------------------
+  static int getPendingPromotionCount ()
+  {
+    synchronized (sQueue) {
+      return sQueue.size ();
+    }
+  }
+
+  //-------------------------------------
+}
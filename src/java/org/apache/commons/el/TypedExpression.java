@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import javax.servlet.jsp.el.ELException;
+import javax.servlet.jsp.el.VariableResolver;
+
+/**
+ *
+ * <p>A parsed expression that can be evaluated directly to a
+ * primitive or String, as if it were evaluated to Boolean, Long,
+ * Double or String and the result unboxed.  The Expressions returned
+ * by {@link ExpressionEvaluatorImpl#parseExpression} implement this.
+ *
+ * @version $Id$
+ **/
+
+public interface TypedExpression
+{
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression to a boolean
+   **/
+  public boolean evaluateBoolean (VariableResolver pResolver)
+    throws ELException;
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression to a long
+   **/
+  public long evaluateLong (VariableResolver pResolver)
+    throws ELException;
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression to a double
+   **/
+  public double evaluateDouble (VariableResolver pResolver)
+    throws ELException;
+
+  //-------------------------------------
+  /**
+   *
+   * Evaluates the expression to a String
+   **/
+  public String evaluateString (VariableResolver pResolver)
+    throws ELException;
+
+  //-------------------------------------
+}
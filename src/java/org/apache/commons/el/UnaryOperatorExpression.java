@@ -127,10 +127,15 @@ public class UnaryOperatorExpression
   }
 
   public Expression bindFunctions(final FunctionMapper functions) throws ELException {
+      final Expression expression = mExpression.bindFunctions(functions);
+      if (expression == mExpression) {
+          // no functions below here, so share this subtree
+          return this;
+      }
       return new UnaryOperatorExpression(
               mOperator,
               mOperators,
-              mExpression.bindFunctions(functions));
+              expression);
   }
 
   //-------------------------------------
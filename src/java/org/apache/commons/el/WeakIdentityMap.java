@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * <p>A map whose keys are compared by identity and held weakly, so
+ * that a Class (or ClassLoader) used as a key can still be garbage
+ * collected.  Entries whose keys have been collected are purged as the
+ * map is modified.
+ *
+ * <p>Lookups never lock.  The hash index is updated as that of
+ * {@link SegmentedLruCache} is (see its mTable field): modifications,
+ * which are synchronized, build new chains and store their heads into
+ * the table, which is then republished through a volatile field.
+ * This makes the map suitable for caches that are read on every
+ * evaluation but written rarely.
+ *
+ * <p>A null key is stored under a sentinel key, which is never
+ * collected.  Note that a value which refers, directly or indirectly,
+ * to its own key keeps that key from being collected.
+ *
+ * @version $Id$
+ **/
+
+class WeakIdentityMap
+{
+  //-------------------------------------
+  // Constants
+  //-------------------------------------
+
+  /** Stands in for a null key, since the reference of a collected key
+      also returns null **/
+  static final Object NULL_KEY = new Object ();
+
+  //-------------------------------------
+  // Member variables
+  //-------------------------------------
+
+  /** The hash index, updated as SegmentedLruCache.mTable is, and also
+      replaced when the map is cleared **/
+  volatile Node [] mTable = new Node [16];
+
+  /** The number of entries, including ones whose keys have been
+      collected but not yet purged **/
+  volatile int mSize;
+
+  /** The queue on which collected keys are reported **/
+  final ReferenceQueue mQueue = new ReferenceQueue ();
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the value mapped to the given key, or null
+   **/
+  public Object get (Object pKey)
+  {
+    // The key is never null, so nodes whose keys have been collected
+    // never match
+    pKey = maskNull (pKey);
+    int hash = hash (pKey);
+    Node [] table = mTable;
+    for (Node node = table [hash & (table.length - 1)];
+	 node != null;
+	 node = node.mNext) {
+      if (node.mKey.get () == pKey) {
+	return node.mValue;
+      }
+    }
+    return null;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Maps the given key to the given value, unless it is already
+   * mapped, and returns the value that ends up mapped.
+   **/
+  public synchronized Object putIfAbsent (Object pKey, Object pValue)
+  {
+    Object ret = get (pKey);
+    if (ret != null) {
+      return ret;
+    }
+    put (pKey, pValue);
+    return pValue;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Maps the given key to the given value
+   **/
+  public synchronized void put (Object pKey, Object pValue)
+  {
+    pKey = maskNull (pKey);
+    purgeCollected ();
+    removeNode (pKey);
+
+    int hash = hash (pKey);
+    Node [] table = mTable;
+    int size = mSize + 1;
+    if (size > table.length - (table.length >> 2)) {
+      table = resize (table);
+    }
+    int index = hash & (table.length - 1);
+    table [index] =
+      new Node (new KeyReference (pKey, hash, mQueue), pValue, table [index]);
+    mTable = table;
+    mSize = size;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the mapping for the given key, returning its value
+   **/
+  public synchronized Object remove (Object pKey)
+  {
+    purgeCollected ();
+    return removeNode (maskNull (pKey));
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes all of the mappings
+   **/
+  public synchronized void clear ()
+  {
+    purgeCollected ();
+    mTable = new Node [16];
+    mSize = 0;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the keys that have not been collected, including null if
+   * it is mapped
+   **/
+  public Object [] keys ()
+  {
+    Node [] table = mTable;
+    List ret = new ArrayList ();
+    for (int i = 0; i < table.length; i++) {
+      for (Node node = table [i]; node != null; node = node.mNext) {
+	Object key = node.mKey.get ();
+	if (key != null) {
+	  ret.add ((key == NULL_KEY) ? null : key);
+	}
+      }
+    }
+    return ret.toArray ();
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns the number of mappings, which may include mappings whose
+   * keys were collected recently
+   **/
+  public int size ()
+  {
+    return mSize;
+  }
+
+  //-------------------------------------
+  // Modification - all called with the lock held
+  //-------------------------------------
+  /**
+   *
+   * Removes the entries whose keys have been collected
+   **/
+  void purgeCollected ()
+  {
+    KeyReference ref;
+    while ((ref = (KeyReference) mQueue.poll ()) != null) {
+      removeReference (ref);
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the node holding the given key, copying the nodes ahead
+   * of it so that readers traversing the old chain are unaffected.
+   **/
+  Object removeNode (Object pKey)
+  {
+    int hash = hash (pKey);
+    Node [] table = mTable;
+    int index = hash & (table.length - 1);
+    Node removed = table [index];
+    while (removed != null && removed.mKey.get () != pKey) {
+      removed = removed.mNext;
+    }
+    if (removed == null) {
+      return null;
+    }
+    unlink (table, index, removed);
+    return removed.mValue;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Removes the node holding the given (collected) key reference
+   **/
+  void removeReference (KeyReference pRef)
+  {
+    Node [] table = mTable;
+    int index = pRef.mHash & (table.length - 1);
+    Node removed = table [index];
+    while (removed != null && removed.mKey != pRef) {
+      removed = removed.mNext;
+    }
+    if (removed != null) {
+      unlink (table, index, removed);
+    }
+  }
+
+  //-------------------------------------
+  void unlink (Node [] pTable, int pIndex, Node pRemoved)
+  {
+    Node newFirst = pRemoved.mNext;
+    for (Node node = pTable [pIndex]; node != pRemoved; node = node.mNext) {
+      newFirst = new Node (node.mKey, node.mValue, newFirst);
+    }
+    pTable [pIndex] = newFirst;
+    mTable = pTable;
+    mSize = mSize - 1;
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * Returns a table twice the size of the given one, holding copies of
+   * its nodes
+   **/
+  static Node [] resize (Node [] pTable)
+  {
+    Node [] ret = new Node [pTable.length * 2];
+    for (int i = 0; i < pTable.length; i++) {
+      for (Node node = pTable [i]; node != null; node = node.mNext) {
+	int index = node.mKey.mHash & (ret.length - 1);
+	ret [index] = new Node (node.mKey, node.mValue, ret [index]);
+      }
+    }
+    return ret;
+  }
+
+  //-------------------------------------
+  static Object maskNull (Object pKey)
+  {
+    return (pKey == null) ? NULL_KEY : pKey;
+  }
+
+  //-------------------------------------
+  static int hash (Object pKey)
+  {
+    int h = System.identityHashCode (pKey);
+    return h ^ (h >>> 16);
+  }
+
+  //-------------------------------------
+  // Node and KeyReference
+  //-------------------------------------
+  /**
+   *
+   * An element of a hash chain.  Nodes are immutable; a chain is
+   * changed by building a new one.
+   **/
+  static final class Node
+  {
+    final KeyReference mKey;
+    final Object mValue;
+    final Node mNext;
+
+    Node (KeyReference pKey, Object pValue, Node pNext)
+    {
+      mKey = pKey;
+      mValue = pValue;
+      mNext = pNext;
+    }
+  }
+
+  //-------------------------------------
+  /**
+   *
+   * A weak reference to a key, remembering the key's hash so that the
+   * node can be found after the key is collected
+   **/
+  static final class KeyReference
+    extends WeakReference
+  {
+    final int mHash;
+
+    KeyReference (Object pKey, int pHash, ReferenceQueue pQueue)
+    {
+      super (pKey, pQueue);
+      mHash = pHash;
+    }
+  }
+
+  //-------------------------------------
+}
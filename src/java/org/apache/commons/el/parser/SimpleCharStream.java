@@ -28,6 +28,17 @@ public final class SimpleCharStream
   private int maxNextCharInd = 0;
   private int inBuf = 0;
 
+  /*
+   * Added by hand: a stream may also read straight from a CharSequence,
+   * with no buffer.  The line and column of a position are then worked
+   * out from the characters when they are asked for, instead of being
+   * recorded for every character read.
+   */
+  private CharSequence chars;
+  private int startLine;
+  private int startColumn;
+  private int linePos = -1;
+
   private final void ExpandBuff(boolean wrapAround)
   {
      char[] newbuffer = new char[bufsize + 2048];
@@ -133,6 +144,14 @@ public final class SimpleCharStream
   }
 
   private final void UpdateLineColumn(char c)
+  {
+     AdvanceLineColumn(c);
+
+     bufline[bufpos] = line;
+     bufcolumn[bufpos] = column;
+  }
+
+  private final void AdvanceLineColumn(char c)
   {
      column++;
 
@@ -167,13 +186,55 @@ public final class SimpleCharStream
         default :
            break;
      }
+  }
 
-     bufline[bufpos] = line;
-     bufcolumn[bufpos] = column;
+  /**
+   * Moves line and column to the given position of the CharSequence,
+   * starting over if it is behind them.
+   */
+  private final void SeekLineColumn(int pos)
+  {
+     if (pos < linePos)
+     {
+        line = startLine;
+        column = startColumn - 1;
+        prevCharIsCR = prevCharIsLF = false;
+        linePos = -1;
+     }
+     while (linePos < pos)
+        AdvanceLineColumn(chars.charAt(++linePos));
+  }
+
+  private final int LineAt(int pos)
+  {
+     if (pos < 0)
+        return 0;
+     SeekLineColumn(pos);
+     return line;
+  }
+
+  private final int ColumnAt(int pos)
+  {
+     if (pos < 0)
+        return 0;
+     SeekLineColumn(pos);
+     return column;
   }
 
   public final char readChar() throws java.io.IOException
   {
+     if (chars != null)
+     {
+        if (++bufpos >= chars.length())
+        {
+           --bufpos;
+           if (tokenBegin == -1)
+              tokenBegin = bufpos;
+           throw new java.io.IOException();
+        }
+        return chars.charAt(bufpos);
+     }
+
      if (inBuf > 0)
      {
         --inBuf;
@@ -199,6 +260,8 @@ public final class SimpleCharStream
    */
 
   public final int getColumn() {
+     if (chars != null)
+        return ColumnAt(bufpos);
      return bufcolumn[bufpos];
   }
 
@@ -208,22 +271,32 @@ public final class SimpleCharStream
    */
 
   public final int getLine() {
+     if (chars != null)
+        return LineAt(bufpos);
      return bufline[bufpos];
   }
 
   public final int getEndColumn() {
+     if (chars != null)
+        return ColumnAt(bufpos);
      return bufcolumn[bufpos];
   }
 
   public final int getEndLine() {
+     if (chars != null)
+        return LineAt(bufpos);
      return bufline[bufpos];
   }
 
   public final int getBeginColumn() {
+     if (chars != null)
+        return ColumnAt(tokenBegin);
      return bufcolumn[tokenBegin];
   }
 
   public final int getBeginLine() {
+     if (chars != null)
+        return LineAt(tokenBegin);
      return bufline[tokenBegin];
   }
 
@@ -260,6 +333,7 @@ public final class SimpleCharStream
   public void ReInit(java.io.Reader dstream, int startline,
   int startcolumn, int buffersize)
   {
+    chars = null;
     inputStream = dstream;
     line = startline;
     column = startcolumn - 1;
@@ -286,6 +360,36 @@ public final class SimpleCharStream
   {
      ReInit(dstream, 1, 1, 4096);
   }
+  public SimpleCharStream(CharSequence str, int startline,
+                                                           int startcolumn)
+  {
+    chars = str;
+    line = startLine = startline;
+    column = (startColumn = startcolumn) - 1;
+  }
+
+  public SimpleCharStream(CharSequence str)
+  {
+     this(str, 1, 1);
+  }
+
+  public void ReInit(CharSequence str, int startline,
+                                                           int startcolumn)
+  {
+    chars = str;
+    inputStream = null;
+    line = startLine = startline;
+    column = (startColumn = startcolumn) - 1;
+    prevCharIsLF = prevCharIsCR = false;
+    tokenBegin = inBuf = maxNextCharInd = 0;
+    bufpos = linePos = -1;
+  }
+
+  public void ReInit(CharSequence str)
+  {
+     ReInit(str, 1, 1);
+  }
+
   public SimpleCharStream(java.io.InputStream dstream, int startline,
   int startcolumn, int buffersize)
   {
@@ -320,6 +424,8 @@ public final class SimpleCharStream
   }
   public final String GetImage()
   {
+     if (chars != null)
+        return chars.subSequence(tokenBegin, bufpos + 1).toString();
      if (bufpos >= tokenBegin)
         return new String(buffer, tokenBegin, bufpos - tokenBegin + 1);
      else
@@ -331,7 +437,12 @@ public final class SimpleCharStream
   {
      char[] ret = new char[len];
 
-     if ((bufpos + 1) >= len)
+     if (chars != null)
+     {
+        for (int i = 0; i < len; i++)
+           ret[i] = chars.charAt(bufpos - len + 1 + i);
+     }
+     else if ((bufpos + 1) >= len)
         System.arraycopy(buffer, bufpos - len + 1, ret, 0, len);
      else
      {
@@ -345,6 +456,7 @@ public final class SimpleCharStream
 
   public void Done()
   {
+     chars = null;
      buffer = null;
      bufline = null;
      bufcolumn = null;
@@ -352,9 +464,13 @@ public final class SimpleCharStream
 
   /**
    * Method to adjust line and column numbers for the start of a token.<BR>
+   * Not supported when reading from a CharSequence.
    */
   public void adjustBeginLineColumn(int newLine, int newCol)
   {
+     if (chars != null)
+        throw new IllegalStateException();
+
      int start = tokenBegin;
      int len;
 
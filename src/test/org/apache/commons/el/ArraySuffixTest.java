@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.jsp.el.ELException;
+
+import junit.framework.TestCase;
+
+public class ArraySuffixTest extends TestCase {
+
+    public static class A { public String getName() { return "a"; } }
+    public static class B { public String getName() { return "b"; } }
+    public static class C { public String getName() { return "c"; } }
+    public static class D { public String getName() { return "d"; } }
+    public static class E { public String getName() { return "e"; } }
+
+    public void testInlineCacheHits() throws ELException {
+        PropertySuffix suffix = new PropertySuffix("name");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("a", suffix.evaluate(new A(), null, null));
+        }
+        assertEquals(1, suffix.getInlineCacheMissCount());
+        assertEquals(9, suffix.getInlineCacheHitCount());
+        assertFalse(suffix.isMegamorphic());
+    }
+
+    public void testMapReceivers() throws ELException {
+        ArraySuffix suffix = new ArraySuffix(StringLiteral.fromLiteralValue("name"));
+        Map map = new HashMap();
+        map.put("name", "map");
+        assertEquals("map", suffix.evaluate(map, null, null));
+        assertEquals("map", suffix.evaluate(map, null, null));
+        assertEquals("a", suffix.evaluate(new A(), null, null));
+        assertEquals(1, suffix.getInlineCacheHitCount());
+        assertNull(suffix.evaluate(new TreeMap(), null, null));
+    }
+
+    public void testMegamorphicFallback() throws ELException {
+        PropertySuffix suffix = new PropertySuffix("name");
+        Object[] receivers = { new A(), new B(), new C(), new D(), new E() };
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < receivers.length; i++) {
+                assertEquals(String.valueOf((char) ('a' + i)),
+                             suffix.evaluate(receivers[i], null, null));
+            }
+        }
+        assertTrue(suffix.isMegamorphic());
+    }
+
+    public void testPurgeRemovesClassesOfTheClassLoader() throws ELException {
+        ArraySuffix suffix = new ArraySuffix(StringLiteral.fromLiteralValue("name"));
+        Map map = new HashMap();
+        map.put("name", "map");
+        assertEquals("a", suffix.evaluate(new A(), null, null));
+        assertEquals("map", suffix.evaluate(map, null, null));
+        assertEquals(2, suffix.mCachedAccessors.length);
+
+        ArraySuffix.purgeInlineCaches(A.class.getClassLoader());
+        assertEquals(1, suffix.mCachedAccessors.length);
+        assertSame(HashMap.class, suffix.mCachedAccessors[0].mClass);
+        assertEquals("a", suffix.evaluate(new A(), null, null));
+        assertEquals(3, suffix.getInlineCacheMissCount());
+    }
+
+    public void testMissingPropertyIsReported() {
+        PropertySuffix suffix = new PropertySuffix("missing");
+        try {
+            suffix.evaluate(new A(), null, null);
+            fail("missing property should be an error");
+        } catch (ELException expected) {
+        }
+    }
+
+    public void testPropertySuffixBindsToItself() throws ELException {
+        PropertySuffix suffix = new PropertySuffix("name");
+        assertSame(suffix, suffix.bindFunctions(null));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.Date;
+
+/**
+ * Measures the throughput of BeanInfoManager.getBeanInfoProperty as the
+ * thread count grows.  The lookups cycle through a few classes and
+ * properties, all of which are registered and resolved beforehand, so
+ * the measurement covers the registry read and the property table
+ * lookup, not introspection.
+ */
+public class BeanInfoManagerBenchmark {
+
+    static final Class[] CLASSES = {
+        BeanInfoManagerTest.Bean.class,
+        BeanInfoManagerTest.Bean.class,
+        BeanInfoManagerTest.Renamed.class,
+        BeanInfoManagerTest.Odd.class,
+        Date.class,
+        ArraySuffixTest.A.class
+    };
+
+    static final String[] PROPERTIES = {
+        "name", "active", "alias", "URL", "time", "name"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = Benchmark.getThreadCounts(args);
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (BeanInfoManager.getBeanInfoProperty(CLASSES[i], PROPERTIES[i]) == null) {
+                throw new IllegalStateException(CLASSES[i] + " has no " + PROPERTIES[i]);
+            }
+        }
+
+        new Benchmark() {
+            void operation(int thread, int iteration) throws Exception {
+                int i = (iteration + thread) % CLASSES.length;
+                sSink = BeanInfoManager.getBeanInfoProperty(CLASSES[i], PROPERTIES[i]);
+            }
+        }.run("getBeanInfoProperty", threadCounts);
+    }
+}
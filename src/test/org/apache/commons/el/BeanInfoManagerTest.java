@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.beans.SimpleBeanInfo;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+import javax.servlet.jsp.el.ELException;
+
+import junit.framework.TestCase;
+
+public class BeanInfoManagerTest extends TestCase {
+
+    public static class Bean {
+        public String getName() { return "name"; }
+        public boolean isActive() { return true; }
+        public void setCount(int count) { }
+    }
+
+    public static class Renamed {
+        public String getValue() { return "value"; }
+    }
+
+    public static class RenamedBeanInfo extends SimpleBeanInfo {
+        public PropertyDescriptor[] getPropertyDescriptors() {
+            try {
+                return new PropertyDescriptor[] {
+                    new PropertyDescriptor("alias", Renamed.class, "getValue", null)
+                };
+            } catch (IntrospectionException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+    }
+
+    public static class Odd {
+        public String getURL() { return "url"; }
+        public String getlower() { return "lower"; }
+        public static String getStatic() { return "static"; }
+        public Boolean isWrapped() { return Boolean.TRUE; }
+        public void getNothing() { }
+    }
+
+    public void testProperties() throws ELException {
+        BeanInfoProperty name = BeanInfoManager.getBeanInfoProperty(Bean.class, "name");
+        assertNotNull(name);
+        assertEquals("getName", name.getReadMethod().getName());
+        assertNull(name.getWriteMethod());
+        assertEquals("isActive",
+                     BeanInfoManager.getBeanInfoProperty(Bean.class, "active")
+                     .getReadMethod().getName());
+        BeanInfoProperty count = BeanInfoManager.getBeanInfoProperty(Bean.class, "count");
+        assertTrue(count == null || count.getReadMethod() == null);
+        assertNull(BeanInfoManager.getBeanInfoProperty(Bean.class, "missing"));
+    }
+
+    public void testLazyResolutionMatchesIntrospector()
+        throws ELException, IntrospectionException {
+        Class[] classes = { Bean.class, Odd.class, Date.class, Thread.class, HashMap.class };
+        for (int c = 0; c < classes.length; c++) {
+            BeanInfoManager manager = new BeanInfoManager(classes[c]);
+            BeanInfo info = Introspector.getBeanInfo(classes[c]);
+            PropertyDescriptor[] pds = info.getPropertyDescriptors();
+            for (int i = 0; i < pds.length; i++) {
+                BeanInfoProperty property = manager.getProperty(pds[i].getName());
+                if (pds[i].getReadMethod() == null) {
+                    assertTrue(property == null || property.getReadMethod() == null);
+                } else {
+                    assertEquals(BeanInfoManager.getPublicMethod(pds[i].getReadMethod()),
+                                 property.getReadMethod());
+                    assertEquals(pds[i].getName(), property.getPropertyDescriptor().getName());
+                }
+            }
+            assertNull(manager.mTables);
+        }
+        BeanInfoManager odd = new BeanInfoManager(Odd.class);
+        assertNull(odd.getProperty("uRL"));
+        assertNull(odd.getProperty("static"));
+        assertNull(odd.getProperty("wrapped"));
+        assertNull(odd.getProperty("nothing"));
+    }
+
+    public void testExplicitBeanInfoIsHonored() throws ELException {
+        BeanInfoManager manager = new BeanInfoManager(Renamed.class);
+        assertNull(manager.getProperty("value"));
+        assertEquals("getValue", manager.getProperty("alias").getReadMethod().getName());
+    }
+
+    public void testConcurrentLookups() throws InterruptedException {
+        final Class[] classes = {
+            Bean.class, String.class, Date.class, ArrayList.class, HashMap.class,
+            PropertyDescriptor.class, Thread.class, StringBuffer.class
+        };
+        final Throwable[] failure = new Throwable[1];
+        final Object gate = new Object();
+        final boolean[] open = new boolean[1];
+        final BeanInfoManager[][] seen = new BeanInfoManager[16][classes.length];
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        synchronized (gate) {
+                            while (!open[0]) {
+                                gate.wait();
+                            }
+                        }
+                        for (int i = 0; i < 2000; i++) {
+                            int c = (i + index) % classes.length;
+                            BeanInfoManager manager =
+                                BeanInfoManager.getBeanInfoManager(classes[c]);
+                            if (seen[index][c] == null) {
+                                seen[index][c] = manager;
+                            } else if (seen[index][c] != manager) {
+                                throw new IllegalStateException("registry changed");
+                            }
+                            if (manager.getBeanClass() != classes[c]) {
+                                throw new IllegalStateException("wrong manager");
+                            }
+                            if (manager.getProperty("class") == null) {
+                                throw new IllegalStateException("missing property");
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        synchronized (gate) {
+            open[0] = true;
+            gate.notifyAll();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertNull(failure[0]);
+        for (int t = 1; t < seen.length; t++) {
+            for (int c = 0; c < classes.length; c++) {
+                assertSame(seen[0][c], seen[t][c]);
+            }
+        }
+    }
+}
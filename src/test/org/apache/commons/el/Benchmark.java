@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+/**
+ * Base class of the benchmark drivers.  These are plain programs with a
+ * main() method, not JUnit tests, and are not run by the build.  Run
+ * one with the compiled classes and the test classes on the classpath,
+ * for example:
+ *
+ * <pre>
+ *   java -cp ... org.apache.commons.el.ParseCacheBenchmark 1 2 4 8 16 32 64
+ * </pre>
+ *
+ * The arguments are the thread counts to measure.  For each thread
+ * count the operation is run for a warm-up period, then measured for a
+ * fixed period, and the throughput is printed.  Like the rest of the
+ * tree, the drivers only use Java 1.4 APIs: times come from
+ * System.currentTimeMillis, over periods long enough for its
+ * resolution, and allocation is measured as the growth of the heap.
+ */
+abstract class Benchmark {
+
+    /** The default thread counts */
+    static final int[] DEFAULT_THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    /** The warm-up and measurement periods, in milliseconds */
+    static final long WARM_UP_MILLIS = 1000;
+    static final long MEASURE_MILLIS = 2000;
+
+    /** Prevents the JIT from discarding results */
+    static volatile Object sSink;
+
+    /** Tells the threads of a measurement to stop */
+    volatile boolean mStopped;
+
+    /**
+     * Performs one operation.  Called repeatedly, and concurrently with
+     * the given thread's number.
+     */
+    abstract void operation(int thread, int iteration) throws Exception;
+
+    /**
+     * Runs the operation on the given number of threads for the
+     * given time, and returns the number of operations per second.
+     */
+    double measureThroughput(final int threadCount, final long millis)
+        throws InterruptedException {
+        final long[] counts = new long[threadCount];
+        final Throwable[] failure = new Throwable[1];
+        mStopped = false;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    long count = 0;
+                    try {
+                        while (!mStopped) {
+                            for (int j = 0; j < 256; j++) {
+                                operation(thread, (int) count);
+                                count++;
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                    counts[thread] = count;
+                }
+            };
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+        }
+        Thread.sleep(millis);
+        mStopped = true;
+        long total = 0;
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+            total += counts[i];
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (failure[0] != null) {
+            throw new IllegalStateException("operation failed: " + failure[0]);
+        }
+        return total * 1000.0 / elapsed;
+    }
+
+    /**
+     * Measures the throughput for each of the given thread counts and
+     * prints it under the given label.
+     */
+    void run(String label, int[] threadCounts) throws InterruptedException {
+        for (int i = 0; i < threadCounts.length; i++) {
+            measureThroughput(threadCounts[i], WARM_UP_MILLIS);
+            double throughput = measureThroughput(threadCounts[i], MEASURE_MILLIS);
+            System.out.println(label + "\tthreads=" + threadCounts[i] +
+                               "\tops/s=" + Math.round(throughput));
+        }
+    }
+
+    /**
+     * Returns the thread counts given on the command line, or the
+     * default ones.
+     */
+    static int[] getThreadCounts(String[] args) {
+        if (args.length == 0) {
+            return DEFAULT_THREAD_COUNTS;
+        }
+        int[] ret = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            ret[i] = Integer.parseInt(args[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Runs the garbage collector, so that a measurement of allocation
+     * starts with as little garbage on the heap as possible.
+     */
+    static void collectGarbage() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+    }
+
+    /**
+     * Returns the number of bytes in use on the heap.  The difference
+     * between two calls is the number of bytes allocated in between,
+     * provided that no collection ran; run the drivers that measure
+     * allocation with a young generation large enough for a whole pass
+     * (such as -Xmn1g), and call collectGarbage before it.  A JVM that
+     * hands out thread-local allocation buffers counts each buffer as
+     * used when it is handed out, so small passes read high unless
+     * the buffers are turned off (-XX:-UseTLAB on HotSpot).
+     */
+    static long getAllocatedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.math.BigDecimal;
+
+import javax.servlet.jsp.el.ELException;
+
+import junit.framework.TestCase;
+
+public class BinaryOperatorExpressionTest extends TestCase {
+
+    private MockVariableResolver resolver = new MockVariableResolver();
+
+    private BinaryOperatorExpression parse(String expression) throws ELException {
+        return (BinaryOperatorExpression)
+            new ExpressionEvaluatorImpl(true).parseExpressionString(expression);
+    }
+
+    private Object evaluate(Expression expression, Object a, Object b) throws ELException {
+        resolver.addVariable("a", a);
+        resolver.addVariable("b", b);
+        return expression.evaluate(resolver, null);
+    }
+
+    public void testComparesStringsAndMixedOperands() throws ELException {
+        BinaryOperatorExpression expression = parse("${a < b}");
+        assertEquals(Boolean.TRUE, evaluate(expression, "abc", "abd"));
+        assertEquals(Boolean.FALSE, evaluate(expression, "b", "a"));
+        assertEquals(Boolean.TRUE, evaluate(expression, "1", new Long(2)));
+    }
+
+    public void testAppliesOperatorsToUnboxedNumbers() throws ELException {
+        BinaryOperatorExpression expression = parse("${a + b < b}");
+        assertEquals(Boolean.FALSE, evaluate(expression, new Integer(1), new Long(2)));
+        assertEquals(Boolean.TRUE, evaluate(expression, new Integer(-1), new Long(2)));
+        assertEquals(Boolean.TRUE, evaluate(expression, new Float(-0.5f), new Long(2)));
+
+        expression = parse("${(a + b) * a - b}");
+        assertEquals(new Long(13), evaluate(expression, new Short((short) 3), new Byte((byte) 2)));
+        assertEquals(new Double(9.25), evaluate(expression, new Double(2.5), new Long(2)));
+        assertEquals(new Long(Long.MIN_VALUE),
+                     evaluate(parse("${a + b}"), new Long(Long.MAX_VALUE), new Integer(1)));
+        assertEquals(new BigDecimal("2.50"),
+                     evaluate(parse("${a * b}"), new BigDecimal("1.25"), new Long(2)));
+        assertEquals(new Double(7.5), evaluate(parse("${a * b}"), "2.5", new Long(3)));
+
+        assertEquals(Boolean.TRUE, evaluate(parse("${a == b}"), new Long(3), new Double(3.0)));
+        Double nan = new Double(Double.NaN);
+        assertEquals(Boolean.TRUE, evaluate(parse("${a == b}"), nan, nan));
+        assertEquals(Boolean.TRUE, evaluate(parse("${a <= b}"), nan, nan));
+        assertEquals(Boolean.FALSE, evaluate(parse("${a <= b}"), nan, new Double(Double.NaN)));
+    }
+
+    public void testComparesNonNumericOperandsForEquality() throws ELException {
+        BinaryOperatorExpression expression = parse("${a == b}");
+        assertEquals(Boolean.TRUE, evaluate(expression, "x", "x"));
+        assertEquals(Boolean.TRUE, evaluate(expression, new Long(3), new Integer(3)));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.jsp.el.Expression;
+
+/**
+ * Compares the evaluation throughput of the evaluation modes of
+ * ExpressionEvaluatorImpl.  Each expression is parsed (and compiled,
+ * for the compiled modes) once, and the resulting Expression is
+ * evaluated repeatedly, on each of the given thread counts (1 by
+ * default).
+ */
+public class EvaluationModeBenchmark {
+
+    static final String[] EXPRESSIONS = {
+        "${a * 2 + b - 3}",
+        "${bean.name}",
+        "${map.key}",
+        "${a > 3 && bean.active || b < 0}",
+        "${a > b ? a : b}",
+        "${list[1] + 1}",
+        "${a / 4.0 + b % 3}"
+    };
+
+    static final String[] MODE_NAMES = { "INTERPRETED", "COMPILED_TREE", "BYTECODE" };
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = (args.length == 0) ? new int[] { 1 } : Benchmark.getThreadCounts(args);
+
+        final MockVariableResolver resolver = new MockVariableResolver();
+        Map map = new HashMap();
+        map.put("key", "value");
+        List list = new ArrayList();
+        list.add(new Integer(1));
+        list.add(new Integer(2));
+        resolver.addVariable("a", new Integer(7));
+        resolver.addVariable("b", new Long(5));
+        resolver.addVariable("bean", new BeanInfoManagerTest.Bean());
+        resolver.addVariable("map", map);
+        resolver.addVariable("list", list);
+
+        for (int mode = 0; mode < ExpressionEvaluatorImpl.EVALUATION_MODES; mode++) {
+            ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+            evaluator.setEvaluationMode(mode);
+            evaluator.setCompileThreshold(0);
+            final Expression[] parsed = new Expression[EXPRESSIONS.length];
+            for (int i = 0; i < parsed.length; i++) {
+                parsed[i] = evaluator.parseExpression(EXPRESSIONS[i], Object.class, null);
+            }
+
+            new Benchmark() {
+                void operation(int thread, int iteration) throws Exception {
+                    sSink = parsed[iteration % parsed.length].evaluate(resolver);
+                }
+            }.run(MODE_NAMES[mode], threadCounts);
+        }
+    }
+}
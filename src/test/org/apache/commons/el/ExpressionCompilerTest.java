@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.jsp.el.ELException;
+
+import junit.framework.TestCase;
+
+public class ExpressionCompilerTest extends TestCase {
+
+    /** Expressions whose compiled evaluation must match the interpreter */
+    static final String[] EXPRESSIONS = {
+        "${1 + 2 * 3 - 4}", "${i + l}", "${i * d}", "${l - f}", "${s + 1}",
+        "${'1.5' + i}", "${bi + i}", "${bd * 2}", "${nothing + nothing}",
+        "${nothing + 1}", "${9223372036854775807 + 1}", "${i / 2}", "${i % 4}",
+        "${i div 3}", "${i mod 3}", "${-i}", "${- -d}", "${-s}",
+        "${i < l}", "${i <= 7}", "${d > i}", "${s >= '5'}", "${s lt 'a'}",
+        "${i == 7}", "${i != l}", "${d == 7.0}", "${s eq '5'}", "${nothing == null}",
+        "${bi == 7}", "${b and i > 3}", "${!b or nothing}", "${b && b || false}",
+        "${not b}", "${empty nothing}", "${empty list}", "${empty map}",
+        "${b ? 'yes' : 'no'}", "${i > 100 ? i : l}", "${bean.name}",
+        "${bean['name']}", "${map.key}", "${map['key']}", "${list[1]}",
+        "${array[0] + array[1]}", "${bean.name == 'bean'}", "${map.missing}",
+        "a${i}b${s}c", "${i}${l}", "x${nothing}y", "${true}", "${'text'}",
+        "${null}", "${1.5e3}"
+    };
+
+    public static class Bean {
+        public String getName() { return "bean"; }
+        public int getSize() { return 3; }
+        public String getBroken() { throw new IllegalStateException("broken"); }
+    }
+
+    public static class OtherBean {
+        public String getName() { return "other"; }
+        public long getSize() { return 5; }
+    }
+
+    private MockVariableResolver resolver;
+
+    protected void setUp() {
+        resolver = new MockVariableResolver();
+        resolver.addVariable("i", new Integer(7));
+        resolver.addVariable("l", new Long(12));
+        resolver.addVariable("d", new Double(2.5));
+        resolver.addVariable("f", new Float(0.5f));
+        resolver.addVariable("s", "5");
+        resolver.addVariable("b", Boolean.TRUE);
+        resolver.addVariable("bi", new BigInteger("7"));
+        resolver.addVariable("bd", new BigDecimal("1.25"));
+        resolver.addVariable("bean", new Bean());
+        Map map = new HashMap();
+        map.put("key", "value");
+        resolver.addVariable("map", map);
+        List list = new ArrayList();
+        list.add("zero");
+        list.add("one");
+        resolver.addVariable("list", list);
+        resolver.addVariable("array", new int[] { 3, 4 });
+    }
+
+    /**
+     * Evaluates the expression, returning the value or the message of
+     * the ELException thrown
+     */
+    private Object evaluate(ExpressionEvaluatorImpl evaluator, String expression) {
+        try {
+            return evaluator.evaluate(expression, Object.class, resolver, null);
+        } catch (ELException e) {
+            return "ELException: " + e.getMessage();
+        }
+    }
+
+    public void testCompiledTreeMatchesInterpreter() {
+        ExpressionEvaluatorImpl interpreter = new ExpressionEvaluatorImpl(true);
+        ExpressionEvaluatorImpl compiler = new ExpressionEvaluatorImpl(true);
+        compiler.setEvaluationMode(ExpressionEvaluatorImpl.COMPILED_TREE);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            assertEquals(EXPRESSIONS[i],
+                         evaluate(interpreter, EXPRESSIONS[i]),
+                         evaluate(compiler, EXPRESSIONS[i]));
+        }
+    }
+
+    public void testCompiledFormIsCached() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        evaluator.setEvaluationMode(ExpressionEvaluatorImpl.COMPILED_TREE);
+        evaluator.setCompileThreshold(0);
+        Object parsed = evaluator.parseExpressionString("${i + 1}");
+        Object first = evaluator.getCompiledExpression("${i + 1}", (Expression) parsed);
+        assertTrue(first instanceof ExpressionCompiler.CompiledTree);
+        assertSame(first, evaluator.getCompiledExpression("${i + 1}", (Expression) parsed));
+        assertEquals(((Expression) parsed).getExpressionString(),
+                     ((Expression) first).getExpressionString());
+        assertEquals(new Long(8), evaluator.evaluate("${i + 1}", Object.class, resolver, null));
+    }
+
+    public void testBytecodeMatchesInterpreter() {
+        ExpressionEvaluatorImpl interpreter = new ExpressionEvaluatorImpl(true);
+        ExpressionEvaluatorImpl compiler = new ExpressionEvaluatorImpl(true);
+        compiler.setEvaluationMode(ExpressionEvaluatorImpl.BYTECODE);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            assertEquals(EXPRESSIONS[i],
+                         evaluate(interpreter, EXPRESSIONS[i]),
+                         evaluate(compiler, EXPRESSIONS[i]));
+        }
+    }
+
+    public void testBytecodeCompilesEveryExpression() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(true);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            Object parsed = evaluator.parseExpressionString(EXPRESSIONS[i]);
+            if (parsed instanceof Expression) {
+                Expression compiled = BytecodeCompiler.compile((Expression) parsed);
+                assertTrue(EXPRESSIONS[i], compiled instanceof GeneratedExpression);
+                assertEquals(((Expression) parsed).getExpressionString(),
+                             compiled.getExpressionString());
+            }
+        }
+    }
+
+    public void testBytecodeCallsCachedGetters() throws ELException {
+        Expression parsed = (Expression) new ExpressionEvaluatorImpl(true)
+            .parseExpressionString("${bean.name}${bean.size + 1}${map.key}");
+        // Warm up the inline caches so the getters are called directly
+        assertEquals("bean4value", parsed.evaluate(resolver, null));
+        Expression compiled = BytecodeCompiler.compile(parsed);
+        assertTrue(compiled instanceof GeneratedExpression);
+        assertEquals("bean4value", compiled.evaluate(resolver, null));
+
+        // Receivers of other classes go through the suffix
+        resolver.addVariable("bean", new OtherBean());
+        resolver.addVariable("map", new TreeMap(Collections.singletonMap("key", "tree")));
+        assertEquals("other6tree", compiled.evaluate(resolver, null));
+        resolver.addVariable("bean", null);
+        assertEquals(parsed.evaluate(resolver, null), compiled.evaluate(resolver, null));
+        assertEquals("1tree", compiled.evaluate(resolver, null));
+    }
+
+    public void testBytecodeReportsGetterFailures() throws ELException {
+        ExpressionEvaluatorImpl interpreter = new ExpressionEvaluatorImpl(true);
+        Expression parsed = (Expression) interpreter.parseExpressionString("${bean.broken}");
+        Object expected;
+        try {
+            expected = parsed.evaluate(resolver, null);
+        } catch (ELException e) {
+            expected = "ELException: " + e.getMessage();
+        }
+        Expression compiled = BytecodeCompiler.compile(parsed);
+        assertTrue(compiled instanceof GeneratedExpression);
+        Object actual;
+        try {
+            actual = compiled.evaluate(resolver, null);
+        } catch (ELException e) {
+            actual = "ELException: " + e.getMessage();
+        }
+        assertEquals(expected, actual);
+    }
+
+    public static int twice(int i) { return i * 2; }
+    public static String concat(String a, Object b) { return a + b; }
+    public static boolean negate(boolean b) { return !b; }
+    public static void nothing() { }
+    public static char first(String s) { return s.charAt(0); }
+    public static String explode(String s) { throw new IllegalArgumentException(s); }
+
+    public void testBytecodeCallsBoundFunctions() throws Exception {
+        Map functions = new HashMap();
+        String[] names = { "twice", "concat", "negate", "nothing", "first", "explode" };
+        for (int i = 0; i < names.length; i++) {
+            Method[] methods = getClass().getMethods();
+            for (int j = 0; j < methods.length; j++) {
+                if (methods[j].getName().equals(names[i])) {
+                    functions.put(names[i], methods[j]);
+                }
+            }
+        }
+        MockFunctionMapper mapper = new MockFunctionMapper(functions);
+        String[] expressions = {
+            "${fn:twice(i) + fn:twice('3')}", "${fn:twice(d)}", "${fn:concat(s, l)}",
+            "${fn:concat(nothing, fn:negate(b))}", "${fn:nothing()}", "${fn:first('abc')}",
+            "${fn:first('')}", "${fn:explode('x')}", "${fn:twice(list)}"
+        };
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(true);
+        for (int i = 0; i < expressions.length; i++) {
+            Expression bound = ((Expression) evaluator.parseExpressionString(expressions[i]))
+                .bindFunctions(mapper);
+            Expression compiled = BytecodeCompiler.compile(bound);
+            assertTrue(expressions[i], compiled instanceof GeneratedExpression);
+            Object expected;
+            try {
+                expected = bound.evaluate(resolver, null);
+            } catch (ELException e) {
+                expected = "ELException: " + e.getMessage();
+            }
+            Object actual;
+            try {
+                actual = compiled.evaluate(resolver, null);
+            } catch (ELException e) {
+                actual = "ELException: " + e.getMessage();
+            }
+            assertEquals(expressions[i], expected, actual);
+        }
+    }
+
+    public void testHotExpressionsArePromoted() throws Exception {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        evaluator.setEvaluationMode(ExpressionEvaluatorImpl.BYTECODE);
+        evaluator.setCompileThreshold(3);
+        String expression = "${bean.size * i + 1}";
+        long promotions = ExpressionEvaluatorImpl.getPromotionCount();
+
+        Object parsed = evaluator.parseExpressionString(expression);
+        TieredExpression tiered = (TieredExpression)
+            evaluator.getCompiledExpression(expression, (Expression) parsed);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(tiered.isPromoted());
+            assertEquals(new Long(22), evaluator.evaluate(expression, Object.class, resolver, null));
+        }
+        for (int i = 0; i < 500 && !tiered.isPromoted(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(tiered.isPromoted());
+        assertTrue(tiered.mTarget instanceof GeneratedExpression);
+        assertTrue(ExpressionEvaluatorImpl.getPromotionCount() > promotions);
+        assertEquals(new Long(22), evaluator.evaluate(expression, Object.class, resolver, null));
+    }
+
+    public void testBoundCopiesOfCompiledExpressionsAreTiered() throws Exception {
+        Map functions = new HashMap();
+        functions.put("twice", getClass().getMethod("twice", new Class[] { Integer.TYPE }));
+        MockFunctionMapper mapper = new MockFunctionMapper(functions);
+        Expression parsed = (Expression)
+            new ExpressionEvaluatorImpl(true).parseExpressionString("${fn:twice(i) + 1}");
+        Expression compiled = BytecodeCompiler.compile(parsed);
+        assertTrue(compiled instanceof GeneratedExpression);
+
+        Expression bound = compiled.bindFunctions(mapper);
+        assertTrue(bound instanceof TieredExpression);
+        assertFalse(((TieredExpression) bound).isPromoted());
+        assertEquals(new Long(15), bound.evaluate(resolver, null));
+    }
+
+    public void testPromotionQueueIsBoundedAndPurged() throws Exception {
+        Expression parsed = (Expression)
+            new ExpressionEvaluatorImpl(true).parseExpressionString("${i + 1}");
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        ClassLoader loader = new ClassLoader(original) {};
+        TieredExpression[] expressions = new TieredExpression[TieredExpression.MAX_QUEUE_SIZE + 1];
+        try {
+            thread.setContextClassLoader(loader);
+            for (int i = 0; i < expressions.length; i++) {
+                expressions[i] = new TieredExpression(parsed, ExpressionEvaluatorImpl.BYTECODE, 1);
+            }
+        } finally {
+            thread.setContextClassLoader(original);
+        }
+
+        // Keep the compiler Thread from taking expressions off the queue
+        synchronized (TieredExpression.sQueue) {
+            TieredExpression.sQueue.clear();
+            for (int i = 0; i < expressions.length; i++) {
+                expressions[i].requestPromotion();
+            }
+            assertEquals(TieredExpression.MAX_QUEUE_SIZE, TieredExpression.sQueue.size());
+            assertTrue(expressions[0].mPromotionRequested);
+            assertFalse(expressions[expressions.length - 1].mPromotionRequested);
+
+            ExpressionEvaluatorImpl.purge(loader);
+            assertEquals(0, TieredExpression.sQueue.size());
+            assertFalse(expressions[0].mPromotionRequested);
+        }
+
+        // The compiler Thread doesn't belong to any application's ThreadGroup
+        assertNull(TieredExpression.sCompilerThread.getThreadGroup().getParent());
+        assertNull(TieredExpression.sCompilerThread.getContextClassLoader());
+    }
+
+    public void testUnknownModeIsRejected() {
+        try {
+            new ExpressionEvaluatorImpl().setEvaluationMode(-1);
+            fail("unknown mode accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
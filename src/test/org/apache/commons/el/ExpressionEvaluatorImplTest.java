@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javax.servlet.jsp.el.ELException;
+
+import junit.framework.TestCase;
+
+public class ExpressionEvaluatorImplTest extends TestCase {
+
+    /**
+     * Parses the given String on several threads at once and returns
+     * what each of them got (the parsed form or the ELException).
+     */
+    private Object[] parseConcurrently(final ExpressionEvaluatorImpl evaluator,
+                                       final String expression)
+        throws InterruptedException {
+        final Object[] results = new Object[16];
+        final Object gate = new Object();
+        final boolean[] open = new boolean[1];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    synchronized (gate) {
+                        while (!open[0]) {
+                            try {
+                                gate.wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                    try {
+                        results[index] = evaluator.parseExpressionString(expression);
+                    } catch (ELException e) {
+                        results[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        synchronized (gate) {
+            open[0] = true;
+            gate.notifyAll();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        return results;
+    }
+
+    public void testConcurrentParsesShareResult() throws InterruptedException {
+        ExpressionEvaluatorImpl evaluator =
+            new ExpressionEvaluatorImpl(new SegmentedLruCache());
+        Object[] results = parseConcurrently(evaluator, "${a.b + c[d] * 3}");
+        for (int i = 0; i < results.length; i++) {
+            assertTrue(results[i] instanceof Expression);
+            assertSame(results[0], results[i]);
+        }
+    }
+
+    public void testConcurrentParsesShareFailure() throws InterruptedException {
+        ExpressionEvaluatorImpl evaluator =
+            new ExpressionEvaluatorImpl(new SegmentedLruCache());
+        Object[] results = parseConcurrently(evaluator, "${a +}");
+        for (int i = 0; i < results.length; i++) {
+            assertTrue(results[i] instanceof ELException);
+            assertEquals(((ELException) results[0]).getMessage(),
+                         ((ELException) results[i]).getMessage());
+        }
+    }
+
+    public void testTextWithoutExpressionsIsNotParsedOrCached() throws ELException {
+        ExpressionEvaluatorImpl evaluator =
+            new ExpressionEvaluatorImpl(new SegmentedLruCache());
+        String[] texts = { "plain text", "$", "a$b{c}$$", "{x}$ {", "\\$x" };
+        for (int i = 0; i < texts.length; i++) {
+            assertSame(texts[i], evaluator.parseExpressionString(texts[i]));
+            assertEquals(new ExpressionEvaluatorImpl(true).parseUncached(texts[i]), texts[i]);
+        }
+        assertEquals(0, evaluator.getExpressionCache().size());
+        assertEquals(0, evaluator.getExpressionCache().getMissCount());
+        assertTrue(evaluator.parseExpressionString("\\${x}") instanceof ExpressionString);
+        assertEquals(1, evaluator.getExpressionCache().size());
+    }
+
+    public void testFailuresAreCached() {
+        ExpressionEvaluatorImpl evaluator =
+            new ExpressionEvaluatorImpl(new SegmentedLruCache());
+        String first = null;
+        for (int i = 0; i < 3; i++) {
+            try {
+                evaluator.parseExpressionString("${1 +* 2}");
+                fail("parse error expected");
+            } catch (ELException e) {
+                if (first == null) {
+                    first = e.getMessage();
+                }
+                assertEquals(first, e.getMessage());
+            }
+        }
+        assertEquals(1, evaluator.getFailureCache().size());
+        assertEquals(2, evaluator.getFailureCache().getHitCount());
+        assertEquals(0, evaluator.getFailureCache().getMissCount());
+        assertEquals(0, evaluator.getExpressionCache().size());
+    }
+
+    public void testStaticValueConversionsAreCached() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        Object first = evaluator.evaluate("12345", Integer.class, null, null);
+        assertEquals(new Integer(12345), first);
+        assertSame(first, evaluator.evaluate("12345", Integer.class, null, null));
+        assertEquals(Boolean.TRUE, evaluator.evaluate("true", Boolean.class, null, null));
+        assertEquals(new Long(7), evaluator.evaluate("7", Long.TYPE, null, null));
+    }
+
+    public void testCachesArePartitionedByContextClassLoader()
+        throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        ClassLoader loader = new ClassLoader(original) {};
+        try {
+            thread.setContextClassLoader(loader);
+            ExpressionCache cache = evaluator.getExpressionCache();
+            Object parsed = evaluator.parseExpressionString("${partitioned}");
+            assertSame(parsed, cache.get("${partitioned}"));
+            BeanInfoManager manager = BeanInfoManager.getBeanInfoManager(String.class);
+            assertSame(manager, BeanInfoManager.getBeanInfoManager(String.class));
+
+            thread.setContextClassLoader(original);
+            assertNotSame(cache, evaluator.getExpressionCache());
+            assertNotSame(manager, BeanInfoManager.getBeanInfoManager(String.class));
+            Object unrelated = evaluator.parseExpressionString("${unrelated}");
+
+            ExpressionEvaluatorImpl.purge(loader);
+            // Other applications' parse caches are kept
+            assertSame(unrelated, evaluator.getExpressionCache().get("${unrelated}"));
+            thread.setContextClassLoader(loader);
+            assertNotSame(cache, evaluator.getExpressionCache());
+            assertEquals(0, evaluator.getExpressionCache().size());
+        } finally {
+            thread.setContextClassLoader(original);
+        }
+    }
+
+    public void testCollectedPartitionsAreReplaced() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        ClassLoader loader = new ClassLoader(original) {};
+        try {
+            thread.setContextClassLoader(loader);
+            ExpressionCache cache = evaluator.getExpressionCache();
+            BeanInfoManager manager = BeanInfoManager.getBeanInfoManager(String.class);
+            CachePartition partition = CachePartition.getCurrent();
+
+            // What the garbage collector does when memory runs low
+            ((SoftReference) partition.mBeanInfoManagers.get(String.class)).clear();
+            assertNotSame(manager, BeanInfoManager.getBeanInfoManager(String.class));
+            ((SoftReference) CachePartition.sPartitionByClassLoader.get(loader)).clear();
+            assertNotSame(partition, CachePartition.getCurrent());
+            assertNotSame(cache, evaluator.getExpressionCache());
+            assertSame(CachePartition.getCurrent(), CachePartition.getCurrent());
+        } finally {
+            thread.setContextClassLoader(original);
+            ExpressionEvaluatorImpl.purge(loader);
+        }
+    }
+
+    public void testPurgedClassLoaderIsCollected() throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        // An evaluator whose parsed expressions outlive the purge
+        ExpressionEvaluatorImpl ownCache =
+            new ExpressionEvaluatorImpl(new SegmentedLruCache());
+        WeakReference ref;
+        try {
+            // Warm up everything that isn't about the throwaway ClassLoader
+            thread.setContextClassLoader(null);
+            evaluateBeanName(new PurgeBean(), new ExpressionEvaluatorImpl());
+            ref = new WeakReference(evaluateInThrowawayLoader(original, ownCache));
+        } finally {
+            thread.setContextClassLoader(original);
+        }
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            byte[][] garbage = new byte[64][];
+            for (int j = 0; j < garbage.length; j++) {
+                garbage[j] = new byte[64 * 1024];
+            }
+            Thread.sleep(10);
+        }
+        assertNull("purged ClassLoader was not collected", ref.get());
+        assertEquals(1, ownCache.getExpressionCache().size());
+    }
+
+    /**
+     * Evaluates a property of a bean loaded by a new ClassLoader, with
+     * that ClassLoader, the given one and no context ClassLoader, and
+     * with the given evaluator, then purges it and returns it.
+     */
+    private ClassLoader evaluateInThrowawayLoader(ClassLoader original,
+                                                  ExpressionEvaluatorImpl ownCache)
+        throws Exception {
+        URL location = PurgeBean.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { location }, null);
+        Object bean = loader.loadClass(PurgeBean.class.getName()).newInstance();
+        assertNotSame(PurgeBean.class, bean.getClass());
+
+        ClassLoader[] contextLoaders = { loader, original, null };
+        for (int i = 0; i < contextLoaders.length; i++) {
+            Thread.currentThread().setContextClassLoader(contextLoaders[i]);
+            assertEquals("purge", evaluateBeanName(bean, new ExpressionEvaluatorImpl()));
+        }
+        assertEquals("purge", evaluateBeanName(bean, ownCache));
+        Thread.currentThread().setContextClassLoader(original);
+        ExpressionEvaluatorImpl.purge(loader);
+        return loader;
+    }
+
+    /** Evaluates ${bean.name} in each evaluation mode */
+    private Object evaluateBeanName(Object bean, ExpressionEvaluatorImpl evaluator)
+        throws ELException {
+        MockVariableResolver resolver = new MockVariableResolver();
+        resolver.addVariable("bean", bean);
+        evaluator.setCompileThreshold(0);
+        Object ret = null;
+        int[] modes = {
+            ExpressionEvaluatorImpl.INTERPRETED,
+            ExpressionEvaluatorImpl.COMPILED_TREE,
+            ExpressionEvaluatorImpl.BYTECODE
+        };
+        for (int i = 0; i < modes.length; i++) {
+            evaluator.setEvaluationMode(modes[i]);
+            for (int j = 0; j < 3; j++) {
+                ret = evaluator.evaluate("${bean.name}", String.class, resolver, null);
+                assertEquals(ret, evaluator.parseExpression("${bean.name}", String.class, null)
+                             .evaluate(resolver));
+            }
+        }
+        return ret;
+    }
+
+    /** A bean to load with a throwaway ClassLoader */
+    public static class PurgeBean {
+        public String getName() {
+            return "purge";
+        }
+    }
+
+    public void testTypedEvaluationMatchesCoercion() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        MockVariableResolver resolver = new MockVariableResolver();
+        resolver.addVariable("i", new Integer(7));
+        resolver.addVariable("d", new Double(2.75));
+        resolver.addVariable("s", "12");
+        String[] expressions = {
+            "${i * 2 + 1}", "${d * i}", "${s}", "${i > d}", "${null}",
+            "${empty s}", "true", "42", "a${i}b", ""
+        };
+        for (int i = 0; i < expressions.length; i++) {
+            String expression = expressions[i];
+            Object booleanValue = evaluate(evaluator, expression, Boolean.class, resolver);
+            if (booleanValue instanceof Boolean) {
+                assertEquals(expression, booleanValue,
+                             Boolean.valueOf(evaluator.evaluateBoolean(expression, resolver, null)));
+            }
+            Object longValue = evaluate(evaluator, expression, Long.class, resolver);
+            if (longValue instanceof Long) {
+                assertEquals(expression, longValue,
+                             new Long(evaluator.evaluateLong(expression, resolver, null)));
+            }
+            Object doubleValue = evaluate(evaluator, expression, Double.class, resolver);
+            if (doubleValue instanceof Double) {
+                assertEquals(expression, doubleValue,
+                             new Double(evaluator.evaluateDouble(expression, resolver, null)));
+            }
+            assertEquals(expression, evaluator.evaluate(expression, String.class, resolver, null),
+                         evaluator.evaluateString(expression, resolver, null));
+
+            TypedExpression parsed = (TypedExpression)
+                evaluator.parseExpression(expression, Object.class, null);
+            if (longValue instanceof Long) {
+                assertEquals(expression, longValue, new Long(parsed.evaluateLong(resolver)));
+            }
+            assertEquals(expression, evaluator.evaluate(expression, String.class, resolver, null),
+                         parsed.evaluateString(resolver));
+        }
+    }
+
+    public void testParsedExpressionsConvertToExpectedType() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        MockVariableResolver resolver = new MockVariableResolver();
+        resolver.addVariable("i", new Integer(7));
+        resolver.addVariable("s", "12");
+        String[] expressions = { "${i + 1}", "${s}", "${null}", "${i > 3}", "12", "a${i}" };
+        Class[] types = {
+            Object.class, String.class, Boolean.class, Boolean.TYPE, Integer.TYPE,
+            Long.class, Double.TYPE, Character.class, java.math.BigDecimal.class
+        };
+        for (int i = 0; i < expressions.length; i++) {
+            for (int j = 0; j < types.length; j++) {
+                Object expected = evaluate(evaluator, expressions[i], types[j], resolver);
+                javax.servlet.jsp.el.Expression parsed =
+                    evaluator.parseExpression(expressions[i], types[j], null);
+                Object actual;
+                try {
+                    actual = parsed.evaluate(resolver);
+                } catch (ELException e) {
+                    actual = e;
+                }
+                if (expected instanceof ELException) {
+                    assertTrue(expressions[i] + " " + types[j], actual instanceof ELException);
+                    assertEquals(expressions[i] + " " + types[j],
+                                 ((ELException) expected).getMessage(),
+                                 ((ELException) actual).getMessage());
+                } else {
+                    assertEquals(expressions[i] + " " + types[j], expected, actual);
+                }
+            }
+        }
+    }
+
+    public void testOnlyImmutableStaticValuesAreConvertedWhenParsed() throws ELException {
+        java.beans.PropertyEditorManager.registerEditor(Counted.class, CountedEditor.class);
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(true);
+        javax.servlet.jsp.el.Expression parsed =
+            evaluator.parseExpression("counted", Counted.class, null);
+        assertEquals(0, CountedEditor.conversions);
+        Object first = parsed.evaluate(null);
+        assertTrue(first instanceof Counted);
+        assertNotSame(first, parsed.evaluate(null));
+        assertEquals(2, CountedEditor.conversions);
+    }
+
+    /** A mutable type converted by a PropertyEditor */
+    public static class Counted {
+    }
+
+    /** Counts the conversions to Counted */
+    public static class CountedEditor extends java.beans.PropertyEditorSupport {
+        static int conversions;
+
+        public void setAsText(String text) {
+            conversions++;
+            setValue(new Counted());
+        }
+    }
+
+    /** Evaluates the expression, returning the value or the ELException */
+    private Object evaluate(ExpressionEvaluatorImpl evaluator, String expression,
+                            Class expectedType, MockVariableResolver resolver) {
+        try {
+            return evaluator.evaluate(expression, expectedType, resolver, null);
+        } catch (ELException e) {
+            return e;
+        }
+    }
+}
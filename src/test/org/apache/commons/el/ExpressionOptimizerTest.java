@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.io.StringReader;
+
+import javax.servlet.jsp.el.ELException;
+
+import org.apache.commons.el.parser.ELParser;
+
+import junit.framework.TestCase;
+
+public class ExpressionOptimizerTest extends TestCase {
+
+    private MockVariableResolver resolver;
+
+    protected void setUp() {
+        resolver = new MockVariableResolver();
+        resolver.addVariable("x", "ex");
+        resolver.addVariable("y", "why");
+    }
+
+    /** Parses the String without optimizing it */
+    private Object parse(String expression) throws Exception {
+        return new ELParser(new StringReader(expression)).ExpressionString();
+    }
+
+    /** Evaluates the parsed value, returning the value or the ELException message */
+    private Object evaluate(Object parsed) {
+        if (!(parsed instanceof Expression)) {
+            return parsed;
+        }
+        try {
+            return ((Expression) parsed).evaluate(resolver, null);
+        } catch (ELException e) {
+            return "ELException: " + e.getMessage();
+        }
+    }
+
+    private void assertFolded(String expression) throws Exception {
+        Object original = parse(expression);
+        Object optimized = ExpressionOptimizer.optimize(parse(expression));
+        assertTrue(expression, optimized instanceof Literal);
+        assertEquals(expression, evaluate(original), evaluate(optimized));
+        assertEquals(expression, ((Expression) original).getExpressionString(),
+                     ((Expression) optimized).getExpressionString());
+    }
+
+    private void assertNotFolded(String expression) throws Exception {
+        Object original = parse(expression);
+        Object optimized = ExpressionOptimizer.optimize(parse(expression));
+        assertFalse(expression, optimized instanceof Literal);
+        assertEquals(expression, evaluate(original), evaluate(optimized));
+    }
+
+    public void testFoldsLiteralOperators() throws Exception {
+        assertFolded("${1024 * 1024}");
+        assertFolded("${1 + 2.5 - 3 * 4 / 5}");
+        assertFolded("${7 div 2}");
+        assertFolded("${1 div 0}");
+        assertFolded("${7 mod 2}");
+        assertFolded("${'a' == 'a'}");
+        assertFolded("${'a' < 'b'}");
+        assertFolded("${1 == 1.0}");
+        assertFolded("${null == 'a'}");
+        assertFolded("${true and false or true}");
+        assertFolded("${false and x}");
+        assertFolded("${true or x.y}");
+        assertFolded("${not empty 'literal'}");
+        assertFolded("${- -3}");
+        assertFolded("${true ? 1 : x}");
+        assertFolded("${(1 + 1) * 3}");
+    }
+
+    public void testLeavesFailuresAndWarningsToRuntime() throws Exception {
+        assertNotFolded("${'a' + 1}");
+        assertNotFolded("${null + 1}");
+        assertNotFolded("${1 mod 0}");
+        assertNotFolded("${1.5 mod 0.5}");
+        assertNotFolded("${'a' == 1}");
+        assertNotFolded("${1 < 'b'}");
+        assertNotFolded("${'true' and true}");
+        assertNotFolded("${-'a'}");
+        assertNotFolded("${true and x}");
+        assertNotFolded("${1 + x}");
+    }
+
+    public void testPrunesConstantConditions() throws Exception {
+        Object original = parse("${true ? x : y}");
+        Object optimized = ExpressionOptimizer.optimize(parse("${true ? x : y}"));
+        assertTrue(optimized instanceof ExpressionOptimizer.PrunedConditional);
+        assertEquals("ex", evaluate(optimized));
+        assertEquals(((Expression) original).getExpressionString(),
+                     ((Expression) optimized).getExpressionString());
+        assertEquals("why", evaluate(ExpressionOptimizer.optimize(parse("${null ? x : y}"))));
+        Expression bound = ((Expression) optimized).bindFunctions(null);
+        assertTrue(bound instanceof ExpressionOptimizer.PrunedConditional);
+        assertEquals("ex", evaluate(bound));
+    }
+
+    public void testCollapsesConstantExpressionStrings() throws Exception {
+        assertEquals("a3b1.5c", ExpressionOptimizer.optimize(parse("a${1 + 2}b${1.5}c${null}")));
+        Object optimized = ExpressionOptimizer.optimize(parse("a${1 + 2}b${x}"));
+        assertTrue(optimized instanceof ExpressionString);
+        assertEquals("a3bex", evaluate(optimized));
+        assertEquals("a${(1 + 2)}b${x}", ((ExpressionString) optimized).getExpressionString());
+    }
+
+    public void testEvaluatorUsesOptimizedForm() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(true);
+        assertTrue(evaluator.parseExpressionString("${1024 * 1024}") instanceof Literal);
+        assertEquals(new Long(1048576),
+                     evaluator.evaluate("${1024 * 1024}", Object.class, resolver, null));
+        assertEquals(new Integer(12),
+                     evaluator.evaluate("1${1 + 1}", Integer.class, resolver, null));
+        assertEquals("${(1024 * 1024)}", evaluator.parseAndRender("${1024 * 1024}"));
+    }
+
+    public void testParseAndRenderShowsTheUnfoldedExpression() throws ELException {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        assertEquals("a1b", evaluator.parseExpressionString("a${1}b"));
+        // As before constant folding: an ExpressionString is also an
+        // Expression, and is rendered as one
+        assertEquals("${a${1}b}", evaluator.parseAndRender("a${1}b"));
+        assertEquals("${(1 + 2)}", evaluator.parseAndRender("${1 + 2}"));
+        assertEquals("plain", evaluator.parseAndRender("plain"));
+        assertEquals("", evaluator.parseAndRender(""));
+    }
+}
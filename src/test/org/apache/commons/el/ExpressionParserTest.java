@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.servlet.jsp.el.ELException;
+
+import org.apache.commons.el.parser.ELParser;
+import org.apache.commons.el.parser.ELParserTokenManager;
+import org.apache.commons.el.parser.ParseException;
+import org.apache.commons.el.parser.SimpleCharStream;
+import org.apache.commons.el.parser.Token;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that ExpressionParser builds the same trees as the generated
+ * ELParser, and rejects the same Strings.
+ */
+public class ExpressionParserTest extends TestCase {
+
+    private static final String[] CORPUS = {
+        "text", "$", "$$", "$a{b", "a$", "$${x}", "{}", "a${x}b${y}c",
+        "${x}", "${ x }", "${\tx\r\n}", "${x.y.z}", "${x[0]['a'][y.z]}",
+        "${true}", "${false}", "${null}", "${trueish}", "${nullx}",
+        "${1}", "${1.}", "${1.5}", "${.5}", "${1e3}", "${1E+3}", "${1.5e-3}",
+        "${1e}", "${1.e}", "${1.e5}", "${1.2.3}", "${x.5}", "${007}",
+        "${99999999999999999999}",
+        "${'a'}", "${\"b\"}", "${'a\\'b'}", "${\"a\\\"b\\\\c\"}", "${'a\"b'}",
+        "${'a\\q'}", "${'a}", "${\"a\\\"}", "${''}",
+        "${a + b - c * d / e div f % g mod h}",
+        "${a == b != c eq d ne e}", "${a < b > c <= d >= e lt f gt g le h ge i}",
+        "${a and b && c or d || e}", "${not a}", "${!a}", "${-a}", "${- - a}",
+        "${not empty -a}", "${empty x.y}", "${a-b}", "${a--b}",
+        "${a ? b : c}", "${a ? b ? c : d : e}", "${a ? b : c ? d : e}",
+        "${(a ? b : c) ? d : e}", "${a ? b}", "${a ? b :}", "${? a}",
+        "${f()}", "${f(a)}", "${f(a, b)}", "${fn:f(a, 'b')}", "${fn : f (1)}",
+        "${fn:f}", "${fn:1(2)}", "${f(}", "${f(a,)}", "${x ? a : f(1)}",
+        "${x ? a : b}", "${x ? (a) : f(1)}", "${f(a)[0].b}", "${(a).b}",
+        "${$a}", "${#a}", "${a#b}", "${a$b}", "${_a1}", "${\u00e9t\u00e9}",
+        "${a\u0661}", "${\u0661}", "${\u3042}",
+        "${a = b}", "${a & b}", "${a | b}", "${a @ b}", "${", "${}", "${x",
+        "${x}}", "${x} ${y}", "${x}$", "${x}${y}", "${(x}", "${x)}",
+        "${a.true}", "${a.}", "${[a]}", "${a[b}", "${a b}", "${x instanceof y}",
+    };
+
+    private static final String[] NAMES = {
+        "a", "b", "x1", "$y", "#z", "_", "\u00e9t\u0661", "trueish",
+    };
+
+    private static final String[] LITERALS = {
+        "true", "false", "null", "0", "42", "1.5", ".5", "1e3", "2.E-1",
+        "'s'", "\"t\"", "'it\\'s'", "\"q\\\"\\\\\"",
+    };
+
+    private static final String[] BINARY_OPERATORS = {
+        "+", "-", "*", "/", "div", "%", "mod", "==", "eq", "!=", "ne", "<",
+        "lt", ">", "gt", "<=", "le", ">=", "ge", "and", "&&", "or", "||",
+    };
+
+    private static final String[] UNARY_OPERATORS = {
+        "-", "!", "not ", "empty ",
+    };
+
+    private static final String MUTATIONS = "${}()[].,:?'\"\\ -!=<>&|ab1e";
+
+    /** Describes the parsed value, or the failure to parse it */
+    private static String parseWithELParser(String expression) {
+        try {
+            return describe(new ELParser(new StringReader(expression)).ExpressionString());
+        } catch (ParseException e) {
+            return "failed";
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    /** Describes the parsed value, or the failure to parse it */
+    private static String parseWithExpressionParser(String expression) {
+        try {
+            Object parsed = ExpressionParser.parse(expression);
+            return (parsed == null) ? "failed" : describe(parsed);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private static String describe(Object parsed) {
+        StringBuffer buf = new StringBuffer();
+        describe(parsed, buf);
+        return buf.toString();
+    }
+
+    private static void describe(Object parsed, StringBuffer buf) {
+        if (parsed instanceof String) {
+            buf.append('"').append(parsed).append('"');
+        } else if (parsed instanceof ExpressionString) {
+            describe("ExpressionString", ((ExpressionString) parsed).getElements(), buf);
+        } else if (parsed instanceof BinaryOperatorExpression) {
+            BinaryOperatorExpression expression = (BinaryOperatorExpression) parsed;
+            buf.append("Binary(");
+            describe(expression.getExpression(), buf);
+            for (int i = 0; i < expression.getOperators().size(); i++) {
+                buf.append(' ').append(((BinaryOperator) expression.getOperators().get(i)).getOperatorSymbol()).append(' ');
+                describe(expression.getExpressions().get(i), buf);
+            }
+            buf.append(')');
+        } else if (parsed instanceof UnaryOperatorExpression) {
+            UnaryOperatorExpression expression = (UnaryOperatorExpression) parsed;
+            buf.append("Unary(");
+            if (expression.getOperator() != null) {
+                buf.append(expression.getOperator().getOperatorSymbol());
+            } else {
+                for (Iterator i = expression.getOperators().iterator(); i.hasNext();) {
+                    buf.append('[').append(((UnaryOperator) i.next()).getOperatorSymbol()).append(']');
+                }
+            }
+            buf.append(' ');
+            describe(expression.getExpression(), buf);
+            buf.append(')');
+        } else if (parsed instanceof ConditionalExpression) {
+            ConditionalExpression expression = (ConditionalExpression) parsed;
+            describe("Conditional", new Object[] { expression.getCondition(),
+                expression.getTrueBranch(), expression.getFalseBranch() }, buf);
+        } else if (parsed instanceof ComplexValue) {
+            ComplexValue value = (ComplexValue) parsed;
+            buf.append("Complex(");
+            describe(value.getPrefix(), buf);
+            describe("", value.getSuffixes(), buf);
+            buf.append(')');
+        } else if (parsed instanceof PropertySuffix) {
+            buf.append('.').append(((PropertySuffix) parsed).getName());
+        } else if (parsed instanceof ArraySuffix) {
+            describe("Index", new Object[] { ((ArraySuffix) parsed).getIndex() }, buf);
+        } else if (parsed instanceof FunctionInvocation) {
+            FunctionInvocation invocation = (FunctionInvocation) parsed;
+            describe("Function " + invocation.getFunctionName(), invocation.getArgumentList(), buf);
+        } else if (parsed instanceof NamedValue) {
+            buf.append("Named ").append(((NamedValue) parsed).getName());
+        } else if (parsed instanceof Literal) {
+            Object value = ((Literal) parsed).getValue();
+            buf.append(parsed.getClass().getName()).append(' ')
+               .append(value == null ? null : value.getClass().getName()).append(' ').append(value);
+        } else {
+            fail("Unexpected node " + parsed);
+        }
+    }
+
+    private static void describe(String name, Object[] children, StringBuffer buf) {
+        buf.append(name).append('[');
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            describe(children[i], buf);
+        }
+        buf.append(']');
+    }
+
+    private static void describe(String name, List children, StringBuffer buf) {
+        describe(name, children.toArray(), buf);
+    }
+
+    private static void assertSameParse(String expression) {
+        assertEquals(expression, parseWithELParser(expression), parseWithExpressionParser(expression));
+    }
+
+    public void testCorpusParsesAsWithELParser() {
+        for (int i = 0; i < CORPUS.length; i++) {
+            assertSameParse(CORPUS[i]);
+        }
+        assertEquals("failed", parseWithExpressionParser("${x ? a : f(1)}"));
+        assertEquals("java.lang.NumberFormatException", parseWithExpressionParser("${99999999999999999999}"));
+    }
+
+    public void testGeneratedExpressionsParseAsWithELParser() {
+        Random random = new Random(20061017L);
+        int parsed = 0;
+        for (int i = 0; i < 20000; i++) {
+            StringBuffer buf = new StringBuffer();
+            if (random.nextInt(4) == 0) {
+                buf.append(random.nextBoolean() ? "a $" : "$b{");
+            }
+            buf.append("${");
+            generate(random, 4, buf);
+            buf.append('}');
+            if (random.nextInt(4) == 0) {
+                buf.append(random.nextBoolean() ? " ${x}" : "$");
+            }
+            if (random.nextInt(3) == 0) {
+                int index = random.nextInt(buf.length());
+                if (random.nextBoolean()) {
+                    buf.deleteCharAt(index);
+                } else {
+                    buf.insert(index, MUTATIONS.charAt(random.nextInt(MUTATIONS.length())));
+                }
+            }
+            String expression = buf.toString();
+            assertSameParse(expression);
+            if (!"failed".equals(parseWithExpressionParser(expression))) {
+                parsed++;
+            }
+        }
+        // Make sure the corpus isn't mostly errors
+        assertTrue(String.valueOf(parsed), parsed > 10000);
+    }
+
+    static void generate(Random random, int depth, StringBuffer buf) {
+        if (random.nextBoolean()) {
+            buf.append(' ');
+        }
+        switch (depth <= 0 ? random.nextInt(2) : random.nextInt(9)) {
+        case 0:
+            buf.append(LITERALS[random.nextInt(LITERALS.length)]);
+            break;
+        case 1:
+            buf.append(NAMES[random.nextInt(NAMES.length)]);
+            break;
+        case 2:
+        case 3:
+            generate(random, depth - 1, buf);
+            buf.append(' ').append(BINARY_OPERATORS[random.nextInt(BINARY_OPERATORS.length)]).append(' ');
+            generate(random, depth - 1, buf);
+            break;
+        case 4:
+            buf.append(UNARY_OPERATORS[random.nextInt(UNARY_OPERATORS.length)]);
+            generate(random, depth - 1, buf);
+            break;
+        case 5:
+            generate(random, depth - 1, buf);
+            buf.append(" ? ");
+            generate(random, depth - 1, buf);
+            buf.append(" : ");
+            generate(random, depth - 1, buf);
+            break;
+        case 6:
+            buf.append('(');
+            generate(random, depth - 1, buf);
+            buf.append(')');
+            break;
+        case 7:
+            buf.append(NAMES[random.nextInt(NAMES.length)]);
+            buf.append(random.nextBoolean() ? ".p" : "[");
+            if (buf.charAt(buf.length() - 1) == '[') {
+                generate(random, depth - 1, buf);
+                buf.append(']');
+            }
+            break;
+        default:
+            buf.append(random.nextBoolean() ? "fn:f(" : "g(");
+            int arguments = random.nextInt(3);
+            for (int i = 0; i < arguments; i++) {
+                if (i > 0) {
+                    buf.append(',');
+                }
+                generate(random, depth - 1, buf);
+            }
+            buf.append(')');
+            break;
+        }
+    }
+
+    public void testEvaluatorReportsELParserErrors() {
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(true);
+        String[] invalid = { "${x ? a : f(1)}", "${a.}", "${'a\\q'}", "${" };
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                evaluator.parseExpressionString(invalid[i]);
+                fail(invalid[i]);
+            } catch (ELException e) {
+                try {
+                    new ELParser(new StringReader(invalid[i])).ExpressionString();
+                    fail(invalid[i]);
+                } catch (ParseException pe) {
+                    assertEquals(ExpressionEvaluatorImpl.formatParseException(invalid[i], pe), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Describes the tokens and positions the token manager produces */
+    private static String tokenize(SimpleCharStream stream) {
+        ELParserTokenManager tokens = new ELParserTokenManager(stream);
+        StringBuffer buf = new StringBuffer();
+        for (Token token = tokens.getNextToken(); token.kind != 0; token = tokens.getNextToken()) {
+            buf.append(token.kind).append(' ').append(token.image).append(' ')
+               .append(token.beginLine).append(':').append(token.beginColumn).append('-')
+               .append(token.endLine).append(':').append(token.endColumn).append('\n');
+        }
+        return buf.toString();
+    }
+
+    /** Returns the ParseException message, which includes the position */
+    private static String getParseError(ELParser parser) {
+        try {
+            parser.ExpressionString();
+            return null;
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+    }
+
+    public void testStringCharStreamMatchesReader() {
+        String[] inputs = {
+            "${a}", "x\r\n${\ta +\r\n b\n}\r$", "${'a\tb'\n\n\t\t.c}", "",
+            "${a\r\n\r\n+ 'unclosed}", "${\t\t\r\r\n\n f(1, }",
+        };
+        for (int i = 0; i < inputs.length; i++) {
+            assertEquals(inputs[i], tokenize(new SimpleCharStream(new StringReader(inputs[i]))),
+                         tokenize(new SimpleCharStream(inputs[i])));
+            assertEquals(inputs[i], getParseError(new ELParser(new StringReader(inputs[i]))),
+                         getParseError(new ELParser(new ELParserTokenManager(new SimpleCharStream(inputs[i])))));
+        }
+    }
+
+    /** Returns the error message of the String that fails to parse */
+    private static String getParseError(ExpressionEvaluatorImpl evaluator, String expression) {
+        try {
+            return "parsed " + evaluator.parseExpressionString(expression);
+        } catch (ELException e) {
+            return e.getMessage();
+        }
+    }
+
+    public void testPooledParsersAreReusedSafely() throws Exception {
+        PooledParser parser = PooledParser.acquire("${a +}");
+        try {
+            parser.parse();
+            fail();
+        } catch (ParseException e) {
+            // expected
+        }
+        parser.release();
+        PooledParser reused = PooledParser.acquire("a${b}");
+        assertSame(parser, reused);
+        assertEquals(describe(new ELParser(new StringReader("a${b}")).ExpressionString()), describe(reused.parse()));
+        reused.release();
+
+        final String[] invalid = { "${a +}", "${f(}", "x${'a\\q'}", "${a ? b}", "${", "${a.}" };
+        final String[] expected = new String[invalid.length];
+        for (int i = 0; i < invalid.length; i++) {
+            expected[i] = getParseError(new ExpressionEvaluatorImpl(true), invalid[i]);
+        }
+        final String[] failures = new String[1];
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(true);
+                    for (int j = 0; j < 500; j++) {
+                        int index = (j + offset) % invalid.length;
+                        String message = getParseError(evaluator, invalid[index]);
+                        if (!expected[index].equals(message)) {
+                            synchronized (failures) {
+                                failures[0] = invalid[index] + ": " + message;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertNull(failures[0]);
+    }
+}
@@ -17,7 +17,9 @@
 */
 package org.apache.commons.el;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.jsp.el.ELException;
@@ -38,6 +40,7 @@ public class FunctionBindingTest extends TestCase {
     public static String before() {return "before";}
     public static String after() {return "after";}
     public static String echo(final String s) {return s;}
+    public static double half(final double d) {return d / 2;}
     private static class UpdatableFunctionMapper implements FunctionMapper {
         private Map mappings = new HashMap();
         public void setMapping(
@@ -93,4 +96,126 @@ public class FunctionBindingTest extends TestCase {
            "before",
            nestedExpr.evaluate(emptyVariableResolver));
     }
+
+    public void testBindingSharesFunctionFreeSubtrees() throws ELException, NoSuchMethodException {
+        final UpdatableFunctionMapper fm = new UpdatableFunctionMapper();
+        fm.setMapping("echo", FunctionBindingTest.class.getDeclaredMethod("echo", new Class[]{String.class}));
+        final ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+
+        final org.apache.commons.el.Expression plain = (org.apache.commons.el.Expression)
+            evaluator.parseExpressionString("${a.b[c] + 1 > 2 ? 'x' : -d}");
+        assertSame(plain, plain.bindFunctions(fm));
+        assertSame(plain, evaluator.bindFunctions(plain, fm));
+
+        final ComplexValue withFunction = (ComplexValue)
+            evaluator.parseExpressionString("${echo(a.b)[c.d]}");
+        final ComplexValue bound = (ComplexValue) evaluator.bindFunctions(withFunction, fm);
+        assertTrue(bound.getPrefix() instanceof BoundFunctionInvocation);
+        assertSame(((FunctionInvocation) withFunction.getPrefix()).getArgumentList().get(0),
+                   ((FunctionInvocation) bound.getPrefix()).getArgumentList().get(0));
+        assertSame(withFunction.getSuffixes().get(0), bound.getSuffixes().get(0));
+        assertSame(bound, evaluator.bindFunctions(withFunction, fm));
+        assertNotSame(bound, evaluator.bindFunctions(withFunction, new UpdatableFunctionMapper()));
+    }
+
+    public void testArgumentCoercionErrorsNameTheParameterType() throws ELException, NoSuchMethodException {
+        final UpdatableFunctionMapper fm = new UpdatableFunctionMapper();
+        fm.setMapping("half", FunctionBindingTest.class.getDeclaredMethod("half", new Class[]{Double.TYPE}));
+        final ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        assertEquals(new Double(1.5), evaluator.parseExpression("${half(3)}", Object.class, fm).evaluate(null));
+        final Expression expr = evaluator.parseExpression("${half(true)}", Object.class, fm);
+        try {
+            expr.evaluate(null);
+            fail("a boolean argument should not coerce to double");
+        } catch (ELException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("\"double\"") >= 0);
+        }
+    }
+
+    public void testCachedBindingsFollowRemappedFunctions() throws ELException, NoSuchMethodException {
+        final UpdatableFunctionMapper fm = new UpdatableFunctionMapper();
+        final Method before = FunctionBindingTest.class.getDeclaredMethod("before", new Class[0]);
+        final Method after = FunctionBindingTest.class.getDeclaredMethod("after", new Class[0]);
+        final ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        final VariableResolver resolver = new MockVariableResolver();
+
+        fm.setMapping("f", before);
+        final Expression first = evaluator.parseExpression("${f()}", String.class, fm);
+        assertEquals("before", first.evaluate(resolver));
+        assertEquals("before", evaluator.parseExpression("${f()}", String.class, fm).evaluate(resolver));
+        fm.setMapping("f", after);
+        assertEquals("after", evaluator.parseExpression("${f()}", String.class, fm).evaluate(resolver));
+        assertEquals("before", first.evaluate(resolver));
+
+        // an unmapped function is not remembered as unmapped
+        final Expression unmapped = evaluator.parseExpression("${g()}", String.class, fm);
+        try {
+            unmapped.evaluate(resolver);
+            fail();
+        } catch (ELException e) {
+            assertEquals("No function is mapped to the name \"g\"", e.getMessage());
+        }
+        fm.setMapping("g", before);
+        assertEquals("before", evaluator.parseExpression("${g()}", String.class, fm).evaluate(resolver));
+    }
+
+    private static int calls;
+    public static String shout(final String s) {calls++; return s.toUpperCase();}
+
+    public void testPureFunctionsAreFoldedAndMemoized() throws ELException, NoSuchMethodException {
+        final Method shout = FunctionBindingTest.class.getDeclaredMethod("shout", new Class[]{String.class});
+        final UpdatableFunctionMapper fm = new UpdatableFunctionMapper();
+        fm.setMapping("shout", shout);
+        final ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        assertNull(ExpressionEvaluatorImpl.getPureFunction(shout));
+        final PureFunction pure = ExpressionEvaluatorImpl.registerPureFunction(shout, 2);
+        assertSame(pure, ExpressionEvaluatorImpl.getPureFunction(shout));
+        calls = 0;
+
+        final org.apache.commons.el.Expression literal =
+            evaluator.bindFunctions((org.apache.commons.el.Expression)
+                                    evaluator.parseExpressionString("${shout('a')}"), fm);
+        assertTrue(literal instanceof Literal);
+        assertEquals("A", literal.evaluate(null, null));
+        assertEquals("shout(\"a\")", literal.getExpressionString());
+        assertEquals(1, calls);
+
+        final MockVariableResolver resolver = new MockVariableResolver();
+        final Expression expr = evaluator.parseExpression("${shout(x)}", String.class, fm);
+        final String[] values = { "b", "c", "b", "d", "b" };
+        final String[] expected = { "B", "C", "B", "D", "B" };
+        for (int i = 0; i < values.length; i++) {
+            resolver.addVariable("x", values[i]);
+            assertEquals(expected[i], expr.evaluate(resolver));
+        }
+        // the folded call was cached too, and then evicted
+        assertEquals(4, calls);
+        assertEquals(2, pure.getHitCount());
+        assertEquals(4, pure.getMissCount());
+        assertEquals(2, pure.size());
+        assertEquals(2, pure.getEvictionCount());
+    }
+
+    public static int count(final List l) {calls++; return l.size();}
+
+    public void testPureFunctionsDoNotMemoizeMutableArguments()
+        throws ELException, NoSuchMethodException {
+        final Method count = FunctionBindingTest.class.getDeclaredMethod("count", new Class[]{List.class});
+        final UpdatableFunctionMapper fm = new UpdatableFunctionMapper();
+        fm.setMapping("count", count);
+        final PureFunction pure = ExpressionEvaluatorImpl.registerPureFunction(count);
+        calls = 0;
+
+        final Expression expr =
+            new ExpressionEvaluatorImpl().parseExpression("${count(l)}", Integer.class, fm);
+        final MockVariableResolver resolver = new MockVariableResolver();
+        final List list = new ArrayList();
+        resolver.addVariable("l", list);
+        assertEquals(new Integer(0), expr.evaluate(resolver));
+        list.add("x");
+        assertEquals(new Integer(1), expr.evaluate(resolver));
+        assertEquals(2, calls);
+        assertEquals(0, pure.size());
+        assertEquals(0, pure.getHitCount() + pure.getMissCount());
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class IntrinsicFunctionInvocationTest extends TestCase {
+
+    /** Stands in for the JSTL function when the intrinsic falls back to it */
+    public static int length(Object o) {
+        return -1;
+    }
+
+    private MockVariableResolver resolver = new MockVariableResolver();
+
+    private Object evaluate(int intrinsic, String expression) throws Exception {
+        FunctionInvocation call = (FunctionInvocation)
+            new ExpressionEvaluatorImpl(true).parseExpressionString(expression);
+        Class[] types = (Class[]) IntrinsicFunctionInvocation.FUNCTIONS[intrinsic][1];
+        // Any method with the parameter types gives the intrinsic its coercions
+        Method method = getClass().getMethod("length", new Class[] { Object.class });
+        if (types.length != 1 || types[0] != Object.class) {
+            method = IntrinsicFunctionInvocationTest.class.getMethod("signature" + types.length, types);
+        }
+        return new IntrinsicFunctionInvocation(method, call.getFunctionName(),
+                                               call.getArgumentList(), intrinsic)
+            .evaluate(resolver, null);
+    }
+
+    public static void signature1(String s) { }
+    public static void signature2(String s, String t) { }
+    public static void signature2(String[] s, String t) { }
+    public static void signature3(String s, int i, int j) { }
+
+    public void testRecognizesJstlFunctions() {
+        String functions = IntrinsicFunctionInvocation.FUNCTIONS_CLASS;
+        assertEquals(IntrinsicFunctionInvocation.LENGTH,
+                     IntrinsicFunctionInvocation.getIntrinsic(functions, "length",
+                                                              new Class[] { Object.class }));
+        assertEquals(IntrinsicFunctionInvocation.SUBSTRING,
+                     IntrinsicFunctionInvocation.getIntrinsic(
+                         functions, "substring",
+                         new Class[] { String.class, Integer.TYPE, Integer.TYPE }));
+        assertEquals(-1, IntrinsicFunctionInvocation.getIntrinsic(functions, "length",
+                                                                  new Class[] { String.class }));
+        assertEquals(-1, IntrinsicFunctionInvocation.getIntrinsic(getClass().getName(), "length",
+                                                                  new Class[] { Object.class }));
+    }
+
+    public void testIntrinsicsMatchJstl() throws Exception {
+        resolver.addVariable("list", Arrays.asList(new String[] { "a", "b", "c" }));
+        resolver.addVariable("array", new int[4]);
+        resolver.addVariable("strings", new String[] { "x", null, "z" });
+        resolver.addVariable("map", Collections.singletonMap("k", "v"));
+        resolver.addVariable("iterator", Collections.EMPTY_LIST.iterator());
+
+        assertEquals(new Integer(5), evaluate(IntrinsicFunctionInvocation.LENGTH, "${fn:length('hello')}"));
+        assertEquals(new Integer(3), evaluate(IntrinsicFunctionInvocation.LENGTH, "${fn:length(list)}"));
+        assertEquals(new Integer(4), evaluate(IntrinsicFunctionInvocation.LENGTH, "${fn:length(array)}"));
+        assertEquals(new Integer(1), evaluate(IntrinsicFunctionInvocation.LENGTH, "${fn:length(map)}"));
+        assertEquals(new Integer(0), evaluate(IntrinsicFunctionInvocation.LENGTH, "${fn:length(nothing)}"));
+        assertEquals(new Integer(-1), evaluate(IntrinsicFunctionInvocation.LENGTH, "${fn:length(iterator)}"));
+
+        assertEquals("a &lt;b&gt; &amp; &#034;c&#039;",
+                     evaluate(IntrinsicFunctionInvocation.ESCAPE_XML, "${fn:escapeXml('a <b> & \"c\\'')}"));
+        assertEquals("plain", evaluate(IntrinsicFunctionInvocation.ESCAPE_XML, "${fn:escapeXml('plain')}"));
+        assertEquals("", evaluate(IntrinsicFunctionInvocation.ESCAPE_XML, "${fn:escapeXml(nothing)}"));
+        assertEquals(Boolean.TRUE, evaluate(IntrinsicFunctionInvocation.CONTAINS, "${fn:contains('abc', 'b')}"));
+        assertEquals(Boolean.TRUE, evaluate(IntrinsicFunctionInvocation.CONTAINS, "${fn:contains('abc', nothing)}"));
+        assertEquals(Boolean.TRUE,
+                     evaluate(IntrinsicFunctionInvocation.CONTAINS_IGNORE_CASE, "${fn:c('aBc', 'bC')}"));
+        assertEquals(Boolean.FALSE, evaluate(IntrinsicFunctionInvocation.STARTS_WITH, "${fn:s('abc', 'b')}"));
+        assertEquals(new Integer(2), evaluate(IntrinsicFunctionInvocation.INDEX_OF, "${fn:i('abc', 'c')}"));
+        assertEquals("bc", evaluate(IntrinsicFunctionInvocation.SUBSTRING, "${fn:s('abcd', 1, 3)}"));
+        assertEquals("abcd", evaluate(IntrinsicFunctionInvocation.SUBSTRING, "${fn:s('abcd', -1, 9)}"));
+        assertEquals("", evaluate(IntrinsicFunctionInvocation.SUBSTRING, "${fn:s('abcd', 4, 9)}"));
+        assertEquals("", evaluate(IntrinsicFunctionInvocation.SUBSTRING, "${fn:s('abcd', 3, 1)}"));
+        assertEquals("bcd", evaluate(IntrinsicFunctionInvocation.SUBSTRING, "${fn:s('abcd', '1', -1)}"));
+        assertEquals("ABC", evaluate(IntrinsicFunctionInvocation.TO_UPPER_CASE, "${fn:u('abc')}"));
+        assertEquals("abc", evaluate(IntrinsicFunctionInvocation.TO_LOWER_CASE, "${fn:l('ABC')}"));
+        assertEquals("abc", evaluate(IntrinsicFunctionInvocation.TRIM, "${fn:t(' abc ')}"));
+        assertEquals("x, null, z", evaluate(IntrinsicFunctionInvocation.JOIN, "${fn:j(strings, ', ')}"));
+        assertEquals("", evaluate(IntrinsicFunctionInvocation.JOIN, "${fn:j(nothing, ', ')}"));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the hit throughput of the parse cache as the thread count
+ * grows: SegmentedLruCache on its own, the synchronized HashMap it
+ * replaced, and ExpressionEvaluatorImpl.parseExpressionString (a hit in
+ * the context ClassLoader's partition).  Every lookup is a hit.
+ */
+public class ParseCacheBenchmark {
+
+    /** The number of distinct expression Strings looked up */
+    static final int EXPRESSIONS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = Benchmark.getThreadCounts(args);
+        final String[] keys = new String[EXPRESSIONS];
+        final SegmentedLruCache cache = new SegmentedLruCache();
+        final Map synchronizedMap = Collections.synchronizedMap(new HashMap());
+        final ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "${bean" + i + ".property[index] + " + i + "}";
+            Object parsed = evaluator.parseExpressionString(keys[i]);
+            cache.put(keys[i], parsed);
+            synchronizedMap.put(keys[i], parsed);
+        }
+
+        new Benchmark() {
+            void operation(int thread, int iteration) {
+                sSink = cache.get(keys[(iteration + thread * 31) % EXPRESSIONS]);
+            }
+        }.run("SegmentedLruCache.get", threadCounts);
+
+        new Benchmark() {
+            void operation(int thread, int iteration) {
+                sSink = synchronizedMap.get(keys[(iteration + thread * 31) % EXPRESSIONS]);
+            }
+        }.run("synchronizedMap.get", threadCounts);
+
+        new Benchmark() {
+            void operation(int thread, int iteration) throws Exception {
+                sSink = evaluator.parseExpressionString(
+                    keys[(iteration + thread * 31) % EXPRESSIONS]);
+            }
+        }.run("parseExpressionString", threadCounts);
+    }
+}
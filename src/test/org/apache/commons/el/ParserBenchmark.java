@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.apache.commons.el.parser.ELParser;
+
+/**
+ * Measures how many expression Strings per second the hand-written
+ * ExpressionParser and the generated ELParser parse, and how many bytes
+ * each allocates per expression.  The expressions are generated as in
+ * ExpressionParserTest, keeping only those that parse.  The optional
+ * argument is the number of expressions (10000 by default).  The
+ * allocation is the growth of the heap over a pass (see
+ * Benchmark.getAllocatedBytes), and is left out when a collection ran
+ * during the pass.
+ */
+public class ParserBenchmark {
+
+    /** The number of passes over the expressions, of which all but
+        the last MEASURED_ROUNDS are warm-up */
+    static final int ROUNDS = 10;
+    static final int MEASURED_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length == 0) ? 10000 : Integer.parseInt(args[0]);
+        String[] expressions = new String[count];
+        Random random = new Random(20061017L);
+        for (int i = 0; i < count; ) {
+            StringBuffer buf = new StringBuffer("${");
+            ExpressionParserTest.generate(random, 4, buf);
+            buf.append('}');
+            if (ExpressionParser.parse(buf.toString()) != null) {
+                expressions[i++] = buf.toString();
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measured = round >= ROUNDS - MEASURED_ROUNDS;
+
+            Benchmark.collectGarbage();
+            long bytes = Benchmark.getAllocatedBytes();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                Benchmark.sSink = ExpressionParser.parse(expressions[i]);
+            }
+            report(measured, "ExpressionParser", count, start, bytes);
+
+            Benchmark.collectGarbage();
+            bytes = Benchmark.getAllocatedBytes();
+            start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                Benchmark.sSink =
+                    new ELParser(new StringReader(expressions[i])).ExpressionString();
+            }
+            report(measured, "ELParser", count, start, bytes);
+        }
+    }
+
+    /** Prints the parse rate and allocation of a measured pass */
+    static void report(boolean measured, String label, int count, long start, long bytes) {
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        long allocated = Benchmark.getAllocatedBytes() - bytes;
+        if (measured) {
+            System.out.println(label + "\texpressions/s=" + Math.round(count * 1000.0 / elapsed) +
+                               ((allocated < 0) ? "" : "\tbytes/expression=" + allocated / count));
+        }
+    }
+}
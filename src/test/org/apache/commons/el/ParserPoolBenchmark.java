@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.apache.commons.el.parser.ELParser;
+
+/**
+ * Measures the allocation and time of bulk-parsing distinct expression
+ * Strings with the generated ELParser: a new parser (with its token
+ * manager, character stream and lookahead arrays) for each String, as
+ * parseExpressionString used to, against a PooledParser reset with
+ * ReInit.  The optional argument is the number of expressions (50000
+ * by default).  The allocation is the growth of the heap over each
+ * pass, which starts with a forced collection; run it with a young
+ * generation that holds a whole pass, for example
+ *
+ * <pre>
+ *   java -Xmn1g -XX:-UseTLAB -cp ... org.apache.commons.el.ParserPoolBenchmark
+ * </pre>
+ */
+public class ParserPoolBenchmark {
+
+    /** The number of passes, of which all but the last are warm-up */
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length == 0) ? 50000 : Integer.parseInt(args[0]);
+        String[] expressions = new String[count];
+        Random random = new Random(20061017L);
+        for (int i = 0; i < count; ) {
+            StringBuffer buf = new StringBuffer("${");
+            ExpressionParserTest.generate(random, 3, buf);
+            buf.append('}');
+            if (ExpressionParser.parse(buf.toString()) != null) {
+                expressions[i++] = buf.toString();
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measured = round == ROUNDS - 1;
+
+            Benchmark.collectGarbage();
+            long bytes = Benchmark.getAllocatedBytes();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                Benchmark.sSink =
+                    new ELParser(new StringReader(expressions[i])).ExpressionString();
+            }
+            ParserBenchmark.report(measured, "new ELParser", count, start, bytes);
+
+            Benchmark.collectGarbage();
+            bytes = Benchmark.getAllocatedBytes();
+            start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                PooledParser parser = PooledParser.acquire(expressions[i]);
+                Benchmark.sSink = parser.parse();
+                parser.release();
+            }
+            ParserBenchmark.report(measured, "PooledParser", count, start, bytes);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import javax.servlet.jsp.el.ELException;
+
+import junit.framework.TestCase;
+
+public class SegmentedLruCacheTest extends TestCase {
+
+    public void testBounded() {
+        SegmentedLruCache cache = new SegmentedLruCache(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(90, cache.getEvictionCount());
+        assertEquals("value99", cache.get("key99"));
+        assertNull(cache.get("key0"));
+    }
+
+    public void testCounters() {
+        SegmentedLruCache cache = new SegmentedLruCache(10);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.probe("a"));
+        assertNull(cache.probe("b"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    public void testFrequentEntriesSurviveScan() {
+        SegmentedLruCache cache = new SegmentedLruCache(10);
+        cache.put("hot", "hot");
+        cache.get("hot");
+        for (int i = 0; i < 1000; i++) {
+            cache.put("cold" + i, "cold");
+        }
+        assertEquals("hot", cache.get("hot"));
+        assertEquals(10, cache.size());
+    }
+
+    public void testEvaluatorUsesGivenCache() throws ELException {
+        SegmentedLruCache cache = new SegmentedLruCache(2);
+        ExpressionEvaluatorImpl evaluator = new ExpressionEvaluatorImpl(cache);
+        assertSame(cache, evaluator.getExpressionCache());
+        evaluator.parseExpressionString("${a}");
+        evaluator.parseExpressionString("${b}");
+        evaluator.parseExpressionString("${c}");
+        evaluator.parseExpressionString("${c}");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testConcurrentAccess() throws InterruptedException {
+        final SegmentedLruCache cache = new SegmentedLruCache(64);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            String key = "key" + ((i * 31 + seed) % 200);
+                            Object value = cache.get(key);
+                            if (value == null) {
+                                cache.put(key, key);
+                            } else if (!key.equals(value)) {
+                                throw new IllegalStateException(key + " -> " + value);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertNull(failure[0]);
+        assertTrue(cache.size() <= 64);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.el;
+
+import junit.framework.TestCase;
+
+public class WeakIdentityMapTest extends TestCase {
+
+    public void testIdentityKeys() {
+        WeakIdentityMap map = new WeakIdentityMap();
+        String key = new String("key");
+        map.put(key, "value");
+        assertEquals("value", map.get(key));
+        assertNull(map.get(new String("key")));
+        assertEquals("value", map.remove(key));
+        assertNull(map.get(key));
+    }
+
+    public void testNullKey() {
+        WeakIdentityMap map = new WeakIdentityMap();
+        assertNull(map.get(null));
+        map.put(null, "null");
+        assertEquals("null", map.get(null));
+        assertEquals(1, map.keys().length);
+        assertNull(map.keys()[0]);
+        assertEquals("null", map.remove(null));
+        assertNull(map.get(null));
+    }
+
+    public void testCollectedKeysDoNotMatchNull() {
+        WeakIdentityMap map = new WeakIdentityMap();
+        // A key in the same hash chain as null would be
+        Object key = new Object();
+        while ((WeakIdentityMap.hash(key) & (map.mTable.length - 1)) != 0) {
+            key = new Object();
+        }
+        map.put(key, "value");
+        // Simulate the collection of the key
+        WeakIdentityMap.Node[] table = map.mTable;
+        for (int i = 0; i < table.length; i++) {
+            for (WeakIdentityMap.Node node = table[i]; node != null; node = node.mNext) {
+                node.mKey.clear();
+            }
+        }
+        assertNull(map.get(null));
+        assertNull(map.remove(null));
+        assertEquals(0, map.keys().length);
+    }
+}